@@ -0,0 +1,112 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package co.phoenixlab.dn.dnptui.benchmarks;
+
+import co.phoenixlab.dn.dnptui.ChannelSubfileReader;
+import co.phoenixlab.dn.dnptui.ExportJob;
+import co.phoenixlab.dn.dnptui.PakHandler;
+import co.phoenixlab.dn.dnptui.PakLoader;
+import co.phoenixlab.dn.dnptui.PakTree;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exporting every subfile of a virtual pak into a directory through the export pipeline, by the number of threads
+ * inflating subfiles. Each export overwrites the previous one's files.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ExportBenchmark {
+
+    private static final int PAKS = 2;
+    private static final int ENTRIES_PER_PAK = 1000;
+
+    /**
+     * Number of threads inflating subfiles
+     */
+    @Param({"1", "2", "4"})
+    public int threads;
+
+    /**
+     * Decompressed size of each subfile
+     */
+    @Param({"32768"})
+    public int subfileSize;
+
+    private Path dir;
+    private PakHandler handler;
+    private List<ExportJob> jobs;
+    private Set<Path> dirs;
+
+    @Setup
+    public void setup() throws Exception {
+        FixtureGenerator.quietLogging();
+        dir = Files.createTempDirectory("dnptui-bench");
+        List<Path> paks = new FixtureGenerator().writePaks(dir.resolve("paks"), PAKS, ENTRIES_PER_PAK, subfileSize);
+        PakTree tree = new PakLoader(paks, 1, null, new PakLoader.Listener() {
+        }).load();
+        handler = new PakHandler(tree, new ChannelSubfileReader());
+        handler.setExportThreads(threads);
+        Path out = dir.resolve("out");
+        jobs = new ArrayList<>();
+        dirs = new LinkedHashSet<>();
+        dirs.add(out);
+        handler.collectExportJobs(tree.getEntry(PakTree.ROOT), out, jobs, dirs);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        handler.unload();
+        FixtureGenerator.delete(dir);
+    }
+
+    @Benchmark
+    public void exportAll() throws Exception {
+        //  exportAll sorts the list it is given
+        handler.exportAll(new ArrayList<>(jobs), dirs, progress -> {
+        });
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package co.phoenixlab.dn.dnptui.benchmarks;
+
+import co.phoenixlab.dn.dnptui.ChannelSubfileReader;
+import co.phoenixlab.dn.dnptui.MappedSubfileReader;
+import co.phoenixlab.dn.dnptui.PakLoader;
+import co.phoenixlab.dn.dnptui.PakTree;
+import co.phoenixlab.dn.dnptui.SubfileLocation;
+import co.phoenixlab.dn.dnptui.SubfileReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Extracting single subfiles at random, as viewing files in the UI does, through each reader backend. Run with
+ * JMH's -t option to measure extraction from several threads at once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ExtractBenchmark {
+
+    /**
+     * About how much subfile data the pak holds, regardless of the subfile size
+     */
+    private static final int PAK_DATA_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * Decompressed size of each subfile
+     */
+    @Param({"4096", "65536", "1048576"})
+    public int subfileSize;
+
+    /**
+     * The reader backend, channel or mmap
+     */
+    @Param({"channel", "mmap"})
+    public String reader;
+
+    private Path dir;
+    private SubfileReader subfileReader;
+    private SubfileLocation[] locations;
+
+    @Setup
+    public void setup() throws Exception {
+        FixtureGenerator.quietLogging();
+        dir = Files.createTempDirectory("dnptui-bench");
+        int entries = Math.max(16, PAK_DATA_SIZE / subfileSize);
+        List<Path> paks = new FixtureGenerator().writePaks(dir, 1, entries, subfileSize);
+        PakTree tree = new PakLoader(paks, 1, null, new PakLoader.Listener() {
+        }).load();
+        List<SubfileLocation> files = new ArrayList<>(entries);
+        for (int node = 0; node < tree.size(); node++) {
+            if (!tree.isDirectory(node)) {
+                files.add(tree.getLocation(node));
+            }
+        }
+        locations = files.toArray(new SubfileLocation[files.size()]);
+        subfileReader = "mmap".equals(reader) ? new MappedSubfileReader() : new ChannelSubfileReader();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        subfileReader.close();
+        FixtureGenerator.delete(dir);
+    }
+
+    @Benchmark
+    public ByteBuffer extract() throws Exception {
+        return subfileReader.extract(locations[ThreadLocalRandom.current().nextInt(locations.length)]);
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package co.phoenixlab.dn.dnptui.benchmarks;
+
+import co.phoenixlab.dn.dnptui.ChannelSubfileReader;
+import co.phoenixlab.dn.dnptui.MappedSubfileReader;
+import co.phoenixlab.dn.dnptui.PakLoader;
+import co.phoenixlab.dn.dnptui.PakTree;
+import co.phoenixlab.dn.dnptui.SubfileLocation;
+import co.phoenixlab.dn.dnptui.SubfileReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Aggregate extraction throughput through each reader backend, by the number of threads extracting at once. Each
+ * invocation extracts {@link #BATCH_MB} MiB of decompressed subfiles in random order, split between the threads, and
+ * counts as one operation per MiB, so the score in ops/s is MiB/s.
+ * <p>
+ * The pak is written during setup and so is usually still in the page cache. To include disk reads, use a pakMb
+ * larger than the free memory, or drop the page cache between iterations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ExtractThroughputBenchmark {
+
+    /**
+     * MiB of decompressed data extracted per invocation
+     */
+    private static final int BATCH_MB = 64;
+
+    /**
+     * About how much subfile data the pak holds, in MiB
+     */
+    @Param({"256"})
+    public int pakMb;
+
+    /**
+     * Decompressed size of each subfile
+     */
+    @Param({"65536", "1048576"})
+    public int subfileSize;
+
+    /**
+     * The reader backend, channel or mmap
+     */
+    @Param({"channel", "mmap"})
+    public String reader;
+
+    /**
+     * Number of threads extracting at once
+     */
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    private Path dir;
+    private SubfileReader subfileReader;
+    private SubfileLocation[] locations;
+    private ExecutorService pool;
+    private Random random;
+
+    @Setup
+    public void setup() throws Exception {
+        FixtureGenerator.quietLogging();
+        dir = Files.createTempDirectory("dnptui-bench");
+        int entries = Math.max(16, (int) ((long) pakMb * 1024 * 1024 / subfileSize));
+        List<Path> paks = new FixtureGenerator().writePaks(dir, 1, entries, subfileSize);
+        PakTree tree = new PakLoader(paks, 1, null, new PakLoader.Listener() {
+        }).load();
+        List<SubfileLocation> files = new ArrayList<>(entries);
+        for (int node = 0; node < tree.size(); node++) {
+            if (!tree.isDirectory(node)) {
+                files.add(tree.getLocation(node));
+            }
+        }
+        random = new Random(1);
+        Collections.shuffle(files, random);
+        locations = files.toArray(new SubfileLocation[files.size()]);
+        subfileReader = "mmap".equals(reader) ? new MappedSubfileReader() : new ChannelSubfileReader();
+        pool = Executors.newFixedThreadPool(threads);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        pool.shutdownNow();
+        subfileReader.close();
+        FixtureGenerator.delete(dir);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_MB)
+    public long extract() throws Exception {
+        //  Each thread takes every threads-th subfile of a run starting at a random point
+        int count = Math.max(1, (int) ((long) BATCH_MB * 1024 * 1024 / subfileSize));
+        int start = random.nextInt(locations.length);
+        List<Callable<Long>> tasks = new ArrayList<>(threads);
+        for (int t = 0; t < threads; t++) {
+            int first = t;
+            tasks.add(() -> {
+                long bytes = 0;
+                for (int i = first; i < count; i += threads) {
+                    bytes += subfileReader.extract(locations[(start + i) % locations.length]).remaining();
+                }
+                return bytes;
+            });
+        }
+        long bytes = 0;
+        for (Future<Long> future : pool.invokeAll(tasks)) {
+            bytes += future.get();
+        }
+        return bytes;
+    }
+}
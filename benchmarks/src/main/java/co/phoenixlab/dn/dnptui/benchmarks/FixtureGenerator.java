@@ -0,0 +1,474 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package co.phoenixlab.dn.dnptui.benchmarks;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.Deflater;
+
+/**
+ * Generates synthetic paks and subfiles for the benchmarks, since no real game data can ship with the repository.
+ * Everything is generated from a fixed seed, so the same parameters always produce the same bytes.
+ * <p>
+ * Can also be run on its own to write a set of paks and sample subfiles to a directory, for trying out the
+ * application or the command line without a game installation.
+ */
+public class FixtureGenerator {
+
+    /**
+     * Seed used for all generated data
+     */
+    public static final long SEED = 0x444E5054L;
+
+    private static final String PAK_MAGIC = "EyedentityGames Packing File 0.1";
+    private static final int PAK_VERSION = 11;
+    private static final int PAK_HEADER_SIZE = 1024;
+    private static final int PAK_ENTRY_SIZE = 316;
+
+    /**
+     * Number of files per generated directory, roughly what the game's resource directories hold
+     */
+    private static final int FILES_PER_DIR = 64;
+
+    /**
+     * Number of generated directories per parent directory
+     */
+    private static final int DIRS_PER_DIR = 16;
+
+    private static final String[] EXTENSIONS = {".dds", ".msh", ".ani", ".skn", ".act", ".xml", ".lua", ".dnt"};
+
+    private final Random random;
+
+    public FixtureGenerator() {
+        this(SEED);
+    }
+
+    public FixtureGenerator(long seed) {
+        random = new Random(seed);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: FixtureGenerator <output dir> [entries per pak] [paks] [subfile size]");
+            System.exit(2);
+        }
+        Path dir = Paths.get(args[0]);
+        int entries = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+        int paks = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        int subfileSize = args.length > 3 ? Integer.parseInt(args[3]) : 16 * 1024;
+        FixtureGenerator generator = new FixtureGenerator();
+        List<Path> written = generator.writePaks(dir, paks, entries, subfileSize);
+        Path samples = Files.createDirectories(dir.resolve("samples"));
+        write(generator.msh(4, 2000, true), samples.resolve("sample.msh"));
+        write(generator.ani(40, 8, 60), samples.resolve("sample.ani"));
+        write(generator.skn(4, 12), samples.resolve("sample.skn"));
+        write(generator.dds(512, 512, "DXT5"), samples.resolve("sample.dds"));
+        System.out.println("Wrote " + written.size() + " paks and sample subfiles to " + dir);
+    }
+
+    /**
+     * Writes a virtual pak: a set of Resource*.pak files in the layout read by DNPakTool, each holding entries
+     * spread over a two level directory tree. Every subfile is given its own path, so no pak overrides another.
+     *
+     * @param dir         The directory to write the paks to, created if it doesn't exist
+     * @param paks        The number of paks
+     * @param entries     The number of subfiles per pak
+     * @param subfileSize The decompressed size of each subfile
+     * @return The written paks, in load order
+     * @throws IOException If a pak could not be written
+     */
+    public List<Path> writePaks(Path dir, int paks, int entries, int subfileSize) throws IOException {
+        Files.createDirectories(dir);
+        //  All subfiles of the same size compress about equally well, so a handful of distinct payloads is enough
+        //  and keeps generating large paks fast
+        byte[][] payloads = new byte[8][];
+        for (int i = 0; i < payloads.length; i++) {
+            payloads[i] = deflate(payload(subfileSize));
+        }
+        List<Path> written = new ArrayList<>(paks);
+        for (int p = 0; p < paks; p++) {
+            Path pak = dir.resolve(String.format("Resource%02d.pak", p));
+            writePak(pak, p, entries, subfileSize, payloads);
+            written.add(pak);
+        }
+        return written;
+    }
+
+    private void writePak(Path pak, int pakIndex, int entries, int subfileSize, byte[][] payloads)
+            throws IOException {
+        int[] offsets = new int[entries];
+        int[] sizes = new int[entries];
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(pak), 1024 * 1024)) {
+            ByteBuffer header = ByteBuffer.allocate(PAK_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            putFixedString(header, PAK_MAGIC, 256);
+            header.putInt(PAK_VERSION);
+            header.putInt(entries);
+            //  The file table follows the subfiles
+            long tableOffset = PAK_HEADER_SIZE;
+            for (int i = 0; i < entries; i++) {
+                tableOffset += payloads[i % payloads.length].length;
+            }
+            header.putInt((int) tableOffset);
+            out.write(header.array());
+            int offset = PAK_HEADER_SIZE;
+            for (int i = 0; i < entries; i++) {
+                byte[] compressed = payloads[i % payloads.length];
+                out.write(compressed);
+                offsets[i] = offset;
+                sizes[i] = compressed.length;
+                offset += compressed.length;
+            }
+            ByteBuffer entry = ByteBuffer.allocate(PAK_ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            for (int i = 0; i < entries; i++) {
+                entry.clear();
+                putFixedString(entry, subfileName(pakIndex, i), 256);
+                entry.putInt(sizes[i]);
+                entry.putInt(subfileSize);
+                entry.putInt(sizes[i]);
+                entry.putInt(offsets[i]);
+                entry.putInt(0);
+                out.write(entry.array());
+            }
+        }
+    }
+
+    /**
+     * @return The path inside the pak of a generated subfile, in the backslash separated form the game uses
+     */
+    static String subfileName(int pakIndex, int index) {
+        int dir = index / FILES_PER_DIR;
+        return String.format("\\resource\\d%d\\d%d\\p%df%d%s", dir / DIRS_PER_DIR, dir % DIRS_PER_DIR, pakIndex,
+                index, EXTENSIONS[index % EXTENSIONS.length]);
+    }
+
+    /**
+     * Generates subfile contents that compress at roughly the ratio game data does: short runs of bytes drawn from a
+     * small alphabet, mixed with noise
+     *
+     * @param size The size of the contents
+     * @return The contents
+     */
+    public byte[] payload(int size) {
+        byte[] data = new byte[size];
+        int i = 0;
+        while (i < size) {
+            int run = 1 + random.nextInt(8);
+            byte value = (byte) (random.nextInt(4) == 0 ? random.nextInt(256) : random.nextInt(24));
+            for (int j = 0; j < run && i < size; j++) {
+                data[i++] = value;
+            }
+        }
+        return data;
+    }
+
+    /**
+     * Compresses data the way subfiles are stored in a pak
+     */
+    public static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            byte[] out = new byte[data.length + data.length / 100 + 64];
+            int length = 0;
+            while (!deflater.finished()) {
+                if (length == out.length) {
+                    out = Arrays.copyOf(out, out.length * 2);
+                }
+                length += deflater.deflate(out, length, out.length - length);
+            }
+            return Arrays.copyOf(out, length);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Generates a mesh in the layout read by {@link co.phoenixlab.dn.dnptui.viewers.struct.msh.Msh}
+     *
+     * @param meshes   The number of meshes
+     * @param vertices The number of vertices per mesh
+     * @param bones    Whether the meshes are skinned, which adds a skeleton and per-vertex bone weights
+     * @return The mesh file, positioned at its start
+     */
+    public ByteBuffer msh(int meshes, int vertices, boolean bones) {
+        int numBones = bones ? 32 : 0;
+        int indices = (vertices - 2) * 3;
+        int meshSize = 1024 + indices * 2 + vertices * (3 + 3 + 2) * 4;
+        if (bones) {
+            meshSize += vertices * 4 * (2 + 4) + 4 + numBones * 256;
+        }
+        ByteBuffer buf = ByteBuffer.allocate(1024 + numBones * (256 + 64) + meshes * meshSize)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        putFixedString(buf, "Eternity Engine Mesh File 0.1", 256);
+        buf.putInt(13);
+        buf.putInt(meshes);
+        buf.putInt(1);
+        buf.putInt(0);
+        for (int i = 0; i < 6; i++) {
+            buf.putFloat(i < 3 ? -100F : 100F);
+        }
+        buf.putInt(numBones);
+        buf.putInt(0);
+        buf.putInt(0);
+        buf.position(1024);
+        for (int i = 0; i < numBones; i++) {
+            putFixedString(buf, "Bone" + i, 256);
+            putFloats(buf, 16);
+        }
+        for (int m = 0; m < meshes; m++) {
+            int start = buf.position();
+            putFixedString(buf, "Scene Root", 256);
+            putFixedString(buf, "Mesh" + m, 256);
+            buf.putInt(vertices);
+            buf.putInt(indices);
+            buf.putInt(1);
+            buf.putInt(bones ? 256 : 0);
+            buf.position(start + 1024);
+            for (int i = 0; i < indices; i++) {
+                buf.putShort((short) random.nextInt(vertices));
+            }
+            putFloats(buf, vertices * (3 + 3 + 2));
+            if (bones) {
+                for (int i = 0; i < vertices * 4; i++) {
+                    buf.putShort((short) random.nextInt(numBones));
+                }
+                putFloats(buf, vertices * 4);
+                buf.putInt(numBones);
+                for (int i = 0; i < numBones; i++) {
+                    putFixedString(buf, "Bone" + i, 256);
+                }
+            }
+        }
+        buf.flip();
+        return buf;
+    }
+
+    /**
+     * Generates a version 11 animation in the layout read by
+     * {@link co.phoenixlab.dn.dnptui.viewers.struct.ani.Ani}, with a key for every frame of every bone
+     *
+     * @param bones      The number of bones
+     * @param animations The number of animations
+     * @param frames     The number of frames per animation
+     * @return The animation file, positioned at its start
+     */
+    public ByteBuffer ani(int bones, int animations, int frames) {
+        int keys = frames * ((2 + 12) + (2 + 8) + (2 + 12)) + 12;
+        ByteBuffer buf = ByteBuffer.allocate(1024 + animations * (256 + 4) +
+                bones * (1024 + animations * (40 + keys))).order(ByteOrder.LITTLE_ENDIAN);
+        putFixedString(buf, "Eternity Engine Ani File 0.1", 256);
+        buf.putInt(11);
+        buf.putInt(bones);
+        buf.putInt(animations);
+        buf.position(1024);
+        for (int i = 0; i < animations; i++) {
+            putFixedString(buf, "Animation" + i, 256);
+        }
+        for (int i = 0; i < animations; i++) {
+            buf.putInt(frames);
+        }
+        for (int b = 0; b < bones; b++) {
+            putFixedString(buf, "Bone" + b, 256);
+            putFixedString(buf, b == 0 ? "" : "Bone" + (b - 1), 768);
+            for (int a = 0; a < animations; a++) {
+                putFloats(buf, 10);
+                buf.putInt(frames);
+                for (int f = 0; f < frames; f++) {
+                    buf.putShort((short) f);
+                    putFloats(buf, 3);
+                }
+                buf.putInt(frames);
+                for (int f = 0; f < frames; f++) {
+                    buf.putShort((short) f);
+                    for (int i = 0; i < 4; i++) {
+                        //  Half precision value between 0 and 1
+                        buf.putShort((short) random.nextInt(0x3C00));
+                    }
+                }
+                buf.putInt(frames);
+                for (int f = 0; f < frames; f++) {
+                    buf.putShort((short) f);
+                    putFloats(buf, 3);
+                }
+            }
+        }
+        buf.flip();
+        return buf;
+    }
+
+    /**
+     * Generates a skin in the layout read by {@link co.phoenixlab.dn.dnptui.viewers.struct.skn.Skn}, cycling
+     * through the float, vector and string parameter types
+     *
+     * @param entries The number of entries
+     * @param params  The number of parameters per entry
+     * @return The skin file, positioned at its start
+     */
+    public ByteBuffer skn(int entries, int params) {
+        ByteBuffer buf = ByteBuffer.allocate(1024 + entries * (1024 + 4 + params * 64))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        putFixedString(buf, "Eternity Engine Skin File 0.1", 256);
+        putFixedString(buf, "sample.msh", 256);
+        buf.putInt(11);
+        buf.putInt(entries);
+        buf.position(1024);
+        for (int e = 0; e < entries; e++) {
+            putFixedString(buf, "Mesh" + e, 256);
+            putFixedString(buf, "diffuse.fx", 256);
+            buf.putFloat(1F);
+            buf.position(buf.position() + 508);
+            buf.putInt(params);
+            for (int p = 0; p < params; p++) {
+                putLPNTString(buf, "g_Param" + p);
+                int type = 1 + p % 3;
+                buf.putInt(type);
+                if (type == 1) {
+                    buf.putFloat(random.nextFloat());
+                } else if (type == 2) {
+                    putFloats(buf, 4);
+                } else {
+                    putLPNTString(buf, "texture" + p + ".dds");
+                }
+            }
+        }
+        buf.flip();
+        return buf;
+    }
+
+    /**
+     * Generates a block compressed texture without mipmaps
+     *
+     * @param width  The width, a multiple of 4
+     * @param height The height, a multiple of 4
+     * @param format DXT1 or DXT5
+     * @return The texture file, positioned at its start
+     */
+    public ByteBuffer dds(int width, int height, String format) {
+        int blockSize;
+        if ("DXT1".equals(format)) {
+            blockSize = 8;
+        } else if ("DXT5".equals(format)) {
+            blockSize = 16;
+        } else {
+            throw new IllegalArgumentException("Unsupported format " + format);
+        }
+        int dataSize = (width / 4) * (height / 4) * blockSize;
+        ByteBuffer buf = ByteBuffer.allocate(128 + dataSize).order(ByteOrder.LITTLE_ENDIAN);
+        buf.put("DDS ".getBytes(StandardCharsets.US_ASCII));
+        buf.putInt(124);
+        //  DDSD_CAPS | DDSD_HEIGHT | DDSD_WIDTH | DDSD_PIXELFORMAT | DDSD_LINEARSIZE
+        buf.putInt(0x81007);
+        buf.putInt(height);
+        buf.putInt(width);
+        buf.putInt(dataSize);
+        buf.putInt(0);
+        buf.putInt(1);
+        buf.position(4 + 72);
+        //  Pixel format: DDPF_FOURCC
+        buf.putInt(32);
+        buf.putInt(0x4);
+        buf.put(format.getBytes(StandardCharsets.US_ASCII));
+        buf.position(4 + 104);
+        //  DDSCAPS_TEXTURE
+        buf.putInt(0x1000);
+        buf.position(128);
+        byte[] blocks = new byte[dataSize];
+        random.nextBytes(blocks);
+        buf.put(blocks);
+        buf.flip();
+        return buf;
+    }
+
+    /**
+     * Deletes a directory and everything in it, if it exists
+     */
+    public static void delete(Path dir) throws IOException {
+        if (dir == null || !Files.exists(dir)) {
+            return;
+        }
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path d, IOException exc) throws IOException {
+                Files.delete(d);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Raises the logging threshold to warnings, so that per pak load messages don't end up in the measurements
+     */
+    public static void quietLogging() {
+        Logger.getLogger("").setLevel(Level.WARNING);
+    }
+
+    private static void write(ByteBuffer data, Path path) throws IOException {
+        byte[] bytes = new byte[data.remaining()];
+        data.duplicate().get(bytes);
+        Files.write(path, bytes);
+    }
+
+    private void putFloats(ByteBuffer buf, int count) {
+        for (int i = 0; i < count; i++) {
+            buf.putFloat(random.nextFloat() * 2F - 1F);
+        }
+    }
+
+    private static void putFixedString(ByteBuffer buf, String s, int size) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        int start = buf.position();
+        buf.put(bytes, 0, Math.min(bytes.length, size - 1));
+        buf.position(start + size);
+    }
+
+    private static void putLPNTString(ByteBuffer buf, String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        buf.putInt(bytes.length + 1);
+        buf.put(bytes);
+        buf.put((byte) 0);
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package co.phoenixlab.dn.dnptui.benchmarks;
+
+import co.phoenixlab.dn.dnptui.viewers.struct.ani.Ani;
+import co.phoenixlab.dn.dnptui.viewers.struct.msh.Msh;
+import co.phoenixlab.dn.dnptui.viewers.struct.skn.Skn;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing mesh, animation and skin subfiles, as their viewers do before displaying them
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FormatBenchmark {
+
+    /**
+     * Multiplier for the size of each file: the vertex count of the meshes, the frame count of the animations and
+     * the entry count of the skins
+     */
+    @Param({"1", "8"})
+    public int scale;
+
+    private ByteBuffer msh;
+    private ByteBuffer skinnedMsh;
+    private ByteBuffer ani;
+    private ByteBuffer skn;
+
+    @Setup
+    public void setup() {
+        FixtureGenerator generator = new FixtureGenerator();
+        msh = generator.msh(4, 2000 * scale, false);
+        skinnedMsh = generator.msh(4, 2000 * scale, true);
+        ani = generator.ani(40, 8, 60 * scale);
+        skn = generator.skn(4 * scale, 12);
+    }
+
+    @Benchmark
+    public Msh msh() {
+        return new Msh(msh.duplicate());
+    }
+
+    @Benchmark
+    public Msh skinnedMsh() {
+        return new Msh(skinnedMsh.duplicate());
+    }
+
+    @Benchmark
+    public Ani ani() {
+        return new Ani(ani.duplicate());
+    }
+
+    @Benchmark
+    public Skn skn() {
+        return new Skn(skn.duplicate());
+    }
+}
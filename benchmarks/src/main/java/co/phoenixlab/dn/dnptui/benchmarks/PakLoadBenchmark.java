@@ -0,0 +1,112 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package co.phoenixlab.dn.dnptui.benchmarks;
+
+import co.phoenixlab.dn.dnptui.PakIndexCache;
+import co.phoenixlab.dn.dnptui.PakLoader;
+import co.phoenixlab.dn.dnptui.PakTable;
+import co.phoenixlab.dn.dnptui.PakTree;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading a virtual pak of four paks, either by reading every pak's file table or from an up to date index. The
+ * paks are small enough to stay in the page cache, so this measures parsing rather than the disk.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PakLoadBenchmark {
+
+    private static final int PAKS = 4;
+
+    /**
+     * Total number of subfiles across all paks
+     */
+    @Param({"10000", "100000"})
+    public int entries;
+
+    /**
+     * Number of paks loaded at the same time
+     */
+    @Param({"1", "4"})
+    public int threads;
+
+    private Path dir;
+    private List<Path> paks;
+    private PakIndexCache indexCache;
+
+    @Setup
+    public void setup() throws Exception {
+        FixtureGenerator.quietLogging();
+        dir = Files.createTempDirectory("dnptui-bench");
+        paks = new FixtureGenerator().writePaks(dir.resolve("paks"), PAKS, entries / PAKS, 256);
+        indexCache = new PakIndexCache(dir.resolve("index"));
+        //  Populates the index for loadIndexed
+        new PakLoader(paks, threads, indexCache, new PakLoader.Listener() {
+        }).load();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        FixtureGenerator.delete(dir);
+    }
+
+    @Benchmark
+    public List<PakTable> loadTables() throws Exception {
+        return new PakLoader(paks, threads, null, new PakLoader.Listener() {
+        }).loadTables(table -> {
+        });
+    }
+
+    @Benchmark
+    public PakTree loadAndBuild() throws Exception {
+        return new PakLoader(paks, threads, null, new PakLoader.Listener() {
+        }).load();
+    }
+
+    @Benchmark
+    public PakTree loadIndexed() throws Exception {
+        return new PakLoader(paks, threads, indexCache, new PakLoader.Listener() {
+        }).load();
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package co.phoenixlab.dn.dnptui.benchmarks;
+
+import co.phoenixlab.dn.dnptui.PakLoader;
+import co.phoenixlab.dn.dnptui.PakTable;
+import co.phoenixlab.dn.dnptui.PakTree;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building the file tree from already loaded pak tables, both all at once and once per pak as the UI does while it
+ * displays the tree during loading, and walking the finished tree the way expanding every directory in the UI does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PakTreeBenchmark {
+
+    private static final int PAKS = 4;
+
+    /**
+     * Total number of subfiles across all paks
+     */
+    @Param({"10000", "100000"})
+    public int entries;
+
+    /**
+     * Number of threads the tree is built on
+     */
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    private Path dir;
+    private List<PakTable> tables;
+    private PakTree tree;
+
+    @Setup
+    public void setup() throws Exception {
+        FixtureGenerator.quietLogging();
+        dir = Files.createTempDirectory("dnptui-bench");
+        List<Path> paks = new FixtureGenerator().writePaks(dir, PAKS, entries / PAKS, 256);
+        tables = new PakLoader(paks, 1, null, new PakLoader.Listener() {
+        }).loadTables(table -> {
+        });
+        tree = PakTree.build(tables);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        FixtureGenerator.delete(dir);
+    }
+
+    @Benchmark
+    public PakTree build() {
+        return PakTree.build(tables, threads);
+    }
+
+    /**
+     * Builds a tree after each pak, the way the tree is rebuilt while a virtual pak is still loading when every pak
+     * finishes loading after the previous snapshot was built
+     */
+    @Benchmark
+    public void buildSnapshots(Blackhole blackhole) {
+        for (int i = 1; i <= tables.size(); i++) {
+            blackhole.consume(PakTree.build(tables.subList(0, i), threads));
+        }
+    }
+
+    @Benchmark
+    public void walk(Blackhole blackhole) {
+        walk(PakTree.ROOT, blackhole);
+    }
+
+    private void walk(int node, Blackhole blackhole) {
+        int count = tree.getChildCount(node);
+        for (int i = 0; i < count; i++) {
+            int child = tree.getChild(node, i);
+            blackhole.consume(tree.getName(child));
+            if (tree.isDirectory(child)) {
+                walk(child, blackhole);
+            }
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package co.phoenixlab.dn.dnptui;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Base for sinks that stream every subfile into a single archive file. Entries are written one at a time, so the
+ * archive is written by a single thread while the rest of the export pipeline keeps running.
+ */
+public abstract class ArchiveExportSink implements ExportSink {
+
+    /**
+     * Size of the output buffer
+     */
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private final OutputStream out;
+    /**
+     * Number of bytes written so far
+     */
+    private long position;
+    /**
+     * Buffer for copying out of direct buffers
+     */
+    private byte[] copyBuffer;
+
+    protected ArchiveExportSink(Path archive) throws IOException {
+        out = new BufferedOutputStream(Files.newOutputStream(archive), BUFFER_SIZE);
+    }
+
+    @Override
+    public int getMaxWriters() {
+        return 1;
+    }
+
+    /**
+     * @return The number of bytes written so far
+     */
+    protected long position() {
+        return position;
+    }
+
+    protected void write(byte[] bytes, int offset, int length) throws IOException {
+        out.write(bytes, offset, length);
+        position += length;
+    }
+
+    protected void write(byte[] bytes) throws IOException {
+        write(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Writes the remaining contents of a buffer without changing its position
+     */
+    protected void write(ByteBuffer data) throws IOException {
+        if (data.hasArray()) {
+            write(data.array(), data.arrayOffset() + data.position(), data.remaining());
+            return;
+        }
+        ByteBuffer in = data.duplicate();
+        if (copyBuffer == null) {
+            copyBuffer = new byte[64 * 1024];
+        }
+        while (in.hasRemaining()) {
+            int length = Math.min(copyBuffer.length, in.remaining());
+            in.get(copyBuffer, 0, length);
+            write(copyBuffer, 0, length);
+        }
+    }
+
+    /**
+     * Writes the archive's trailing structures. Called once by {@link #close()}
+     */
+    protected abstract void finish() throws IOException;
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package co.phoenixlab.dn.dnptui;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads subfile data out of paks using positional reads. Each pak gets its own small set of read-only channels
+ * (stripes), so reads from different paks never contend, and reads from the same pak only share a channel when there
+ * are more concurrent readers than stripes.
+ */
+public class ChannelSubfileReader extends SubfileReader {
+
+    /**
+     * Logger
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(ChannelSubfileReader.class);
+
+    /**
+     * Default number of channels opened per pak. Can be overridden with the co.phoenixlab.dn.dnptui.read.stripes
+     * system property
+     */
+    public static final int DEFAULT_STRIPES = Integer.getInteger("co.phoenixlab.dn.dnptui.read.stripes", 4);
+
+    /**
+     * Channel stripes for each pak, opened on first read
+     */
+    private final Map<Path, Stripe[]> stripes;
+    /**
+     * Number of stripes per pak
+     */
+    private final int numStripes;
+    /**
+     * Round robin counter for picking a stripe
+     */
+    private final AtomicInteger nextStripe;
+
+    public ChannelSubfileReader() {
+        this(DEFAULT_STRIPES);
+    }
+
+    public ChannelSubfileReader(int numStripes) {
+        this.numStripes = Math.max(1, numStripes);
+        stripes = new ConcurrentHashMap<>();
+        nextStripe = new AtomicInteger();
+    }
+
+    /**
+     * Reads the compressed data of a subfile.
+     *
+     * @param location Where the subfile is stored
+     * @return A heap ByteBuffer containing exactly the compressed data, positioned at 0
+     * @throws IOException If there was an I/O error while reading
+     */
+    @Override
+    public ByteBuffer readCompressed(SubfileLocation location) throws IOException {
+        return read(location, ByteBuffer.allocate(location.compressedSize));
+    }
+
+    @Override
+    protected boolean needsScratch() {
+        return true;
+    }
+
+    /**
+     * Reads the compressed data of a subfile into the given scratch array.
+     *
+     * @param location Where the subfile is stored
+     * @param scratch  An array at least location.compressedSize long to read into
+     * @return A heap ByteBuffer backed by scratch containing exactly the compressed data, positioned at 0
+     * @throws IOException If there was an I/O error while reading
+     */
+    @Override
+    protected ByteBuffer readCompressed(SubfileLocation location, byte[] scratch) throws IOException {
+        return read(location, ByteBuffer.wrap(scratch, 0, location.compressedSize));
+    }
+
+    /**
+     * Fills the given buffer with the compressed data of a subfile
+     *
+     * @return The buffer, flipped
+     */
+    private ByteBuffer read(SubfileLocation location, ByteBuffer buffer) throws IOException {
+        long position = location.diskOffset;
+        Stripe stripe = stripeFor(location.pak);
+        while (true) {
+            FileChannel channel = stripe.channel();
+            try {
+                while (buffer.hasRemaining()) {
+                    int read = channel.read(buffer, position + buffer.position());
+                    if (read < 0) {
+                        throw new EOFException("Unexpected end of " + location.pak + " at " +
+                                (position + buffer.position()));
+                    }
+                }
+                break;
+            } catch (ClosedByInterruptException e) {
+                //  The reading thread was interrupted (e.g. cancelled), don't retry
+                throw e;
+            } catch (ClosedChannelException e) {
+                //  Another reader on this stripe was interrupted, which closes the channel for everyone. If the pak
+                //  was released instead, this throws
+                stripe.reopen(channel);
+                buffer.position(0);
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Picks a stripe for the given pak, opening the pak's stripes if this is the first read
+     */
+    private Stripe stripeFor(Path pak) {
+        Stripe[] pakStripes = stripes.computeIfAbsent(pak, p -> {
+            Stripe[] s = new Stripe[numStripes];
+            for (int i = 0; i < numStripes; i++) {
+                s[i] = new Stripe(p);
+            }
+            return s;
+        });
+        return pakStripes[Math.floorMod(nextStripe.getAndIncrement(), numStripes)];
+    }
+
+    /**
+     * Closes the channels opened for the given pak, if any
+     *
+     * @param pak The path of the pak to release
+     */
+    @Override
+    public void release(Path pak) {
+        Stripe[] pakStripes = stripes.remove(pak);
+        if (pakStripes != null) {
+            for (Stripe stripe : pakStripes) {
+                stripe.close();
+            }
+        }
+    }
+
+    /**
+     * Closes all open channels
+     */
+    @Override
+    public void close() {
+        stripes.keySet().forEach(this::release);
+    }
+
+    /**
+     * A single lazily opened read-only channel to a pak. Once closed it stays closed, so that a read still running
+     * when the pak is released fails instead of opening a channel that nothing would ever close.
+     */
+    private static class Stripe {
+
+        private final Path pak;
+        private FileChannel channel;
+        /**
+         * Whether the pak was released
+         */
+        private boolean closed;
+
+        Stripe(Path pak) {
+            this.pak = pak;
+        }
+
+        /**
+         * @return The open channel
+         * @throws ClosedChannelException If the stripe was closed
+         */
+        synchronized FileChannel channel() throws IOException {
+            if (closed) {
+                throw new ClosedChannelException();
+            }
+            if (channel == null || !channel.isOpen()) {
+                channel = FileChannel.open(pak, StandardOpenOption.READ);
+            }
+            return channel;
+        }
+
+        /**
+         * Reopens the channel if it is still the one that failed
+         *
+         * @throws ClosedChannelException If the stripe was closed
+         */
+        synchronized void reopen(FileChannel failed) throws IOException {
+            if (channel == failed) {
+                channel = null;
+            }
+            channel();
+        }
+
+        synchronized void close() {
+            closed = true;
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    LOGGER.warn("Unable to close channel to " + pak, e);
+                }
+                channel = null;
+            }
+        }
+    }
+}
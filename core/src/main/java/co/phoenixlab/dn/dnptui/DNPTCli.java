@@ -0,0 +1,383 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package co.phoenixlab.dn.dnptui;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.function.DoubleConsumer;
+import java.util.logging.Level;
+
+/**
+ * Command line entry point for listing, searching and exporting paks without starting the UI. Uses no JavaFX
+ * classes, so it runs on machines without a display or JavaFX at all:
+ * <pre>
+ * java -cp DNPakToolUI.jar co.phoenixlab.dn.dnptui.DNPTCli list /path/to/client "**.dds"
+ * </pre>
+ * The pak argument is either a single pak or a directory, in which case every Resource*.pak in it is loaded as a
+ * virtual pak, as with the Virtual Pak button.
+ */
+public class DNPTCli {
+
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "Usage: DNPTCli <command> [options] <pak|dir> [arguments]",
+            "",
+            "Commands:",
+            "  list <pak|dir> [glob...]             List subfiles, or only the ones matching any of the globs",
+            "  stat <pak|dir> <path...>             Show where subfiles are stored and how big they are",
+            "  search <pak|dir> <query>             Search entry paths, like the Find dialog",
+            "  extract <pak|dir> <out> <glob...>    Export the subfiles matching any of the globs under their full",
+            "                                       paths, into a directory or a .zip or .tar archive",
+            "  export-tree <pak|dir> <out> [dir]    Export a directory, or everything, into a directory, skipping",
+            "                                       files that are unchanged since the last export into it",
+            "",
+            "Options:",
+            "  -t, --threads <n>    Number of threads to inflate subfiles on",
+            "  -m, --mode <mode>    Search mode: contains, prefix or glob (default contains)",
+            "  -v, --verbose        Log what is being done",
+            "",
+            "Globs are matched against the whole path, so use ** to match any number of directories, e.g. **.dds or",
+            "resource/ui/**.dds");
+
+    /**
+     * Whether the default file system's globs ignore case, as they do on Windows
+     */
+    private static final boolean GLOB_IGNORES_CASE =
+            FileSystems.getDefault().getPathMatcher("glob:a").matches(Paths.get("A"));
+
+    private final PrintStream out;
+    private final PrintStream err;
+    private int threads = ExportPipeline.DEFAULT_INFLATERS;
+    private SearchIndex.Mode mode = SearchIndex.Mode.SUBSTRING;
+    private boolean verbose;
+    /**
+     * Last percentage printed by the progress listener
+     */
+    private int lastPercent = -1;
+
+    public DNPTCli(PrintStream out, PrintStream err) {
+        this.out = out;
+        this.err = err;
+    }
+
+    public static void main(String[] args) {
+        System.exit(new DNPTCli(System.out, System.err).run(args));
+    }
+
+    /**
+     * Runs a command
+     *
+     * @param args The command line arguments
+     * @return The exit code: 0 on success, 1 if the command failed, or 2 if the arguments were invalid
+     */
+    public int run(String[] args) {
+        List<String> positional = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                switch (arg) {
+                    case "-t":
+                    case "--threads":
+                        threads = Integer.parseInt(value(args, ++i, arg));
+                        break;
+                    case "-m":
+                    case "--mode":
+                        mode = parseMode(value(args, ++i, arg));
+                        break;
+                    case "-v":
+                    case "--verbose":
+                        verbose = true;
+                        break;
+                    case "-h":
+                    case "--help":
+                        out.println(USAGE);
+                        return 0;
+                    default:
+                        positional.add(arg);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            err.println(e.getMessage());
+            err.println(USAGE);
+            return 2;
+        }
+        if (positional.size() < 2) {
+            err.println(USAGE);
+            return 2;
+        }
+        //  The UI logs everything; on the command line only problems are of interest
+        java.util.logging.Logger.getLogger("").setLevel(verbose ? Level.INFO : Level.WARNING);
+        String command = positional.get(0);
+        List<String> commandArgs = positional.subList(2, positional.size());
+        PakHandler handler;
+        try {
+            handler = load(Paths.get(positional.get(1)));
+        } catch (Exception e) {
+            err.println("Unable to load " + positional.get(1) + ": " + e);
+            return 1;
+        }
+        handler.setExportThreads(threads);
+        try {
+            switch (command) {
+                case "list":
+                    return list(handler, commandArgs);
+                case "stat":
+                    return stat(handler, commandArgs);
+                case "search":
+                    return search(handler, commandArgs);
+                case "extract":
+                    return extract(handler, commandArgs);
+                case "export-tree":
+                    return exportTree(handler, commandArgs);
+                default:
+                    err.println("Unknown command " + command);
+                    err.println(USAGE);
+                    return 2;
+            }
+        } catch (IOException e) {
+            err.println("Failed: " + e);
+            return 1;
+        } finally {
+            handler.unload();
+        }
+    }
+
+    private static String value(String[] args, int i, String option) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException("Missing value for " + option);
+        }
+        return args[i];
+    }
+
+    private static SearchIndex.Mode parseMode(String name) {
+        for (SearchIndex.Mode mode : SearchIndex.Mode.values()) {
+            if (mode.name().equalsIgnoreCase(name) || mode.toString().equalsIgnoreCase(name)) {
+                return mode;
+            }
+        }
+        throw new IllegalArgumentException("Unknown search mode " + name);
+    }
+
+    private PakHandler load(Path path) throws Exception {
+        List<Path> paks = PakLoader.findPaks(path);
+        if (paks.isEmpty()) {
+            throw new IOException("No paks found");
+        }
+        PakLoader loader = new PakLoader(paks, PakLoader.DEFAULT_LOAD_THREADS,
+                PakIndexCache.ENABLED ? new PakIndexCache(PakIndexCache.DEFAULT_DIR) : null, new PakLoader.Listener() {
+                });
+        return new PakHandler(loader.load());
+    }
+
+    private int list(PakHandler handler, List<String> globs) {
+        for (PakTreeEntry entry : findFiles(handler.getTree(), globs)) {
+            out.println(entry.getPathString());
+        }
+        return 0;
+    }
+
+    private int stat(PakHandler handler, List<String> paths) {
+        if (paths.isEmpty()) {
+            err.println("stat needs at least one path");
+            return 2;
+        }
+        PakTree tree = handler.getTree();
+        int result = 0;
+        for (String path : paths) {
+            PakTreeEntry entry = handler.find(Paths.get(path));
+            if (entry == null) {
+                err.println(path + ": not found");
+                result = 1;
+            } else if (entry.isDirectory()) {
+                DirectoryStats stats = tree.getStats(entry.node);
+                out.printf("%s: directory, %s%n", entry.getPathString(), stats);
+                for (DirectoryStats.Extension extension : stats.extensions) {
+                    out.println("  " + extension);
+                }
+            } else {
+                SubfileLocation location = entry.getLocation();
+                out.printf("%s: %s offset 0x%X, %,d bytes compressed, %,d bytes decompressed%n",
+                        entry.getPathString(), location.pak, location.diskOffset, location.compressedSize,
+                        location.decompressedSize);
+                for (SubfileLocation overridden : tree.getShadowed(entry.node)) {
+                    out.printf("  overrides %s offset 0x%X, %,d bytes compressed, %,d bytes decompressed%n",
+                            overridden.pak, overridden.diskOffset, overridden.compressedSize,
+                            overridden.decompressedSize);
+                }
+            }
+        }
+        return result;
+    }
+
+    private int search(PakHandler handler, List<String> args) {
+        if (args.size() != 1) {
+            err.println("search needs exactly one query");
+            return 2;
+        }
+        SearchIndex index = handler.buildSearchIndex();
+        int matches = index.search(args.get(0), mode, doc -> out.println(index.getPath(doc)), () -> false);
+        return matches > 0 ? 0 : 1;
+    }
+
+    private int extract(PakHandler handler, List<String> args) throws IOException {
+        if (args.size() < 2) {
+            err.println("extract needs an output and at least one glob");
+            return 2;
+        }
+        Path output = Paths.get(args.get(0));
+        List<PakTreeEntry> files = findFiles(handler.getTree(), args.subList(1, args.size()));
+        if (files.isEmpty()) {
+            err.println("No subfiles match");
+            return 1;
+        }
+        long start = System.nanoTime();
+        String fileName = output.getFileName().toString().toLowerCase(Locale.ROOT);
+        if (fileName.endsWith(".zip") || fileName.endsWith(".tar")) {
+            handler.exportArchive(files, output, progress());
+        } else {
+            List<ExportJob> jobs = new ArrayList<>();
+            Set<Path> dirs = new LinkedHashSet<>();
+            dirs.add(output);
+            handler.collectExportJobs(files, output, jobs, dirs);
+            handler.exportAll(jobs, dirs, progress());
+        }
+        finishProgress();
+        err.printf("Exported %,d files in %,d ms%n", files.size(), (System.nanoTime() - start) / 1000000L);
+        return 0;
+    }
+
+    private int exportTree(PakHandler handler, List<String> args) throws IOException {
+        if (args.isEmpty() || args.size() > 2) {
+            err.println("export-tree needs an output directory and optionally the directory to export");
+            return 2;
+        }
+        Path output = Paths.get(args.get(0));
+        PakTreeEntry dir = args.size() > 1 ? handler.find(Paths.get(args.get(1))) :
+                handler.getTree().getEntry(PakTree.ROOT);
+        if (dir == null || !dir.isDirectory()) {
+            err.println(args.get(1) + ": not a directory");
+            return 1;
+        }
+        long start = System.nanoTime();
+        handler.exportDirectory(dir, output, progress());
+        finishProgress();
+        err.printf("Exported %s in %,d ms%n", dir.node == PakTree.ROOT ? "everything" : dir.getPathString(),
+                (System.nanoTime() - start) / 1000000L);
+        return 0;
+    }
+
+    /**
+     * Collects every subfile matching any of the given globs, in tree order
+     *
+     * @param tree  The tree to search
+     * @param globs The globs, matched against the whole path. Matches every subfile if empty
+     * @return The matching subfiles
+     */
+    private static List<PakTreeEntry> findFiles(PakTree tree, List<String> globs) {
+        List<PathMatcher> matchers = new ArrayList<>(globs.size());
+        List<String> suffixes = new ArrayList<>();
+        for (String glob : globs) {
+            //  The usual **.ext glob only looks at the end of the name, which the tree can check in place instead of
+            //  building each subfile's Path
+            String suffix = glob.startsWith("**") ? glob.substring(2) : "";
+            if (!suffix.isEmpty() && suffix.chars().noneMatch(c -> "*?[]{}/\\".indexOf(c) >= 0)) {
+                suffixes.add(suffix);
+            } else {
+                matchers.add(FileSystems.getDefault().getPathMatcher("glob:" + glob));
+            }
+        }
+        boolean matchAll = globs.isEmpty();
+        List<PakTreeEntry> files = new ArrayList<>();
+        Deque<Integer> stack = new ArrayDeque<>();
+        stack.push(PakTree.ROOT);
+        while (!stack.isEmpty()) {
+            int node = stack.pop();
+            if (tree.isDirectory(node)) {
+                for (int i = tree.getChildCount(node) - 1; i >= 0; i--) {
+                    stack.push(tree.getChild(node, i));
+                }
+            } else if (matchAll || endsWith(suffixes, tree, node) || matches(matchers, tree, node)) {
+                files.add(tree.getEntry(node));
+            }
+        }
+        return files;
+    }
+
+    private static boolean endsWith(List<String> suffixes, PakTree tree, int node) {
+        for (String suffix : suffixes) {
+            if (tree.nameEndsWith(node, suffix, GLOB_IGNORES_CASE)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean matches(List<PathMatcher> matchers, PakTree tree, int node) {
+        if (matchers.isEmpty()) {
+            return false;
+        }
+        Path path = tree.getPath(node);
+        for (PathMatcher matcher : matchers) {
+            if (matcher.matches(path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return A progress listener printing the percentage done to stderr when it changes. Safe to call from several
+     * threads
+     */
+    private DoubleConsumer progress() {
+        lastPercent = -1;
+        return d -> {
+            int percent = (int) (d * 100D);
+            synchronized (this) {
+                if (percent > lastPercent) {
+                    lastPercent = percent;
+                    err.print("\r" + percent + "%");
+                    err.flush();
+                }
+            }
+        };
+    }
+
+    private synchronized void finishProgress() {
+        if (lastPercent >= 0) {
+            err.println();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package co.phoenixlab.dn.dnptui;
+
+import java.util.List;
+
+/**
+ * Totals for everything below a directory in a {@link PakTree}, as returned by {@link PakTree#getStats(int)}
+ */
+public class DirectoryStats {
+
+    public final int fileCount;
+    public final int directoryCount;
+    public final long compressedSize;
+    public final long decompressedSize;
+    /**
+     * Subfile counts and sizes by extension, largest decompressed size first
+     */
+    public final List<Extension> extensions;
+
+    public DirectoryStats(int fileCount, int directoryCount, long compressedSize, long decompressedSize,
+                          List<Extension> extensions) {
+        this.fileCount = fileCount;
+        this.directoryCount = directoryCount;
+        this.compressedSize = compressedSize;
+        this.decompressedSize = decompressedSize;
+        this.extensions = extensions;
+    }
+
+    /**
+     * Totals for the subfiles with one extension
+     */
+    public static class Extension {
+
+        /**
+         * The extension in lower case without the dot, or an empty string for subfiles without one
+         */
+        public final String name;
+        public final int fileCount;
+        public final long decompressedSize;
+
+        public Extension(String name, int fileCount, long decompressedSize) {
+            this.name = name;
+            this.fileCount = fileCount;
+            this.decompressedSize = decompressedSize;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %,d files, %,d bytes", name.isEmpty() ? "(none)" : name, fileCount,
+                    decompressedSize);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%,d files, %,d directories, %,d bytes compressed, %,d bytes decompressed", fileCount,
+                directoryCount, compressedSize, decompressedSize);
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package co.phoenixlab.dn.dnptui;
+
+import java.nio.file.Path;
+
+/**
+ * A single subfile to export and its destination. The subfile is addressed by its node id rather than a PakTreeEntry,
+ * so collecting the jobs for a large directory allocates nothing per subfile but the job and its path.
+ */
+public class ExportJob {
+
+    public final PakTree tree;
+    public final int node;
+    public final Path exportPath;
+
+    public ExportJob(PakTree tree, int node, Path exportPath) {
+        this.tree = tree;
+        this.node = node;
+        this.exportPath = exportPath;
+    }
+
+    /**
+     * @return Where the subfile is stored
+     */
+    public SubfileLocation getLocation() {
+        return tree.getLocation(node);
+    }
+
+    /**
+     * @return The subfile's path in the tree, for logging
+     */
+    public String getPathString() {
+        return tree.getPathString(node);
+    }
+}
@@ -0,0 +1,304 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package co.phoenixlab.dn.dnptui;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Record of the subfiles previously exported into a directory, kept in a file in that directory, so that exporting
+ * into it again can skip the subfiles that haven't changed since.
+ * <p>
+ * Each exported file is recorded with the pak and offset it came from, its compressed and decompressed sizes, a
+ * checksum of its compressed data, and the modification time of the written file. On a later export, a subfile is
+ * skipped without being inflated if its sizes and compressed data still match and the file on disk hasn't been touched.
+ * Patches often rebuild paks and move subfiles around within them, so a subfile that only moved is still considered
+ * unchanged.
+ * <p>
+ * The manifest always describes what is actually on disk: a file's record is dropped before the file is rewritten
+ * and only added back once the write succeeds, so an export that fails or is cancelled part way can be resumed.
+ */
+public class ExportManifest {
+
+    /**
+     * Logger
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(ExportManifest.class);
+
+    /**
+     * Whether to keep manifests for directory exports. Can be disabled with the
+     * co.phoenixlab.dn.dnptui.export.nomanifest system property, in which case every export rewrites every file
+     */
+    public static final boolean ENABLED = !Boolean.getBoolean("co.phoenixlab.dn.dnptui.export.nomanifest");
+
+    /**
+     * Name of the manifest file in the export directory
+     */
+    public static final String FILE_NAME = ".dnptui-manifest";
+
+    /**
+     * "DNPM"
+     */
+    private static final int MAGIC = 0x444E504D;
+    /**
+     * Bump whenever the layout of the manifest changes
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * The directory the manifest describes
+     */
+    private final Path root;
+    /**
+     * Files known to be on disk, by their path relative to root
+     */
+    private final Map<String, Record> records;
+    /**
+     * Files being written, which are added to records once written
+     */
+    private final Map<Path, Record> pending;
+
+    private ExportManifest(Path root, Map<String, Record> records) {
+        this.root = root;
+        this.records = records;
+        this.pending = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Opens the manifest of an export directory. A missing or unreadable manifest is treated as empty.
+     *
+     * @param root The export directory
+     * @return The directory's manifest
+     */
+    public static ExportManifest open(Path root) {
+        Path path = root.resolve(FILE_NAME);
+        Map<String, Record> records = new ConcurrentHashMap<>();
+        if (Files.isRegularFile(path)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path),
+                    64 * 1024))) {
+                read(in, records);
+                LOGGER.info("Read export manifest {} ({} files)", path, records.size());
+            } catch (IOException | RuntimeException e) {
+                LOGGER.warn("Unable to read export manifest " + path + ", ignoring it", e);
+                records.clear();
+            }
+        }
+        return new ExportManifest(root, records);
+    }
+
+    private static void read(DataInputStream in, Map<String, Record> records) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not an export manifest");
+        }
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("Export manifest version " + version + " is not supported");
+        }
+        String[] paks = new String[in.readInt()];
+        for (int i = 0; i < paks.length; i++) {
+            paks[i] = in.readUTF();
+        }
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            String path = in.readUTF();
+            records.put(path, new Record(path, paks[in.readInt()], in.readLong(), in.readInt(), in.readInt(),
+                    in.readInt(), in.readLong()));
+        }
+    }
+
+    /**
+     * Checks a subfile against the manifest, once its compressed data has been read. If the subfile has to be
+     * exported, its record is dropped until {@link #written(Path)} is called for it. Safe to call from multiple
+     * threads.
+     *
+     * @param job        The subfile and its destination
+     * @param location   Where the subfile's data was read from
+     * @param compressed The subfile's compressed data. Its position is not changed
+     * @return Whether the file on disk is up to date, so the subfile can be skipped
+     */
+    public boolean check(ExportJob job, SubfileLocation location, ByteBuffer compressed) {
+        CRC32 crc = new CRC32();
+        crc.update(compressed.duplicate());
+        String key = ExportSink.archiveName(root.relativize(job.exportPath));
+        Record previous = records.get(key);
+        if (previous != null && previous.compressedSize == location.compressedSize &&
+                previous.decompressedSize == location.decompressedSize && previous.crc == (int) crc.getValue() &&
+                isOnDisk(job.exportPath, previous)) {
+            if (previous.diskOffset != location.diskOffset || !previous.pak.equals(pakName(location))) {
+                //  Keep the record pointing at where the subfile is now
+                records.put(key, new Record(key, pakName(location), location.diskOffset, location.compressedSize,
+                        location.decompressedSize, (int) crc.getValue(), previous.modified));
+            }
+            return true;
+        }
+        records.remove(key);
+        pending.put(job.exportPath, new Record(key, pakName(location), location.diskOffset, location.compressedSize,
+                location.decompressedSize, (int) crc.getValue(), 0));
+        return false;
+    }
+
+    /**
+     * Records that a subfile checked with {@link #check(ExportJob, SubfileLocation, ByteBuffer)} has been written.
+     * Safe to call from multiple threads.
+     *
+     * @param exportPath The file the subfile was written to
+     * @throws IOException If the written file could not be read back
+     */
+    public void written(Path exportPath) throws IOException {
+        Record record = pending.remove(exportPath);
+        if (record != null) {
+            long modified = Files.getLastModifiedTime(exportPath).toMillis();
+            records.put(record.path, new Record(record.path, record.pak, record.diskOffset, record.compressedSize,
+                    record.decompressedSize, record.crc, modified));
+        }
+    }
+
+    /**
+     * @return Whether the file a record describes is still on disk and hasn't been modified since it was exported
+     */
+    private static boolean isOnDisk(Path path, Record record) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            return attributes.isRegularFile() && attributes.size() == record.decompressedSize &&
+                    attributes.lastModifiedTime().toMillis() == record.modified;
+        } catch (NoSuchFileException e) {
+            return false;
+        } catch (IOException e) {
+            LOGGER.warn("Unable to check " + path + ", exporting it again", e);
+            return false;
+        }
+    }
+
+    private static String pakName(SubfileLocation location) {
+        return location.pak.getFileName().toString();
+    }
+
+    /**
+     * @return The number of files recorded as being on disk
+     */
+    public int size() {
+        return records.size();
+    }
+
+    /**
+     * Writes the manifest back into the export directory. The manifest is written to a temporary file first and then
+     * moved into place, so a failed write never leaves a truncated manifest behind.
+     *
+     * @throws IOException If the manifest could not be written
+     */
+    public void save() throws IOException {
+        Path path = root.resolve(FILE_NAME);
+        Path tempPath = Files.createTempFile(root, "manifest", ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(tempPath), 64 * 1024))) {
+                List<Record> list = new ArrayList<>(records.values());
+                //  Pak names are shared by many records, so they are written once and referred to by index
+                Map<String, Integer> pakIndices = new HashMap<>();
+                List<String> paks = new ArrayList<>();
+                for (Record record : list) {
+                    if (!pakIndices.containsKey(record.pak)) {
+                        pakIndices.put(record.pak, paks.size());
+                        paks.add(record.pak);
+                    }
+                }
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(paks.size());
+                for (String pak : paks) {
+                    out.writeUTF(pak);
+                }
+                out.writeInt(list.size());
+                for (Record record : list) {
+                    out.writeUTF(record.path);
+                    out.writeInt(pakIndices.get(record.pak));
+                    out.writeLong(record.diskOffset);
+                    out.writeInt(record.compressedSize);
+                    out.writeInt(record.decompressedSize);
+                    out.writeInt(record.crc);
+                    out.writeLong(record.modified);
+                }
+            }
+            Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING);
+            LOGGER.info("Wrote export manifest {} ({} files)", path, records.size());
+        } finally {
+            Files.deleteIfExists(tempPath);
+        }
+    }
+
+    /**
+     * An exported file
+     */
+    private static class Record {
+
+        /**
+         * Path of the file relative to the export directory, with '/' separators
+         */
+        final String path;
+        /**
+         * File name of the pak the subfile was read from
+         */
+        final String pak;
+        final long diskOffset;
+        final int compressedSize;
+        final int decompressedSize;
+        /**
+         * CRC-32 of the subfile's compressed data
+         */
+        final int crc;
+        /**
+         * Modification time of the written file, in milliseconds since the epoch
+         */
+        final long modified;
+
+        Record(String path, String pak, long diskOffset, int compressedSize, int decompressedSize, int crc,
+               long modified) {
+            this.path = path;
+            this.pak = pak;
+            this.diskOffset = diskOffset;
+            this.compressedSize = compressedSize;
+            this.decompressedSize = decompressedSize;
+            this.crc = crc;
+            this.modified = modified;
+        }
+    }
+}
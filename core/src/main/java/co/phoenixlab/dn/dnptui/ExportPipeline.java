@@ -0,0 +1,532 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package co.phoenixlab.dn.dnptui;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.DoubleConsumer;
+
+/**
+ * Exports many subfiles at once as a pipeline of three stages, so that reading from the paks, inflating and writing
+ * the exported files all happen at the same time:
+ * <ul>
+ * <li>Readers each take a whole pak at a time and read its subfiles' compressed data front to back</li>
+ * <li>Inflaters decompress the data on a pool of threads</li>
+ * <li>Writers write the decompressed data out to an {@link ExportSink}</li>
+ * </ul>
+ * Sinks that can store deflate data as-is (zip archives) are handed the pak's compressed data instead. The inflaters
+ * then only inflate it to verify it and compute its checksum, without keeping the decompressed data.
+ * The stages are connected by queues bounded by the number of bytes they hold, so a slow stage holds back the
+ * stages before it instead of letting data pile up in memory. When exporting into a directory that has an
+ * {@link ExportManifest}, the readers check each subfile's compressed data against it and drop unchanged subfiles
+ * before they are inflated. Each stage records how much of the time its threads
+ * spent working rather than waiting on the other stages, which shows whether the disk or the CPU is the bottleneck.
+ */
+public class ExportPipeline {
+
+    /**
+     * Logger
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(ExportPipeline.class);
+
+    /**
+     * Default number of reader threads. Can be overridden with the co.phoenixlab.dn.dnptui.export.readers system
+     * property
+     */
+    public static final int DEFAULT_READERS = Integer.getInteger("co.phoenixlab.dn.dnptui.export.readers", 2);
+
+    /**
+     * Default number of inflater threads. Can be overridden with the co.phoenixlab.dn.dnptui.export.threads system
+     * property
+     */
+    public static final int DEFAULT_INFLATERS = Integer.getInteger("co.phoenixlab.dn.dnptui.export.threads",
+            Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Default number of writer threads. Can be overridden with the co.phoenixlab.dn.dnptui.export.writers system
+     * property
+     */
+    public static final int DEFAULT_WRITERS = Integer.getInteger("co.phoenixlab.dn.dnptui.export.writers", 2);
+
+    /**
+     * Default number of megabytes each queue between stages may hold. Can be overridden with the
+     * co.phoenixlab.dn.dnptui.export.queue.mb system property
+     */
+    public static final int DEFAULT_QUEUE_MB = Integer.getInteger("co.phoenixlab.dn.dnptui.export.queue.mb", 32);
+
+    /**
+     * Maximum number of items each queue may hold, regardless of their size
+     */
+    private static final int QUEUE_LENGTH = 256;
+
+    /**
+     * The stages of the pipeline
+     */
+    public enum Stage {
+        READ,
+        INFLATE,
+        WRITE
+    }
+
+    private final PakHandler handler;
+    private final int readers;
+    private final int inflaters;
+    private final int writers;
+    private final int queueKb;
+
+    public ExportPipeline(PakHandler handler) {
+        this(handler, DEFAULT_READERS, DEFAULT_INFLATERS, DEFAULT_WRITERS, DEFAULT_QUEUE_MB);
+    }
+
+    public ExportPipeline(PakHandler handler, int readers, int inflaters, int writers, int queueMb) {
+        this.handler = handler;
+        this.readers = Math.max(1, readers);
+        this.inflaters = Math.max(1, inflaters);
+        this.writers = Math.max(1, writers);
+        this.queueKb = Math.max(1, queueMb) * 1024;
+    }
+
+    /**
+     * Exports all of the given jobs as loose files. The destination directories must already exist.
+     *
+     * @param jobs     The subfiles to export, sorted by pak and then by offset within the pak
+     * @param progress Receives the fraction of jobs completed, from any of the writer threads
+     * @return How busy each stage was
+     * @throws IOException If there was an I/O error during exporting, or the export was interrupted
+     */
+    public Stats export(List<ExportJob> jobs, DoubleConsumer progress) throws IOException {
+        return export(jobs, new DirectoryExportSink(), progress);
+    }
+
+    /**
+     * Exports all of the given jobs to a sink. The destination directories must already have been created in the
+     * sink.
+     *
+     * @param jobs     The subfiles to export, sorted by pak and then by offset within the pak
+     * @param sink     Where to write the subfiles
+     * @param progress Receives the fraction of jobs completed, from any of the writer threads
+     * @return How busy each stage was
+     * @throws IOException If there was an I/O error during exporting, or the export was interrupted
+     */
+    public Stats export(List<ExportJob> jobs, ExportSink sink, DoubleConsumer progress) throws IOException {
+        return export(jobs, sink, null, progress);
+    }
+
+    /**
+     * Exports all of the given jobs to a sink, skipping the ones a manifest shows are already up to date. The
+     * destination directories must already have been created in the sink.
+     *
+     * @param jobs     The subfiles to export, sorted by pak and then by offset within the pak
+     * @param sink     Where to write the subfiles
+     * @param manifest The manifest of the files already in the sink, which is updated as subfiles are written, or
+     *                 null to export every subfile
+     * @param progress Receives the fraction of jobs completed, from any of the reader or writer threads
+     * @return How busy each stage was
+     * @throws IOException If there was an I/O error during exporting, or the export was interrupted
+     */
+    public Stats export(List<ExportJob> jobs, ExportSink sink, ExportManifest manifest, DoubleConsumer progress)
+            throws IOException {
+        Stats stats = new Stats();
+        if (jobs.isEmpty()) {
+            return stats;
+        }
+        List<List<ExportJob>> paks = groupByPak(jobs);
+        Run run = new Run(jobs.size(), sink, manifest, progress);
+        int numReaders = Math.min(readers, paks.size());
+        int numInflaters = Math.min(inflaters, jobs.size());
+        int numWriters = Math.min(Math.min(writers, sink.getMaxWriters()), jobs.size());
+        stats.threads[Stage.READ.ordinal()] = numReaders;
+        stats.threads[Stage.INFLATE.ordinal()] = numInflaters;
+        stats.threads[Stage.WRITE.ordinal()] = numWriters;
+        AtomicInteger threadCounter = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(numReaders + numInflaters + numWriters, r -> {
+            Thread thread = new Thread(r, "Export-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        ExecutorCompletionService<Stage> completion = new ExecutorCompletionService<>(pool);
+        long start = System.nanoTime();
+        try {
+            AtomicInteger pakCursor = new AtomicInteger();
+            for (int i = 0; i < numReaders; i++) {
+                completion.submit(() -> read(paks, pakCursor, run, stats));
+            }
+            for (int i = 0; i < numInflaters; i++) {
+                completion.submit(() -> inflate(run, stats));
+            }
+            for (int i = 0; i < numWriters; i++) {
+                completion.submit(() -> write(run, stats));
+            }
+            //  Each stage is told to finish once every thread of the stage before it has finished
+            int readersLeft = numReaders;
+            int inflatersLeft = numInflaters;
+            for (int i = numReaders + numInflaters + numWriters; i > 0; i--) {
+                Stage finished = completion.take().get();
+                if (finished == Stage.READ && --readersLeft == 0) {
+                    for (int j = 0; j < numInflaters; j++) {
+                        run.inflateQueue.put(Item.END);
+                    }
+                } else if (finished == Stage.INFLATE && --inflatersLeft == 0) {
+                    for (int j = 0; j < numWriters; j++) {
+                        run.writeQueue.put(Item.END);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Export interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            }
+            throw new IOException(cause);
+        } finally {
+            //  Stops the remaining stages if one of them failed
+            pool.shutdownNow();
+            stats.wallNanos = System.nanoTime() - start;
+        }
+        LOGGER.info("Exported {} files: {}", jobs.size() - stats.getSkipped(), stats);
+        return stats;
+    }
+
+    /**
+     * Splits jobs sorted by pak into one list per pak
+     */
+    private static List<List<ExportJob>> groupByPak(List<ExportJob> jobs) {
+        List<List<ExportJob>> paks = new ArrayList<>();
+        List<ExportJob> current = null;
+        int currentPak = -1;
+        for (ExportJob job : jobs) {
+            int pak = job.tree.getPakIndex(job.node);
+            if (current == null || pak != currentPak) {
+                current = new ArrayList<>();
+                paks.add(current);
+                currentPak = pak;
+            }
+            current.add(job);
+        }
+        return paks;
+    }
+
+    /**
+     * Reader loop, reading the compressed data of one pak's jobs at a time until there are no paks left
+     */
+    private Stage read(List<List<ExportJob>> paks, AtomicInteger pakCursor, Run run, Stats stats)
+            throws InterruptedException {
+        SubfileReader reader = handler.getReader();
+        int i;
+        while ((i = pakCursor.getAndIncrement()) < paks.size()) {
+            for (ExportJob job : paks.get(i)) {
+                SubfileLocation location = job.getLocation();
+                int permits = run.permits(location.compressedSize);
+                run.inflateBudget.acquire(permits);
+                long start = System.nanoTime();
+                byte[] scratch = reader.needsScratch() ? InflatePool.acquireBuffer(location.compressedSize) : null;
+                ByteBuffer compressed;
+                try {
+                    compressed = reader.readCompressed(location, scratch);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Unable to read " + job.getPathString(), e);
+                }
+                if (run.manifest != null && run.manifest.check(job, location, compressed)) {
+                    if (scratch != null) {
+                        InflatePool.release(scratch);
+                    }
+                    run.inflateBudget.release(permits);
+                    stats.skipped.incrementAndGet();
+                    stats.addBusy(Stage.READ, System.nanoTime() - start);
+                    run.completed();
+                    continue;
+                }
+                stats.addBusy(Stage.READ, System.nanoTime() - start);
+                run.inflateQueue.put(new Item(job, location, compressed, scratch, permits));
+            }
+        }
+        return Stage.READ;
+    }
+
+    /**
+     * Inflater loop, decompressing read data until told to finish
+     */
+    private Stage inflate(Run run, Stats stats) throws InterruptedException {
+        boolean passDeflated = run.sink.acceptsDeflated();
+        Item item;
+        while ((item = run.inflateQueue.take()) != Item.END) {
+            if (passDeflated && passDeflated(item, run, stats)) {
+                continue;
+            }
+            int permits = run.permits(item.location.decompressedSize);
+            run.writeBudget.acquire(permits);
+            long start = System.nanoTime();
+            byte[] out = InflatePool.acquireBuffer(item.location.decompressedSize);
+            ByteBuffer data;
+            try {
+                data = SubfileReader.inflate(item.data, item.location, out);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to decompress " + item.job.getPathString(), e);
+            }
+            if (item.buffer != null) {
+                InflatePool.release(item.buffer);
+            }
+            run.inflateBudget.release(item.permits);
+            stats.addBusy(Stage.INFLATE, System.nanoTime() - start);
+            run.writeQueue.put(new Item(item.job, item.location, data, out, permits));
+        }
+        return Stage.INFLATE;
+    }
+
+    /**
+     * Passes a subfile's deflate data on to the writers as-is, if it can be reused
+     *
+     * @return Whether the subfile was passed on, or false if it has to be inflated
+     */
+    private boolean passDeflated(Item item, Run run, Stats stats) throws InterruptedException {
+        //  The compressed data is kept until it is written, so it moves over to the write budget
+        int permits = run.permits(item.location.compressedSize);
+        run.writeBudget.acquire(permits);
+        long start = System.nanoTime();
+        ExportSink.Deflated deflated;
+        try {
+            deflated = ExportSink.Deflated.fromZlib(item.data);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to decompress " + item.job.getPathString(), e);
+        }
+        stats.addBusy(Stage.INFLATE, System.nanoTime() - start);
+        if (deflated == null) {
+            run.writeBudget.release(permits);
+            return false;
+        }
+        run.inflateBudget.release(item.permits);
+        run.writeQueue.put(new Item(item.job, item.location, deflated, item.buffer, permits));
+        return true;
+    }
+
+    /**
+     * Writer loop, writing decompressed data until told to finish
+     */
+    private Stage write(Run run, Stats stats) throws InterruptedException {
+        Item item;
+        while ((item = run.writeQueue.take()) != Item.END) {
+            long start = System.nanoTime();
+            try {
+                if (item.deflated != null) {
+                    run.sink.writeDeflated(item.job.exportPath, item.deflated);
+                } else {
+                    run.sink.write(item.job.exportPath, item.data);
+                }
+                if (run.manifest != null) {
+                    run.manifest.written(item.job.exportPath);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to write " + item.job.exportPath, e);
+            }
+            if (item.buffer != null) {
+                InflatePool.release(item.buffer);
+            }
+            run.writeBudget.release(item.permits);
+            stats.addBusy(Stage.WRITE, System.nanoTime() - start);
+            run.completed();
+        }
+        return Stage.WRITE;
+    }
+
+    /**
+     * Subfile data passed between stages
+     */
+    private static class Item {
+
+        /**
+         * Marks the end of a queue
+         */
+        static final Item END = new Item(null, null, (ByteBuffer) null, null, 0);
+
+        final ExportJob job;
+        final SubfileLocation location;
+        final ByteBuffer data;
+        /**
+         * Deflate data to store as-is instead of data, or null
+         */
+        final ExportSink.Deflated deflated;
+        /**
+         * Pooled array backing data, to be released once the next stage is done with it, or null
+         */
+        final byte[] buffer;
+        /**
+         * Queue budget taken by this item
+         */
+        final int permits;
+
+        Item(ExportJob job, SubfileLocation location, ByteBuffer data, byte[] buffer, int permits) {
+            this.job = job;
+            this.location = location;
+            this.data = data;
+            this.deflated = null;
+            this.buffer = buffer;
+            this.permits = permits;
+        }
+
+        Item(ExportJob job, SubfileLocation location, ExportSink.Deflated deflated, byte[] buffer, int permits) {
+            this.job = job;
+            this.location = location;
+            this.data = null;
+            this.deflated = deflated;
+            this.buffer = buffer;
+            this.permits = permits;
+        }
+    }
+
+    /**
+     * State shared between the stages of a single export
+     */
+    private class Run {
+
+        final BlockingQueue<Item> inflateQueue;
+        final BlockingQueue<Item> writeQueue;
+        /**
+         * Kilobytes of compressed data that may be waiting to be inflated
+         */
+        final Semaphore inflateBudget;
+        /**
+         * Kilobytes of decompressed data that may be waiting to be written
+         */
+        final Semaphore writeBudget;
+        final ExportSink sink;
+        /**
+         * Manifest of the files already in the sink, or null
+         */
+        final ExportManifest manifest;
+        final DoubleConsumer progress;
+        final AtomicLong done;
+        final double total;
+
+        Run(int total, ExportSink sink, ExportManifest manifest, DoubleConsumer progress) {
+            this.sink = sink;
+            this.manifest = manifest;
+            //  Room for the end markers on top of the full queue
+            inflateQueue = new ArrayBlockingQueue<>(QUEUE_LENGTH + inflaters);
+            writeQueue = new ArrayBlockingQueue<>(QUEUE_LENGTH + writers);
+            inflateBudget = new Semaphore(queueKb);
+            writeBudget = new Semaphore(queueKb);
+            this.progress = progress;
+            this.total = total;
+            done = new AtomicLong();
+        }
+
+        /**
+         * Counts a job as done, whether it was written or skipped
+         */
+        void completed() {
+            progress.accept(done.incrementAndGet() / total);
+        }
+
+        /**
+         * @return The queue budget to take for an item of the given size. Items larger than the whole budget take all
+         * of it, so they pass through on their own
+         */
+        int permits(int size) {
+            return Math.min(queueKb, Math.max(1, (size + 1023) >> 10));
+        }
+    }
+
+    /**
+     * How much of an export's running time each stage's threads spent working, as opposed to waiting for the other
+     * stages. A stage close to 100% is the bottleneck.
+     */
+    public static class Stats {
+
+        private final AtomicLong[] busyNanos;
+        private final int[] threads;
+        private final AtomicInteger skipped;
+        private volatile long wallNanos;
+
+        Stats() {
+            Stage[] stages = Stage.values();
+            busyNanos = new AtomicLong[stages.length];
+            for (int i = 0; i < stages.length; i++) {
+                busyNanos[i] = new AtomicLong();
+            }
+            threads = new int[stages.length];
+            skipped = new AtomicInteger();
+        }
+
+        void addBusy(Stage stage, long nanos) {
+            busyNanos[stage.ordinal()].addAndGet(nanos);
+        }
+
+        /**
+         * @return The fraction of the export's running time that the stage's threads spent working, from 0 to 1
+         */
+        public double getUtilization(Stage stage) {
+            int stageThreads = threads[stage.ordinal()];
+            if (stageThreads == 0 || wallNanos == 0) {
+                return 0;
+            }
+            return busyNanos[stage.ordinal()].get() / ((double) wallNanos * stageThreads);
+        }
+
+        /**
+         * @return The number of subfiles skipped because the manifest showed they were already up to date
+         */
+        public int getSkipped() {
+            return skipped.get();
+        }
+
+        /**
+         * @return The export's running time in milliseconds
+         */
+        public long getWallMillis() {
+            return wallNanos / 1000000L;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            builder.append(getWallMillis()).append(" ms");
+            for (Stage stage : Stage.values()) {
+                builder.append(String.format(", %s %.0f%% busy (%d threads)", stage.name().toLowerCase(),
+                        getUtilization(stage) * 100D, threads[stage.ordinal()]));
+            }
+            if (skipped.get() > 0) {
+                builder.append(String.format(", %d unchanged files skipped", skipped.get()));
+            }
+            return builder.toString();
+        }
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package co.phoenixlab.dn.dnptui;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Where an {@link ExportPipeline} puts exported subfiles: loose files in a directory, or entries in an archive.
+ * Paths given to an archive sink are relative to the root of the archive.
+ */
+public interface ExportSink extends Closeable {
+
+    /**
+     * Creates the given directories. Parents are listed before their children.
+     *
+     * @param dirs The directories to create
+     * @throws IOException If a directory could not be created
+     */
+    void createDirectories(Collection<Path> dirs) throws IOException;
+
+    /**
+     * Writes a subfile
+     *
+     * @param path The path to write the subfile to
+     * @param data The decompressed data
+     * @throws IOException If there was an I/O error while writing
+     */
+    void write(Path path, ByteBuffer data) throws IOException;
+
+    /**
+     * @return The maximum number of threads that may write to this sink at once
+     */
+    default int getMaxWriters() {
+        return Integer.MAX_VALUE;
+    }
+
+    /**
+     * @return Whether this sink can store a subfile's deflate data as-is, without it being inflated first
+     */
+    default boolean acceptsDeflated() {
+        return false;
+    }
+
+    /**
+     * Writes a subfile from its deflate data. Only called if {@link #acceptsDeflated()} is true. By default the data
+     * is inflated and passed to {@link #write(Path, ByteBuffer)}; sinks that can store deflate data as-is override
+     * this.
+     *
+     * @param path The path to write the subfile to
+     * @param data The subfile's deflate data
+     * @throws IOException If there was an I/O error while writing, or the data could not be inflated
+     */
+    default void writeDeflated(Path path, Deflated data) throws IOException {
+        write(path, data.inflate());
+    }
+
+    @Override
+    default void close() throws IOException {
+    }
+
+    /**
+     * Opens an archive to export into, choosing the format from the file extension (.zip or .tar)
+     *
+     * @param archive The archive file to create, replacing it if it exists
+     * @return The opened sink
+     * @throws IOException              If the archive could not be created
+     * @throws IllegalArgumentException If the extension isn't a supported archive format
+     */
+    static ExportSink openArchive(Path archive) throws IOException {
+        String fileName = archive.getFileName().toString().toLowerCase(Locale.ROOT);
+        if (fileName.endsWith(".zip")) {
+            return new ZipExportSink(archive);
+        }
+        if (fileName.endsWith(".tar")) {
+            return new TarExportSink(archive);
+        }
+        throw new IllegalArgumentException("Unsupported archive type " + archive.getFileName());
+    }
+
+    /**
+     * @return The name of an archive entry for a relative path, with '/' separators
+     */
+    static String archiveName(Path path) {
+        StringBuilder builder = new StringBuilder();
+        for (Path element : path) {
+            if (builder.length() > 0) {
+                builder.append('/');
+            }
+            builder.append(element.toString());
+        }
+        return builder.toString();
+    }
+
+    /**
+     * A subfile's raw deflate data, taken from inside the zlib stream stored in the pak, along with the checksum and
+     * size of the decompressed data that archives store next to it.
+     */
+    class Deflated {
+
+        /**
+         * Size of the chunks the stream is inflated into while computing the checksum
+         */
+        private static final int CHUNK_SIZE = 64 * 1024;
+
+        /**
+         * The raw deflate data
+         */
+        public final ByteBuffer data;
+        /**
+         * CRC-32 of the decompressed data
+         */
+        public final long crc;
+        /**
+         * Size of the decompressed data
+         */
+        public final long size;
+
+        public Deflated(ByteBuffer data, long crc, long size) {
+            this.data = data;
+            this.crc = crc;
+            this.size = size;
+        }
+
+        /**
+         * Inflates the deflate data and checks it against the stored size and checksum.
+         *
+         * @return A heap ByteBuffer containing the decompressed data, positioned at 0
+         * @throws IOException If the data is corrupt or doesn't match the size or checksum
+         */
+        public ByteBuffer inflate() throws IOException {
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Subfile of " + size + " bytes is too large to inflate into memory");
+            }
+            ByteBuffer in = data.duplicate();
+            byte[] out = new byte[(int) size];
+            int length = 0;
+            //  Raw deflate data, unlike the zlib streams the pooled inflaters are set up for
+            Inflater inflater = new Inflater(true);
+            try {
+                if (in.hasArray()) {
+                    inflater.setInput(in.array(), in.arrayOffset() + in.position(), in.remaining());
+                } else {
+                    byte[] copy = new byte[in.remaining()];
+                    in.get(copy);
+                    inflater.setInput(copy);
+                }
+                byte[] overflow = new byte[1];
+                boolean padded = false;
+                while (!inflater.finished()) {
+                    int inflated;
+                    if (length < out.length) {
+                        inflated = inflater.inflate(out, length, out.length - length);
+                        length += inflated;
+                    } else if (inflater.inflate(overflow) > 0) {
+                        throw new IOException("Deflate data inflates to more than the stored size of " + size +
+                                " bytes");
+                    } else {
+                        inflated = 0;
+                    }
+                    if (inflated == 0 && !inflater.finished()) {
+                        if (inflater.needsDictionary() || !inflater.needsInput() || padded) {
+                            throw new IOException("Truncated deflate data");
+                        }
+                        //  A raw stream may need a dummy byte past the end of the data to see that it finished
+                        inflater.setInput(overflow, 0, 1);
+                        padded = true;
+                    }
+                }
+                if (length != out.length) {
+                    throw new IOException("Deflate data inflates to " + length + " bytes instead of the stored size of "
+                            + size);
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupt deflate data", e);
+            } finally {
+                inflater.end();
+            }
+            CRC32 check = new CRC32();
+            check.update(out, 0, length);
+            if (check.getValue() != crc) {
+                throw new IOException("Deflate data doesn't match the stored checksum");
+            }
+            return ByteBuffer.wrap(out);
+        }
+
+        /**
+         * Checks a zlib stream and extracts its raw deflate data. The stream is inflated to compute the checksum and
+         * to make sure it is intact, but only a small window at a time, so nothing the size of the subfile is
+         * allocated.
+         *
+         * @param zlib The zlib stream. Its position is not changed
+         * @return The stream's deflate data, or null if the stream uses a preset dictionary and so can't be stored
+         * as plain deflate data
+         * @throws IOException If the stream is corrupt
+         */
+        public static Deflated fromZlib(ByteBuffer zlib) throws IOException {
+            ByteBuffer in = zlib.duplicate();
+            int start = in.position();
+            if (in.remaining() < 6) {
+                return null;
+            }
+            int cmf = in.get(start) & 0xFF;
+            int flg = in.get(start + 1) & 0xFF;
+            //  Deflate, valid header checksum, and no preset dictionary
+            if ((cmf & 0x0F) != 8 || ((cmf << 8) | flg) % 31 != 0 || (flg & 0x20) != 0) {
+                return null;
+            }
+            CRC32 crc = new CRC32();
+            long size = 0;
+            byte[] out = InflatePool.acquireBuffer(CHUNK_SIZE);
+            byte[] chunk = null;
+            Inflater inflater = InflatePool.acquireInflater();
+            try {
+                while (!inflater.finished()) {
+                    if (inflater.needsInput()) {
+                        if (!in.hasRemaining()) {
+                            throw new IOException("Truncated zlib stream");
+                        }
+                        if (in.hasArray()) {
+                            inflater.setInput(in.array(), in.arrayOffset() + in.position(), in.remaining());
+                            in.position(in.limit());
+                        } else {
+                            if (chunk == null) {
+                                chunk = InflatePool.acquireBuffer(CHUNK_SIZE);
+                            }
+                            int len = Math.min(chunk.length, in.remaining());
+                            in.get(chunk, 0, len);
+                            inflater.setInput(chunk, 0, len);
+                        }
+                    }
+                    int inflated = inflater.inflate(out);
+                    if (inflated == 0 && inflater.needsDictionary()) {
+                        return null;
+                    }
+                    crc.update(out, 0, inflated);
+                    size += inflated;
+                }
+                //  The stream is the two byte header, the deflate data, and then the four byte Adler-32 checksum
+                long streamLength = inflater.getBytesRead();
+                ByteBuffer data = zlib.duplicate();
+                data.position(start + 2);
+                data.limit((int) (start + streamLength - 4));
+                return new Deflated(data.slice(), crc.getValue(), size);
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupt zlib stream", e);
+            } finally {
+                InflatePool.release(inflater);
+                InflatePool.release(out);
+                if (chunk != null) {
+                    InflatePool.release(chunk);
+                }
+            }
+        }
+    }
+}
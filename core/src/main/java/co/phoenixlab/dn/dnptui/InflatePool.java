@@ -0,0 +1,148 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package co.phoenixlab.dn.dnptui;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Inflater;
+
+/**
+ * Shared pools of Inflaters and scratch byte arrays for subfile extraction. An Inflater holds native zlib memory
+ * that is only freed by end() or finalization, so reusing a few instances avoids both the native allocation and
+ * leaving cleanup to the GC. Scratch arrays are pooled in power of two size classes so that reading and exporting
+ * many subfiles reuses the same few arrays instead of allocating a new one for each subfile.
+ * <p>
+ * Only temporary buffers belong in the pool. Anything handed to a viewer or put in the subfile cache must be
+ * allocated normally, as it may be held onto indefinitely.
+ */
+public final class InflatePool {
+
+    /**
+     * Maximum number of idle Inflaters to keep. Can be overridden with the co.phoenixlab.dn.dnptui.pool.inflaters
+     * system property
+     */
+    public static final int MAX_IDLE_INFLATERS = Integer.getInteger("co.phoenixlab.dn.dnptui.pool.inflaters",
+            Runtime.getRuntime().availableProcessors() * 2);
+
+    /**
+     * Maximum number of bytes of idle scratch arrays to keep, in megabytes. Can be overridden with the
+     * co.phoenixlab.dn.dnptui.pool.mb system property, with 0 disabling buffer pooling
+     */
+    public static final long BUFFER_BUDGET_MB = Long.getLong("co.phoenixlab.dn.dnptui.pool.mb", 32L);
+
+    /**
+     * Smallest size class, 4 KB
+     */
+    private static final int MIN_CLASS = 12;
+    /**
+     * Largest size class, 16 MB. Larger arrays are allocated exactly and never pooled
+     */
+    private static final int MAX_CLASS = 24;
+
+    private static final ArrayBlockingQueue<Inflater> INFLATERS = new ArrayBlockingQueue<>(Math.max(1,
+            MAX_IDLE_INFLATERS));
+    private static final ConcurrentLinkedQueue<byte[]>[] BUFFERS;
+    private static final long BUFFER_BUDGET = BUFFER_BUDGET_MB * 1024L * 1024L;
+    /**
+     * Number of bytes of idle arrays currently pooled
+     */
+    private static final AtomicLong POOLED_BYTES = new AtomicLong();
+
+    static {
+        @SuppressWarnings("unchecked")
+        ConcurrentLinkedQueue<byte[]>[] buffers = new ConcurrentLinkedQueue[MAX_CLASS - MIN_CLASS + 1];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = new ConcurrentLinkedQueue<>();
+        }
+        BUFFERS = buffers;
+    }
+
+    private InflatePool() {
+    }
+
+    /**
+     * @return An Inflater ready for new input, which should be returned with {@link #release(Inflater)}
+     */
+    public static Inflater acquireInflater() {
+        Inflater inflater = INFLATERS.poll();
+        return inflater != null ? inflater : new Inflater();
+    }
+
+    /**
+     * Returns an Inflater to the pool, or ends it if the pool is full. The Inflater must not be used afterwards.
+     */
+    public static void release(Inflater inflater) {
+        inflater.reset();
+        if (!INFLATERS.offer(inflater)) {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Gets a scratch array of at least the given size. Its contents are undefined.
+     *
+     * @param minSize The minimum size needed
+     * @return An array at least minSize long, which should be returned with {@link #release(byte[])}
+     */
+    public static byte[] acquireBuffer(int minSize) {
+        int sizeClass = sizeClass(minSize);
+        if (sizeClass > MAX_CLASS) {
+            return new byte[minSize];
+        }
+        byte[] buffer = BUFFERS[sizeClass - MIN_CLASS].poll();
+        if (buffer == null) {
+            return new byte[1 << sizeClass];
+        }
+        POOLED_BYTES.addAndGet(-buffer.length);
+        return buffer;
+    }
+
+    /**
+     * Returns a scratch array to the pool. Arrays that didn't come from {@link #acquireBuffer(int)} or that don't fit
+     * within the budget are dropped. The array must not be used afterwards.
+     */
+    public static void release(byte[] buffer) {
+        int length = buffer.length;
+        //  Only exact size class arrays are pooled
+        if (Integer.bitCount(length) != 1 || length < (1 << MIN_CLASS) || length > (1 << MAX_CLASS)) {
+            return;
+        }
+        if (POOLED_BYTES.addAndGet(length) > BUFFER_BUDGET) {
+            POOLED_BYTES.addAndGet(-length);
+            return;
+        }
+        BUFFERS[Integer.numberOfTrailingZeros(length) - MIN_CLASS].offer(buffer);
+    }
+
+    /**
+     * @return The smallest size class that can hold the given size, as a power of two exponent
+     */
+    private static int sizeClass(int size) {
+        if (size <= (1 << MIN_CLASS)) {
+            return MIN_CLASS;
+        }
+        return 32 - Integer.numberOfLeadingZeros(size - 1);
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package co.phoenixlab.dn.dnptui;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reads subfile data out of memory mapped paks. Each pak is mapped once, in regions of up to
+ * {@link #REGION_SIZE} bytes since a single mapping cannot exceed 2GB, and a subfile's compressed data is sliced
+ * directly out of the mapping. Mapped reads are not interruptible, so unlike channel reads a cancelled load cannot
+ * close the pak out from under other readers.
+ */
+public class MappedSubfileReader extends SubfileReader {
+
+    /**
+     * Logger
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(MappedSubfileReader.class);
+
+    /**
+     * Maximum size of a single mapped region
+     */
+    public static final long REGION_SIZE = 1L << 30;
+
+    /**
+     * Mapped regions for each pak, mapped on first read
+     */
+    private final Map<Path, MappedByteBuffer[]> mappings;
+
+    public MappedSubfileReader() {
+        mappings = new ConcurrentHashMap<>();
+    }
+
+    @Override
+    public ByteBuffer readCompressed(SubfileLocation location) throws IOException {
+        Path pak = location.pak;
+        long offset = location.diskOffset;
+        int size = location.compressedSize;
+        MappedByteBuffer[] regions = regionsFor(pak);
+        int regionIndex = (int) (offset / REGION_SIZE);
+        int regionOffset = (int) (offset % REGION_SIZE);
+        if (regionIndex >= regions.length) {
+            throw new EOFException("Offset " + offset + " is past the end of " + pak);
+        }
+        MappedByteBuffer region = regions[regionIndex];
+        if ((long) regionOffset + size <= region.capacity()) {
+            //  Duplicate so concurrent readers don't share position and limit
+            ByteBuffer slice = region.duplicate();
+            slice.position(regionOffset);
+            slice.limit(regionOffset + size);
+            return slice.slice();
+        }
+        //  Subfile straddles two regions, map it separately
+        try (FileChannel channel = FileChannel.open(pak, StandardOpenOption.READ)) {
+            if (offset + size > channel.size()) {
+                throw new EOFException("Subfile at " + offset + " extends past the end of " + pak);
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+        }
+    }
+
+    /**
+     * Gets the mapped regions for the given pak, mapping the pak if this is the first read
+     */
+    private MappedByteBuffer[] regionsFor(Path pak) throws IOException {
+        MappedByteBuffer[] regions = mappings.get(pak);
+        if (regions != null) {
+            return regions;
+        }
+        synchronized (mappings) {
+            regions = mappings.get(pak);
+            if (regions == null) {
+                regions = map(pak);
+                mappings.put(pak, regions);
+            }
+            return regions;
+        }
+    }
+
+    /**
+     * Maps the entire pak read-only. The channel is closed immediately as the mappings remain valid without it.
+     */
+    private MappedByteBuffer[] map(Path pak) throws IOException {
+        try (FileChannel channel = FileChannel.open(pak, StandardOpenOption.READ)) {
+            long size = channel.size();
+            int numRegions = (int) Math.max(1, (size + REGION_SIZE - 1) / REGION_SIZE);
+            MappedByteBuffer[] regions = new MappedByteBuffer[numRegions];
+            for (int i = 0; i < numRegions; i++) {
+                long start = i * REGION_SIZE;
+                regions[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(REGION_SIZE, size - start));
+            }
+            LOGGER.debug("Mapped {} ({} bytes, {} regions)", pak, size, numRegions);
+            return regions;
+        }
+    }
+
+    /**
+     * Drops the mappings for the given pak. The memory is unmapped once the buffers are garbage collected.
+     *
+     * @param pak The path of the pak to release
+     */
+    @Override
+    public void release(Path pak) {
+        mappings.remove(pak);
+    }
+
+    @Override
+    public void close() {
+        mappings.clear();
+    }
+}
@@ -0,0 +1,389 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package co.phoenixlab.dn.dnptui;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.DoubleConsumer;
+
+/**
+ * Compares two sets of loaded paks, such as a client installation before and after a patch, and finds the subfiles
+ * that were added, removed or modified.
+ * <p>
+ * The two trees are walked side by side and subfiles are matched up by path. Subfiles whose sizes differ are modified
+ * without reading anything. The rest have their compressed data read from both sides and compared, on a pool of
+ * threads. Nothing is inflated unless asked to, in which case subfiles whose compressed data differs but whose
+ * decompressed size is the same are inflated and compared again, so that subfiles that were only recompressed don't
+ * show up as modified.
+ */
+public class PakDiff {
+
+    /**
+     * Logger
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(PakDiff.class);
+
+    /**
+     * Default number of threads comparing subfiles. Can be overridden with the co.phoenixlab.dn.dnptui.diff.threads
+     * system property
+     */
+    public static final int DEFAULT_THREADS = Integer.getInteger("co.phoenixlab.dn.dnptui.diff.threads",
+            Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Whether to inflate subfiles whose compressed data differs to check whether their contents really changed. Can
+     * be enabled with the co.phoenixlab.dn.dnptui.diff.inflate system property
+     */
+    public static final boolean DEFAULT_INFLATE = Boolean.getBoolean("co.phoenixlab.dn.dnptui.diff.inflate");
+
+    /**
+     * Number of subfile pairs each thread takes at a time
+     */
+    private static final int BATCH_SIZE = 64;
+
+    private final PakHandler oldPaks;
+    private final PakHandler newPaks;
+    private final int threads;
+    private final boolean inflate;
+
+    public PakDiff(PakHandler oldPaks, PakHandler newPaks) {
+        this(oldPaks, newPaks, DEFAULT_THREADS, DEFAULT_INFLATE);
+    }
+
+    /**
+     * @param oldPaks The paks before the change
+     * @param newPaks The paks after the change
+     * @param threads The number of threads to compare subfiles on
+     * @param inflate Whether to inflate subfiles whose compressed data differs to compare their contents
+     */
+    public PakDiff(PakHandler oldPaks, PakHandler newPaks, int threads, boolean inflate) {
+        this.oldPaks = oldPaks;
+        this.newPaks = newPaks;
+        this.threads = Math.max(1, threads);
+        this.inflate = inflate;
+    }
+
+    /**
+     * Compares the two sets of paks
+     *
+     * @param progress Receives the fraction of matched subfiles compared so far, possibly from several threads
+     * @return The subfiles that changed
+     * @throws IOException If a subfile could not be read, or the comparison was interrupted
+     */
+    public Result compare(DoubleConsumer progress) throws IOException {
+        long start = System.nanoTime();
+        PakTree oldTree = oldPaks.getTree();
+        PakTree newTree = newPaks.getTree();
+        Result result = new Result();
+        List<int[]> pairs = new ArrayList<>();
+        match(oldTree, newTree, result, pairs);
+        //  Compare in the new paks' disk order, so that at least one side is read front to back
+        pairs.sort(Comparator.<int[]>comparingInt(p -> newTree.getPakIndex(p[1]))
+                .thenComparingLong(p -> newTree.getDiskOffset(p[1])));
+        List<PakTreeEntry> differing = comparePairs(oldTree, newTree, pairs, progress);
+        result.modified.addAll(differing);
+        result.unchanged = pairs.size() - differing.size();
+        result.sort();
+        LOGGER.info("Compared {} subfiles in {} ms: {}", pairs.size(), (System.nanoTime() - start) / 1000000L,
+                result);
+        return result;
+    }
+
+    /**
+     * Walks both trees, sorting subfiles into added and removed, and pairing up the subfiles found in both whose sizes
+     * match. Subfiles found in both with different sizes are modified, except that only the decompressed size has to
+     * match when inflating.
+     */
+    private void match(PakTree oldTree, PakTree newTree, Result result, List<int[]> pairs) {
+        Deque<int[]> dirs = new ArrayDeque<>();
+        dirs.push(new int[]{PakTree.ROOT, PakTree.ROOT});
+        while (!dirs.isEmpty()) {
+            int[] dir = dirs.pop();
+            int oldDir = dir[0];
+            int newDir = dir[1];
+            int newCount = newTree.getChildCount(newDir);
+            for (int i = 0; i < newCount; i++) {
+                int newNode = newTree.getChild(newDir, i);
+                int oldNode = oldTree.find(oldDir, newTree.getName(newNode));
+                if (oldNode < 0 || oldTree.isDirectory(oldNode) != newTree.isDirectory(newNode)) {
+                    addFiles(newTree, newNode, result.added);
+                } else if (newTree.isDirectory(newNode)) {
+                    dirs.push(new int[]{oldNode, newNode});
+                } else if (oldTree.getDecompressedSize(oldNode) != newTree.getDecompressedSize(newNode) ||
+                        (!inflate && oldTree.getCompressedSize(oldNode) != newTree.getCompressedSize(newNode))) {
+                    result.modified.add(newTree.getEntry(newNode));
+                } else {
+                    pairs.add(new int[]{oldNode, newNode});
+                }
+            }
+            int oldCount = oldTree.getChildCount(oldDir);
+            for (int i = 0; i < oldCount; i++) {
+                int oldNode = oldTree.getChild(oldDir, i);
+                int newNode = newTree.find(newDir, oldTree.getName(oldNode));
+                if (newNode < 0 || oldTree.isDirectory(oldNode) != newTree.isDirectory(newNode)) {
+                    addFiles(oldTree, oldNode, result.removed);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds a subfile, or every subfile below a directory, to a list
+     */
+    private static void addFiles(PakTree tree, int node, List<PakTreeEntry> files) {
+        Deque<Integer> stack = new ArrayDeque<>();
+        stack.push(node);
+        while (!stack.isEmpty()) {
+            int n = stack.pop();
+            if (tree.isDirectory(n)) {
+                for (int i = tree.getChildCount(n) - 1; i >= 0; i--) {
+                    stack.push(tree.getChild(n, i));
+                }
+            } else {
+                files.add(tree.getEntry(n));
+            }
+        }
+    }
+
+    /**
+     * Compares the data of subfile pairs on a pool of threads
+     *
+     * @return The new side of the pairs that differ
+     */
+    private List<PakTreeEntry> comparePairs(PakTree oldTree, PakTree newTree, List<int[]> pairs,
+                                            DoubleConsumer progress) throws IOException {
+        if (pairs.isEmpty()) {
+            return Collections.emptyList();
+        }
+        int numThreads = Math.min(threads, (pairs.size() + BATCH_SIZE - 1) / BATCH_SIZE);
+        AtomicInteger threadCounter = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(numThreads, r -> {
+            Thread thread = new Thread(r, "Diff-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicInteger cursor = new AtomicInteger();
+        AtomicInteger done = new AtomicInteger();
+        double total = pairs.size();
+        List<Future<List<PakTreeEntry>>> futures = new ArrayList<>(numThreads);
+        try {
+            for (int t = 0; t < numThreads; t++) {
+                futures.add(pool.submit(() -> {
+                    List<PakTreeEntry> modified = new ArrayList<>();
+                    int from;
+                    while ((from = cursor.getAndAdd(BATCH_SIZE)) < pairs.size()) {
+                        int to = Math.min(from + BATCH_SIZE, pairs.size());
+                        for (int i = from; i < to; i++) {
+                            int[] pair = pairs.get(i);
+                            if (!isSame(oldTree.getLocation(pair[0]), newTree.getLocation(pair[1]))) {
+                                modified.add(newTree.getEntry(pair[1]));
+                            }
+                        }
+                        progress.accept(done.addAndGet(to - from) / total);
+                    }
+                    return modified;
+                }));
+            }
+            List<PakTreeEntry> modified = new ArrayList<>();
+            for (Future<List<PakTreeEntry>> future : futures) {
+                modified.addAll(future.get());
+            }
+            return modified;
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Comparison interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            }
+            throw new IOException(cause);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Compares the data of two subfiles of the same decompressed size
+     *
+     * @return Whether the subfiles hold the same data
+     */
+    private boolean isSame(SubfileLocation oldLocation, SubfileLocation newLocation) {
+        SubfileReader oldReader = oldPaks.getReader();
+        SubfileReader newReader = newPaks.getReader();
+        byte[] oldScratch = oldReader.needsScratch() ? InflatePool.acquireBuffer(oldLocation.compressedSize) : null;
+        byte[] newScratch = newReader.needsScratch() ? InflatePool.acquireBuffer(newLocation.compressedSize) : null;
+        try {
+            ByteBuffer oldData = oldReader.readCompressed(oldLocation, oldScratch);
+            ByteBuffer newData = newReader.readCompressed(newLocation, newScratch);
+            if (oldData.equals(newData)) {
+                return true;
+            }
+            if (!inflate) {
+                return false;
+            }
+            return isSameInflated(oldData, oldLocation, newData, newLocation);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to compare " + newLocation, e);
+        } finally {
+            if (oldScratch != null) {
+                InflatePool.release(oldScratch);
+            }
+            if (newScratch != null) {
+                InflatePool.release(newScratch);
+            }
+        }
+    }
+
+    /**
+     * Inflates two subfiles and compares their contents
+     */
+    private static boolean isSameInflated(ByteBuffer oldData, SubfileLocation oldLocation,
+                                          ByteBuffer newData, SubfileLocation newLocation) throws IOException {
+        byte[] oldOut = InflatePool.acquireBuffer(oldLocation.decompressedSize);
+        byte[] newOut = InflatePool.acquireBuffer(newLocation.decompressedSize);
+        try {
+            return SubfileReader.inflate(oldData, oldLocation, oldOut)
+                    .equals(SubfileReader.inflate(newData, newLocation, newOut));
+        } finally {
+            InflatePool.release(oldOut);
+            InflatePool.release(newOut);
+        }
+    }
+
+    /**
+     * The differences between two sets of paks
+     */
+    public static class Result {
+
+        /**
+         * Subfiles only in the new paks
+         */
+        private final List<PakTreeEntry> added = new ArrayList<>();
+        /**
+         * Subfiles only in the old paks
+         */
+        private final List<PakTreeEntry> removed = new ArrayList<>();
+        /**
+         * Subfiles in both whose data differs, from the new paks
+         */
+        private final List<PakTreeEntry> modified = new ArrayList<>();
+        private int unchanged;
+
+        private void sort() {
+            Comparator<PakTreeEntry> byPath = Comparator.comparing(PakTreeEntry::getPathString);
+            added.sort(byPath);
+            removed.sort(byPath);
+            modified.sort(byPath);
+        }
+
+        /**
+         * @return The subfiles only in the new paks, sorted by path
+         */
+        public List<PakTreeEntry> getAdded() {
+            return Collections.unmodifiableList(added);
+        }
+
+        /**
+         * @return The subfiles only in the old paks, sorted by path
+         */
+        public List<PakTreeEntry> getRemoved() {
+            return Collections.unmodifiableList(removed);
+        }
+
+        /**
+         * @return The new version of each subfile in both sets of paks whose data differs, sorted by path
+         */
+        public List<PakTreeEntry> getModified() {
+            return Collections.unmodifiableList(modified);
+        }
+
+        /**
+         * @return The added and modified subfiles, which are the ones to export to get the new version
+         */
+        public List<PakTreeEntry> getChanged() {
+            List<PakTreeEntry> changed = new ArrayList<>(added.size() + modified.size());
+            changed.addAll(added);
+            changed.addAll(modified);
+            return changed;
+        }
+
+        /**
+         * @return The number of subfiles in both sets of paks with the same data
+         */
+        public int getUnchanged() {
+            return unchanged;
+        }
+
+        /**
+         * Writes the differences out as a text file, one subfile per line prefixed with A (added), D (removed) or M
+         * (modified)
+         *
+         * @param path The file to write
+         * @throws IOException If the file could not be written
+         */
+        public void writeReport(Path path) throws IOException {
+            try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+                writeLines(writer, "A", added);
+                writeLines(writer, "D", removed);
+                writeLines(writer, "M", modified);
+            }
+        }
+
+        private static void writeLines(BufferedWriter writer, String prefix, List<PakTreeEntry> entries)
+                throws IOException {
+            for (PakTreeEntry entry : entries) {
+                writer.write(prefix);
+                writer.write('\t');
+                writer.write(entry.getPathString());
+                writer.newLine();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%,d added, %,d removed, %,d modified, %,d unchanged", added.size(), removed.size(),
+                    modified.size(), unchanged);
+        }
+    }
+}
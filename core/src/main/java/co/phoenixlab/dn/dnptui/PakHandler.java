@@ -0,0 +1,478 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package co.phoenixlab.dn.dnptui;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.DoubleConsumer;
+
+public class PakHandler {
+
+    /**
+     * Logger
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(PakHandler.class);
+
+    /**
+     * Reader used to extract subfiles from the loaded paks
+     */
+    private final SubfileReader reader;
+    /**
+     * Cache of recently extracted subfiles
+     */
+    private final SubfileCache cache;
+    /**
+     * Directory structure of all the loaded files. Replaced by a larger tree each time more paks are published while
+     * they are still loading
+     */
+    private volatile PakTree tree;
+    /**
+     * Search index over every file and directory, or null if it has not been built yet
+     */
+    private volatile SearchIndex searchIndex;
+    /**
+     * Number of threads bulk exports inflate subfiles on
+     */
+    private volatile int exportThreads = ExportPipeline.DEFAULT_INFLATERS;
+
+    /**
+     * Constructs a new PakHandler for the given tree of loaded files, using the configured subfile reader backend
+     */
+    public PakHandler(PakTree tree) {
+        this(tree, SubfileReader.create());
+    }
+
+    /**
+     * Constructs a new PakHandler for the given tree of loaded files and subfile reader backend
+     */
+    public PakHandler(PakTree tree, SubfileReader reader) {
+        this.tree = tree;
+        this.reader = reader;
+        this.cache = new SubfileCache();
+    }
+
+    private static final boolean isInvalidPathChar(char var0) {
+        return var0 < ' ' || "<>:\"|?*".indexOf(var0) != -1;
+    }
+
+    /**
+     * Replaces the tree with one built from more paks while they are still loading. Entries of the previous tree
+     * stay valid, as that tree isn't modified, but only entries of the new tree are found from now on.
+     *
+     * @param tree The tree built from the paks loaded so far
+     */
+    public void publish(PakTree tree) {
+        this.tree = tree;
+    }
+
+    /**
+     * @return The directory structure of all the loaded files, or null once unloaded
+     */
+    public PakTree getTree() {
+        return tree;
+    }
+
+    /**
+     * Builds the search index over every file and directory in the tree. Entries are indexed in tree order, so
+     * search results come out in the same order they appear in the navigation pane.
+     *
+     * @return The built index
+     */
+    public SearchIndex buildSearchIndex() {
+        PakTree tree = this.tree;
+        List<String> paths = new ArrayList<>(tree.size());
+        BitSet directories = new BitSet(tree.size());
+        Deque<Integer> stack = new ArrayDeque<>();
+        //  The root itself isn't searchable
+        for (int i = tree.getChildCount(PakTree.ROOT) - 1; i >= 0; i--) {
+            stack.push(tree.getChild(PakTree.ROOT, i));
+        }
+        while (!stack.isEmpty()) {
+            int node = stack.pop();
+            if (tree.isDirectory(node)) {
+                directories.set(paths.size());
+                for (int i = tree.getChildCount(node) - 1; i >= 0; i--) {
+                    stack.push(tree.getChild(node, i));
+                }
+            }
+            paths.add(tree.getPathString(node));
+        }
+        long start = System.nanoTime();
+        SearchIndex index = SearchIndex.build(paths, directories);
+        LOGGER.info("Built search index over {} entries in {} ms, approx. {} KB", index.size(),
+                (System.nanoTime() - start) / 1000000L, index.sizeInBytes() / 1024);
+        searchIndex = index;
+        return index;
+    }
+
+    /**
+     * @return The search index, or null if it has not been built
+     */
+    public SearchIndex getSearchIndex() {
+        return searchIndex;
+    }
+
+    /**
+     * Finds the PakTreeEntry found at path, or null if the path does not exist.
+     *
+     * @param path The path of the entry to find
+     * @return The PakTreeEntry at path, or null if no such element exists
+     */
+    public PakTreeEntry find(Path path) {
+        PakTree tree = this.tree;
+        int node = tree.find(path);
+        return node < 0 ? null : tree.getEntry(node);
+    }
+
+    /**
+     * Finds the PakTreeEntry with the given name in a directory, or null if it does not exist.
+     *
+     * @param dir  The path of the directory to search in, or null for the root directory
+     * @param name The name of the entry to find
+     * @return The PakTreeEntry, or null if no such element exists
+     */
+    public PakTreeEntry find(Path dir, String name) {
+        return find(dir == null ? Paths.get(name) : dir.resolve(name));
+    }
+
+    /**
+     * Finds the PakTreeEntry with the given name in a directory, or null if it does not exist. This looks the name
+     * up directly in the tree without building any paths.
+     *
+     * @param dir  The directory to search in
+     * @param name The name of the entry to find
+     * @return The PakTreeEntry, or null if no such element exists
+     */
+    public PakTreeEntry find(PakTreeEntry dir, String name) {
+        int node = dir.tree.find(dir.node, name);
+        return node < 0 ? null : dir.tree.getEntry(node);
+    }
+
+    /**
+     * Extracts and decompresses a file, reading through the subfile cache. Safe to call from multiple threads at once.
+     *
+     * @param entry The entry of the file to extract
+     * @return A ByteBuffer containing the decompressed file data. The buffer may be shared with the cache and so
+     * must not be modified
+     * @throws IOException If there was an I/O error during extraction
+     */
+    public ByteBuffer extract(PakTreeEntry entry) throws IOException {
+        SubfileLocation location = entry.getLocation();
+        ByteBuffer data = cache.get(location);
+        if (data == null) {
+            data = reader.extract(location);
+            cache.put(location, data);
+        }
+        return data;
+    }
+
+    /**
+     * Sets the number of threads bulk exports inflate subfiles on
+     *
+     * @param exportThreads The number of threads, at least 1
+     */
+    public void setExportThreads(int exportThreads) {
+        this.exportThreads = Math.max(1, exportThreads);
+    }
+
+    private ExportPipeline newExportPipeline() {
+        return new ExportPipeline(this, ExportPipeline.DEFAULT_READERS, exportThreads, ExportPipeline.DEFAULT_WRITERS,
+                ExportPipeline.DEFAULT_QUEUE_MB);
+    }
+
+    /**
+     * @return The reader used to extract subfiles
+     */
+    SubfileReader getReader() {
+        return reader;
+    }
+
+    /**
+     * @return The cache of recently extracted subfiles, for inspecting its statistics
+     */
+    public SubfileCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Exports a file to the provided path.
+     *
+     * @param entry      The entry of the file to export
+     * @param exportPath The location to export the file
+     * @throws IOException If there was an I/O error during exporting
+     */
+    public void exportFile(PakTreeEntry entry, Path exportPath) throws IOException {
+        Path parent = exportPath.getParent();
+        if (!Files.exists(parent)) {
+            Files.createDirectories(parent);
+        }
+        SubfileLocation location = entry.getLocation();
+        ByteBuffer cached = cache.get(location);
+        if (cached != null) {
+            write(cached, exportPath);
+        } else {
+            //  Not worth caching, the user is unlikely to view it just because they exported it
+            reader.extract(location, data -> write(data, exportPath));
+        }
+        LOGGER.info("Subfile {} exported to {}", entry.getPathString(), exportPath);
+    }
+
+    /**
+     * Writes data out to a file, replacing it if it exists
+     *
+     * @param data       The data to write
+     * @param exportPath The file to write to. Its parent directory must exist
+     * @throws IOException If there was an I/O error while writing
+     */
+    static void write(ByteBuffer data, Path exportPath) throws IOException {
+        try (FileChannel channel = FileChannel.open(exportPath, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+        }
+    }
+
+    /**
+     * Exports an entire directory and all of its children into the provided directory. Recursively operates on
+     * subdirectories.
+     *
+     * @param dir        The directory to export
+     * @param exportPath The directory to export the contents of dir into
+     * @throws IOException If there was an I/O error during exporting
+     */
+    public void exportDirectory(PakTreeEntry dir, Path exportPath) throws IOException {
+        DoubleConsumer consumer = d -> {
+        };
+        exportDirectory(dir, exportPath, consumer);
+    }
+
+    /**
+     * Exports an entire directory and all of its children into the provided directory.
+     *
+     * @param dir        The directory to export
+     * @param exportPath The directory to export the contents of dir into
+     * @param prog       Receives the fraction of subfiles exported so far, possibly from several threads
+     * @throws IOException If there was an I/O error during exporting
+     */
+    public void exportDirectory(PakTreeEntry dir, Path exportPath, DoubleConsumer prog) throws IOException {
+        List<ExportJob> jobs = new ArrayList<>();
+        Set<Path> dirs = new LinkedHashSet<>();
+        dirs.add(exportPath);
+        collectExportJobs(dir, exportPath, jobs, dirs);
+        exportIncremental(jobs, dirs, exportPath, prog);
+        LOGGER.info("Subdirectory {} ({} files) exported to {}", dir.getPathString(), jobs.size(), exportPath);
+    }
+
+    /**
+     * Exports a batch of subfiles. The destination directories are all created up front, then the subfiles are
+     * grouped by pak and sorted by their offset in the pak so that each pak is read front to back in a single pass,
+     * and exported in that order through an {@link ExportPipeline}. Bulk exports bypass the subfile cache so that
+     * they don't evict everything the user was browsing.
+     *
+     * @param jobs The subfiles to export. This list is sorted in place
+     * @param dirs The destination directories to create before exporting
+     * @param prog Receives the fraction of subfiles exported so far, possibly from several threads
+     * @throws IOException If there was an I/O error during exporting
+     */
+    public void exportAll(List<ExportJob> jobs, Collection<Path> dirs, DoubleConsumer prog) throws IOException {
+        exportAll(jobs, dirs, new DirectoryExportSink(), prog);
+    }
+
+    /**
+     * Exports a batch of subfiles to a sink, in the same way as {@link #exportAll(List, Collection, DoubleConsumer)}
+     *
+     * @param jobs The subfiles to export. This list is sorted in place
+     * @param dirs The destination directories to create before exporting, parents first
+     * @param sink Where to export the subfiles
+     * @param prog Receives the fraction of subfiles exported so far, possibly from several threads
+     * @throws IOException If there was an I/O error during exporting
+     */
+    public void exportAll(List<ExportJob> jobs, Collection<Path> dirs, ExportSink sink, DoubleConsumer prog)
+            throws IOException {
+        sink.createDirectories(dirs);
+        sortByDiskOrder(jobs);
+        newExportPipeline().export(jobs, sink, prog);
+    }
+
+    /**
+     * Exports a batch of subfiles as loose files under an export directory, in the same way as
+     * {@link #exportAll(List, Collection, DoubleConsumer)}, but skipping subfiles that are unchanged since the last
+     * export into the same directory. The directory's {@link ExportManifest} is updated even if the export fails, so
+     * that an interrupted export can pick up where it left off.
+     *
+     * @param jobs The subfiles to export, all of which must be under root. This list is sorted in place
+     * @param dirs The destination directories to create before exporting, parents first
+     * @param root The export directory holding the manifest
+     * @param prog Receives the fraction of subfiles exported so far, possibly from several threads
+     * @throws IOException If there was an I/O error during exporting
+     */
+    public void exportIncremental(List<ExportJob> jobs, Collection<Path> dirs, Path root, DoubleConsumer prog)
+            throws IOException {
+        if (!ExportManifest.ENABLED) {
+            exportAll(jobs, dirs, prog);
+            return;
+        }
+        ExportManifest manifest = ExportManifest.open(root);
+        ExportSink sink = new DirectoryExportSink();
+        try {
+            sink.createDirectories(dirs);
+            sortByDiskOrder(jobs);
+            newExportPipeline().export(jobs, sink, manifest, prog);
+        } finally {
+            try {
+                manifest.save();
+            } catch (IOException e) {
+                LOGGER.warn("Unable to write export manifest in " + root, e);
+            }
+        }
+    }
+
+    /**
+     * Exports files and directories into a single zip or tar archive, chosen by the archive's file extension. Each
+     * entry is stored under its full path in the pak. A partially written archive is deleted if the export fails.
+     *
+     * @param entries The files and directories to export
+     * @param archive The archive to create, replacing it if it exists
+     * @param prog    Receives the fraction of subfiles exported so far, possibly from several threads
+     * @throws IOException If there was an I/O error during exporting
+     */
+    public void exportArchive(List<PakTreeEntry> entries, Path archive, DoubleConsumer prog) throws IOException {
+        List<ExportJob> jobs = new ArrayList<>();
+        Set<Path> dirs = new LinkedHashSet<>();
+        collectExportJobs(entries, Paths.get(""), jobs, dirs);
+        boolean done = false;
+        try (ExportSink sink = ExportSink.openArchive(archive)) {
+            exportAll(jobs, dirs, sink, prog);
+            done = true;
+        } finally {
+            if (!done) {
+                Files.deleteIfExists(archive);
+            }
+        }
+        LOGGER.info("{} files exported to archive {}", jobs.size(), archive);
+    }
+
+    /**
+     * Gathers the export destinations of a selection of files and directories, each placed under its full path in
+     * the pak.
+     *
+     * @param entries    The selected files and directories
+     * @param exportPath The directory to export into
+     * @param jobs       The list to add subfile jobs to
+     * @param dirs       The set to add destination directories to, parents first
+     */
+    public void collectExportJobs(List<PakTreeEntry> entries, Path exportPath, List<ExportJob> jobs, Set<Path> dirs) {
+        for (PakTreeEntry entry : entries) {
+            Path relative = entry.getPath();
+            Path path = exportPath.resolve(relative);
+            //  Include the parents of the selection so the directory list stays parents first
+            Path dir = entry.isDirectory() ? relative : relative.getParent();
+            if (dir != null) {
+                for (int i = 1; i <= dir.getNameCount(); i++) {
+                    dirs.add(exportPath.resolve(dir.subpath(0, i)));
+                }
+            }
+            if (entry.isDirectory()) {
+                collectExportJobs(entry.tree, entry.node, path, jobs, dirs);
+            } else {
+                jobs.add(new ExportJob(entry.tree, entry.node, path));
+            }
+        }
+    }
+
+    /**
+     * Sorts export jobs by pak, in load order, and then by offset within the pak.
+     *
+     * @param jobs The jobs to sort
+     */
+    private void sortByDiskOrder(List<ExportJob> jobs) {
+        jobs.sort(Comparator.<ExportJob>comparingInt(j -> j.tree.getPakIndex(j.node))
+                .thenComparingLong(j -> j.tree.getDiskOffset(j.node)));
+    }
+
+    /**
+     * Walks a directory, gathering the export destinations of all of its subfiles and subdirectories. Works from
+     * the PakTree directly, so it is safe to call off the FX thread and doesn't create TreeItems.
+     *
+     * @param dir        The directory to walk
+     * @param exportPath The directory the contents of dir are exported into
+     * @param jobs       The list to add subfile jobs to
+     * @param dirs       The set to add destination directories to
+     */
+    public void collectExportJobs(PakTreeEntry dir, Path exportPath, List<ExportJob> jobs, Set<Path> dirs) {
+        collectExportJobs(dir.tree, dir.node, exportPath, jobs, dirs);
+    }
+
+    private void collectExportJobs(PakTree tree, int dir, Path exportPath, List<ExportJob> jobs, Set<Path> dirs) {
+        int childCount = tree.getChildCount(dir);
+        for (int i = 0; i < childCount; i++) {
+            int node = tree.getChild(dir, i);
+            String name = tree.getName(node);
+            Path path;
+            try {
+                path = exportPath.resolve(name);
+            } catch (InvalidPathException ipe) {
+                char[] scar = name.toCharArray();
+                for (int j = ipe.getIndex(); j < scar.length; j++) {
+                    if (isInvalidPathChar(scar[j])) {
+                        scar[j] = '-';
+                    }
+                }
+
+                String ss = new String(scar);
+                LOGGER.info("Replaced illegal characters in {}, result is {}", name, ss);
+
+                path = exportPath.resolve(ss);
+            }
+
+            if (tree.isDirectory(node)) {
+                dirs.add(path);
+                collectExportJobs(tree, node, path, jobs, dirs);
+            } else {
+                jobs.add(new ExportJob(tree, node, path));
+            }
+        }
+    }
+
+    /**
+     * Unloads all the pak files managed by this handler, closing any handles the reader has open to them
+     */
+    public void unload() {
+        LOGGER.info("Subfile cache: {}", cache);
+        cache.clear();
+        tree = null;
+        searchIndex = null;
+        reader.close();
+        LOGGER.info("Paks unloaded");
+    }
+
+}
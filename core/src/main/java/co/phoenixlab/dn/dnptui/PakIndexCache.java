@@ -0,0 +1,360 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package co.phoenixlab.dn.dnptui;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Sidecar cache of pak file tables and the tree built from them, so that reopening the same pak or virtual pak
+ * doesn't have to re-read every file table and rebuild the tree.
+ * <p>
+ * Each set of paks gets one index file, named after a hash of the paks' paths. It holds a fingerprint of each pak
+ * (path, size, modification time and a checksum of the pak header), each pak's table, and the sorted tree. When every
+ * fingerprint still matches, the tree is read straight out of the index. Otherwise only the paks whose fingerprints
+ * changed are re-read, and their unchanged neighbours' tables are taken from the index.
+ * <p>
+ * The file is laid out as the tables, then the tree, then a header listing the fingerprints and section offsets,
+ * followed by a trailer holding the header offset and a magic number.
+ */
+public class PakIndexCache {
+
+    /**
+     * Logger
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(PakIndexCache.class);
+
+    /**
+     * Whether to use the index cache. Can be disabled with the co.phoenixlab.dn.dnptui.index.nocache system property
+     */
+    public static final boolean ENABLED = !Boolean.getBoolean("co.phoenixlab.dn.dnptui.index.nocache");
+
+    /**
+     * Default directory index files are kept in
+     */
+    public static final Path DEFAULT_DIR = Paths.get(System.getProperty("java.io.tmpdir"), "dnptui", "index");
+
+    /**
+     * "DNPI"
+     */
+    private static final int MAGIC = 0x444E5049;
+    /**
+     * Bump whenever the layout of the index, a PakTable or a PakTree changes
+     */
+    private static final int VERSION = 2;
+    /**
+     * Number of bytes at the start of each pak covered by the fingerprint's checksum
+     */
+    private static final int HEADER_CHECKSUM_BYTES = 1024;
+
+    private final Path dir;
+
+    public PakIndexCache(Path dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Opens the index for a set of paks, if there is one.
+     *
+     * @param paks The paths of the paks, in load order
+     * @return The index, or null if there is no usable index for these paks
+     */
+    public Snapshot open(List<Path> paks) {
+        Path indexPath = indexPathFor(paks);
+        if (!Files.isRegularFile(indexPath)) {
+            return null;
+        }
+        //  Read into the heap rather than mapping the file. A mapping stays alive until it is garbage collected,
+        //  and Windows refuses to replace a mapped file, which would stop write() from ever updating the index.
+        try (FileChannel channel = FileChannel.open(indexPath, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Index is too large");
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining() && channel.read(buffer, buffer.position()) >= 0) {
+                //  Keep reading
+            }
+            if (buffer.hasRemaining()) {
+                throw new IOException("Index was truncated while reading");
+            }
+            buffer.flip();
+            return Snapshot.read(buffer);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Unable to read index " + indexPath + ", ignoring it", e);
+            return null;
+        }
+    }
+
+    /**
+     * Writes the index for a set of paks, replacing any existing index for them. The index is written to a
+     * temporary file first and then moved into place, so a failed write never leaves a truncated index behind.
+     *
+     * @param fingerprints The fingerprints of the paks, in load order
+     * @param tables       The tables of the paks, in load order
+     * @param tree         The tree built from the tables
+     * @throws IOException If the index could not be written
+     */
+    public void write(List<Fingerprint> fingerprints, List<PakTable> tables, PakTree tree) throws IOException {
+        List<Path> paks = new ArrayList<>(tables.size());
+        for (PakTable table : tables) {
+            paks.add(table.path);
+        }
+        Path indexPath = indexPathFor(paks);
+        Files.createDirectories(dir);
+        Path tempPath = Files.createTempFile(dir, "index", ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(tempPath), 64 * 1024))) {
+                int[] tableOffsets = new int[tables.size()];
+                for (int i = 0; i < tables.size(); i++) {
+                    tableOffsets[i] = out.size();
+                    tables.get(i).write(out);
+                }
+                int treeOffset = out.size();
+                tree.write(out);
+                int headerOffset = out.size();
+                out.writeInt(VERSION);
+                out.writeInt(fingerprints.size());
+                for (int i = 0; i < fingerprints.size(); i++) {
+                    fingerprints.get(i).write(out);
+                    out.writeInt(tableOffsets[i]);
+                }
+                out.writeInt(treeOffset);
+                out.writeBoolean(tree.isDeduplicated());
+                out.writeInt(headerOffset);
+                out.writeInt(MAGIC);
+            }
+            Files.move(tempPath, indexPath, StandardCopyOption.REPLACE_EXISTING);
+            LOGGER.info("Wrote index {} ({} KB)", indexPath, Files.size(indexPath) / 1024);
+        } finally {
+            Files.deleteIfExists(tempPath);
+        }
+    }
+
+    /**
+     * @return The path of the index file for a set of paks
+     */
+    private Path indexPathFor(List<Path> paks) {
+        StringBuilder key = new StringBuilder();
+        for (Path pak : paks) {
+            key.append(pak.toAbsolutePath().normalize()).append('\n');
+        }
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.toString().getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder();
+            for (byte b : digest) {
+                name.append(String.format("%02x", b));
+            }
+            return dir.resolve(name.append(".idx").toString());
+        } catch (NoSuchAlgorithmException e) {
+            //  Every JRE is required to provide SHA-1
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Identifies a particular version of a pak on disk
+     */
+    public static class Fingerprint {
+
+        public final String path;
+        public final long size;
+        public final long modified;
+        public final int headerChecksum;
+
+        public Fingerprint(String path, long size, long modified, int headerChecksum) {
+            this.path = path;
+            this.size = size;
+            this.modified = modified;
+            this.headerChecksum = headerChecksum;
+        }
+
+        /**
+         * Fingerprints a pak on disk. Only the header at the start of the pak is read.
+         *
+         * @param pak The path of the pak
+         * @return The pak's fingerprint
+         * @throws IOException If the pak could not be read
+         */
+        public static Fingerprint of(Path pak) throws IOException {
+            BasicFileAttributes attributes = Files.readAttributes(pak, BasicFileAttributes.class);
+            CRC32 crc = new CRC32();
+            try (FileChannel channel = FileChannel.open(pak, StandardOpenOption.READ)) {
+                ByteBuffer header = ByteBuffer.allocate((int) Math.min(HEADER_CHECKSUM_BYTES, channel.size()));
+                while (header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+                    //  Keep reading
+                }
+                crc.update(header.array(), 0, header.position());
+            }
+            return new Fingerprint(pak.toAbsolutePath().normalize().toString(), attributes.size(),
+                    attributes.lastModifiedTime().toMillis(), (int) crc.getValue());
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeUTF(path);
+            out.writeLong(size);
+            out.writeLong(modified);
+            out.writeInt(headerChecksum);
+        }
+
+        static Fingerprint read(ByteBuffer in) {
+            byte[] pathBytes = new byte[in.getShort() & 0xFFFF];
+            in.get(pathBytes);
+            //  writeUTF's modified UTF-8 only differs from UTF-8 for NUL and supplementary characters
+            String path = new String(pathBytes, StandardCharsets.UTF_8);
+            return new Fingerprint(path, in.getLong(), in.getLong(), in.getInt());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Fingerprint that = (Fingerprint) o;
+            return size == that.size && modified == that.modified && headerChecksum == that.headerChecksum &&
+                    path.equals(that.path);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = path.hashCode();
+            result = 31 * result + Long.hashCode(size);
+            result = 31 * result + Long.hashCode(modified);
+            result = 31 * result + headerChecksum;
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s (%,d bytes, modified %d, header %08X)", path, size, modified, headerChecksum);
+        }
+    }
+
+    /**
+     * A previously written index, read into memory
+     */
+    public static class Snapshot {
+
+        private final ByteBuffer buffer;
+        private final List<Fingerprint> fingerprints;
+        private final int[] tableOffsets;
+        private final int treeOffset;
+        /**
+         * Whether the tree was built with later paks overriding earlier ones
+         */
+        private final boolean deduplicated;
+
+        private Snapshot(ByteBuffer buffer, List<Fingerprint> fingerprints, int[] tableOffsets, int treeOffset,
+                         boolean deduplicated) {
+            this.buffer = buffer;
+            this.fingerprints = fingerprints;
+            this.tableOffsets = tableOffsets;
+            this.treeOffset = treeOffset;
+            this.deduplicated = deduplicated;
+        }
+
+        static Snapshot read(ByteBuffer buffer) throws IOException {
+            int limit = buffer.limit();
+            if (limit < 8 || buffer.getInt(limit - 4) != MAGIC) {
+                throw new IOException("Not an index file");
+            }
+            ByteBuffer header = buffer.duplicate();
+            header.position(buffer.getInt(limit - 8));
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("Index version " + version + " is not supported");
+            }
+            int numPaks = header.getInt();
+            List<Fingerprint> fingerprints = new ArrayList<>(numPaks);
+            int[] tableOffsets = new int[numPaks];
+            for (int i = 0; i < numPaks; i++) {
+                fingerprints.add(Fingerprint.read(header));
+                tableOffsets[i] = header.getInt();
+            }
+            return new Snapshot(buffer, fingerprints, tableOffsets, header.getInt(), header.get() != 0);
+        }
+
+        /**
+         * @param current The fingerprints of the paks as they are now, in load order
+         * @return Whether every pak is unchanged since the index was written and the tree was built the same way it
+         * would be now, so the tree can be used as-is
+         */
+        public boolean matches(List<Fingerprint> current) {
+            //  The tables don't depend on how duplicates are handled, so readTable() doesn't check this
+            return deduplicated == PakTree.DEDUPLICATE && fingerprints.equals(current);
+        }
+
+        /**
+         * Reads the tree. Only valid if {@link #matches(List)} is true.
+         *
+         * @param paks The paths of the paks, in load order
+         * @return The tree
+         */
+        public PakTree readTree(List<Path> paks) {
+            ByteBuffer in = buffer.duplicate();
+            in.position(treeOffset);
+            return PakTree.read(in, paks);
+        }
+
+        /**
+         * Reads the table of a pak, if the pak is in this index and unchanged. Safe to call from multiple threads.
+         *
+         * @param pak         The path of the pak
+         * @param fingerprint The pak's current fingerprint
+         * @return The pak's table, or null if the index doesn't have an up to date table for the pak
+         */
+        public PakTable readTable(Path pak, Fingerprint fingerprint) {
+            int index = fingerprints.indexOf(fingerprint);
+            if (index < 0) {
+                return null;
+            }
+            ByteBuffer in = buffer.duplicate();
+            in.position(tableOffsets[index]);
+            return PakTable.read(pak, in);
+        }
+    }
+}
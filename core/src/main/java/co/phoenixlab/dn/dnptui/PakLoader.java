@@ -0,0 +1,333 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package co.phoenixlab.dn.dnptui;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiPredicate;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Loads the file tables of a pak or set of paks and builds their file tree, going through the index cache when it
+ * is enabled. This has no UI dependencies; {@link PakLoadTask} wraps it for the UI and the command line uses it
+ * directly.
+ */
+public class PakLoader {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PakLoader.class);
+
+    /**
+     * Default number of paks to load at the same time when loading a virtual pak. Can be overridden with the
+     * co.phoenixlab.dn.dnptui.load.threads system property, with 1 loading paks one after another
+     */
+    public static final int DEFAULT_LOAD_THREADS = Integer.getInteger("co.phoenixlab.dn.dnptui.load.threads",
+            Math.min(Runtime.getRuntime().availableProcessors(), 8));
+
+    /**
+     * Receives status updates while loading, possibly from several threads
+     */
+    public interface Listener {
+
+        /**
+         * @param message What is being done
+         */
+        default void message(String message) {
+        }
+
+        /**
+         * @param done  The number of paks loaded so far
+         * @param total The number of paks to load
+         */
+        default void progress(long done, long total) {
+        }
+    }
+
+    private final List<Path> paths;
+    private final int loadThreads;
+    /**
+     * Index cache to load from and update, or null to always read every pak
+     */
+    private final PakIndexCache indexCache;
+    private final Listener listener;
+    /**
+     * Current fingerprints of the paks, or null if the index is disabled or hasn't been checked yet
+     */
+    private List<PakIndexCache.Fingerprint> fingerprints;
+    /**
+     * The existing index, or null if there is none
+     */
+    private PakIndexCache.Snapshot snapshot;
+
+    /**
+     * Constructs a loader using the default number of threads and the index cache if it is enabled
+     *
+     * @param paths The paths of the paks, in load order
+     */
+    public PakLoader(List<Path> paths) {
+        this(paths, DEFAULT_LOAD_THREADS, PakIndexCache.ENABLED ? new PakIndexCache(PakIndexCache.DEFAULT_DIR) : null,
+                new Listener() {
+                });
+    }
+
+    /**
+     * @param paths       The paths of the paks, in load order
+     * @param loadThreads The number of paks to load at the same time
+     * @param indexCache  The index cache to load from and update, or null to always read every pak
+     * @param listener    Receives status updates
+     */
+    public PakLoader(List<Path> paths, int loadThreads, PakIndexCache indexCache, Listener listener) {
+        this.paths = paths;
+        this.loadThreads = Math.max(1, Math.min(loadThreads, paths.size()));
+        this.indexCache = indexCache;
+        this.listener = listener;
+    }
+
+    /**
+     * Finds the paks making up a virtual pak: the Resource*.pak files directly inside a directory.
+     *
+     * @param dir The directory to search
+     * @return The paks found, sorted by name
+     * @throws IOException If the directory could not be read
+     */
+    public static List<Path> findVirtualPaks(Path dir) throws IOException {
+        //  Only accept files ending in .pak and not a directory
+        BiPredicate<Path, BasicFileAttributes> pakFilter = (p, a) -> p.getFileName().toString().endsWith(".pak");
+        pakFilter = pakFilter.and((p, a) -> !a.isDirectory());
+        pakFilter = pakFilter.and((p, a) -> p.getFileName().toString().startsWith("Resource"));
+        try (Stream<Path> matches = Files.find(dir, 1, pakFilter)) {
+            //  Sorted so that the load order, and with it the index, doesn't depend on the order the file system
+            //  lists the paks in
+            return matches.sorted().collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Finds the paks to load for a path, which is either a single pak or a directory holding a virtual pak.
+     *
+     * @param path The pak or directory
+     * @return The paks to load
+     * @throws IOException If the directory could not be read
+     */
+    public static List<Path> findPaks(Path path) throws IOException {
+        if (Files.isDirectory(path)) {
+            return findVirtualPaks(path);
+        }
+        return Collections.singletonList(path);
+    }
+
+    /**
+     * @return Whether more than one pak is loaded at the same time
+     */
+    public boolean isParallel() {
+        return loadThreads > 1;
+    }
+
+    /**
+     * Reads the tree from the index, if no pak has changed since the index was written. Must be called before
+     * {@link #loadTables(Consumer)}, which takes whatever tables it can from the same index.
+     *
+     * @return The indexed tree, or null if the paks have to be loaded
+     * @throws IOException If a pak could not be fingerprinted
+     */
+    public PakTree openIndexed() throws IOException {
+        if (indexCache == null) {
+            return null;
+        }
+        listener.message("Checking index");
+        fingerprints = new ArrayList<>(paths.size());
+        for (Path path : paths) {
+            fingerprints.add(PakIndexCache.Fingerprint.of(path));
+        }
+        snapshot = indexCache.open(paths);
+        if (snapshot != null && snapshot.matches(fingerprints)) {
+            LOGGER.info("No paks changed since last load, using indexed file tree");
+            PakTree tree = snapshot.readTree(paths);
+            snapshot = null;
+            return tree;
+        }
+        return null;
+    }
+
+    /**
+     * Loads the tree, from the index if possible and otherwise by loading every pak's table and building the tree
+     * from them, after which the index is updated.
+     *
+     * @return The tree
+     * @throws Exception If a pak could not be loaded
+     */
+    public PakTree load() throws Exception {
+        long startTime = System.nanoTime();
+        PakTree tree = openIndexed();
+        if (tree == null) {
+            List<PakTable> tables = loadTables(table -> {});
+            listener.message("Building file tree");
+            LOGGER.info("Building file tree");
+            tree = PakTree.build(tables);
+            writeIndex(tables, tree);
+        }
+        LOGGER.info("File tree ready in {} ms", (System.nanoTime() - startTime) / 1000000L);
+        return tree;
+    }
+
+    /**
+     * Writes the index for the loaded tables and the tree built from them, if the index is enabled. A failure to
+     * write the index is logged and otherwise ignored.
+     *
+     * @param tables The loaded tables, in load order
+     * @param tree   The tree built from them
+     */
+    public void writeIndex(List<PakTable> tables, PakTree tree) {
+        if (indexCache == null) {
+            return;
+        }
+        listener.message("Writing index");
+        try {
+            indexCache.write(fingerprints, tables, tree);
+        } catch (IOException e) {
+            LOGGER.warn("Unable to write index, the next load will re-read all paks", e);
+        }
+    }
+
+    /**
+     * Loads every pak's table, taking each from the index if it has an up to date copy
+     *
+     * @param onLoaded Called with each table once it and all the tables before it are loaded, in path order
+     * @return The loaded tables, in the same order as the paths
+     * @throws Exception If a pak could not be loaded
+     */
+    public List<PakTable> loadTables(Consumer<PakTable> onLoaded) throws Exception {
+        List<PakTable> tables = isParallel() ? loadParallel(onLoaded) : loadSequential(onLoaded);
+        //  Everything useful has been copied out of the old index by now
+        snapshot = null;
+        long files = 0;
+        for (PakTable table : tables) {
+            files += table.size();
+        }
+        LOGGER.info("Loaded {} files", files);
+        return tables;
+    }
+
+    /**
+     * Gets the table of a pak, from the index if it has an up to date copy and otherwise from the pak itself
+     *
+     * @param index The position of the pak in the load order
+     * @return The pak's table
+     * @throws IOException If the pak could not be read
+     */
+    private PakTable loadTable(int index) throws IOException {
+        Path path = paths.get(index);
+        if (snapshot != null) {
+            PakTable table = snapshot.readTable(path, fingerprints.get(index));
+            if (table != null) {
+                LOGGER.info("Using indexed table for {} ({}/{})", path, index + 1, paths.size());
+                return table;
+            }
+        }
+        LOGGER.info("Loading {} ({}/{})", path, index + 1, paths.size());
+        return PakTable.load(path);
+    }
+
+    /**
+     * Loads each pak's table one after another on the calling thread.
+     *
+     * @param onLoaded Called with each table as soon as it is loaded, in path order
+     * @return The loaded tables, in the same order as the given paths
+     * @throws Exception If a pak could not be loaded
+     */
+    private List<PakTable> loadSequential(Consumer<PakTable> onLoaded) throws Exception {
+        int numPaths = paths.size();
+        List<PakTable> tables = new ArrayList<>(numPaths);
+        for (int i = 0; i < numPaths; i++) {
+            listener.message("Loading " + paths.get(i).getFileName().toString());
+            PakTable table = loadTable(i);
+            tables.add(table);
+            onLoaded.accept(table);
+            listener.progress(i + 1, numPaths);
+        }
+        return tables;
+    }
+
+    /**
+     * Loads the pak tables on a bounded worker pool. The results are collected in path order regardless of
+     * completion order so that the tree is built the same way as with a sequential load.
+     *
+     * @param onLoaded Called with each table once it and all the tables before it are loaded, in path order
+     * @return The loaded tables, in the same order as the given paths
+     * @throws Exception If a pak could not be loaded
+     */
+    private List<PakTable> loadParallel(Consumer<PakTable> onLoaded) throws Exception {
+        int numPaths = paths.size();
+        LOGGER.info("Loading {} paks using {} threads", numPaths, loadThreads);
+        AtomicInteger threadCounter = new AtomicInteger();
+        ExecutorService loadPool = Executors.newFixedThreadPool(loadThreads, r -> {
+            Thread thread = new Thread(r, "PakLoader-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        List<Future<PakTable>> futures = new ArrayList<>(numPaths);
+        try {
+            AtomicInteger loaded = new AtomicInteger();
+            for (int i = 0; i < numPaths; i++) {
+                int index = i;
+                futures.add(loadPool.submit(() -> {
+                    listener.message("Loading " + paths.get(index).getFileName().toString());
+                    PakTable table = loadTable(index);
+                    listener.progress(loaded.incrementAndGet(), numPaths);
+                    return table;
+                }));
+            }
+            List<PakTable> tables = new ArrayList<>(numPaths);
+            for (Future<PakTable> future : futures) {
+                PakTable table = future.get();
+                tables.add(table);
+                onLoaded.accept(table);
+            }
+            return tables;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw e;
+        } finally {
+            loadPool.shutdownNow();
+        }
+    }
+}
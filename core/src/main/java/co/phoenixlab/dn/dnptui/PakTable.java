@@ -0,0 +1,176 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package co.phoenixlab.dn.dnptui;
+
+import co.phoenixlab.dn.pak.FileEntry;
+import co.phoenixlab.dn.pak.FileInfo;
+import co.phoenixlab.dn.pak.PakFile;
+import co.phoenixlab.dn.pak.PakFileReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Map;
+
+/**
+ * The file table of a single pak, reduced to the raw entry paths and the columns needed to locate and describe each
+ * subfile. Unlike a PakFile this holds no open handles, and it can be written to and read back from the index cache.
+ */
+public class PakTable {
+
+    /**
+     * Logger
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(PakTable.class);
+
+    public final Path path;
+    /**
+     * Raw entry paths, as stored in the pak
+     */
+    final String[] names;
+    final int[] diskOffsets;
+    final int[] compressedSizes;
+    final int[] decompressedSizes;
+    final int[] diskSizes;
+    final int[] unknowns;
+
+    private PakTable(Path path, int size) {
+        this.path = path;
+        names = new String[size];
+        diskOffsets = new int[size];
+        compressedSizes = new int[size];
+        decompressedSizes = new int[size];
+        diskSizes = new int[size];
+        unknowns = new int[size];
+    }
+
+    /**
+     * Reads the file table of a pak. The pak is closed again once its table has been copied.
+     *
+     * @param path The path of the pak
+     * @return The pak's table
+     * @throws IOException If the pak could not be read
+     */
+    public static PakTable load(Path path) throws IOException {
+        PakFile pakFile = new PakFileReader().load(path);
+        try {
+            Map<String, FileEntry> entries = pakFile.getEntryMap();
+            PakTable table = new PakTable(path, entries.size());
+            int i = 0;
+            for (Map.Entry<String, FileEntry> entry : entries.entrySet()) {
+                FileInfo fileInfo = entry.getValue().getFileInfo();
+                table.names[i] = entry.getKey();
+                table.diskOffsets[i] = (int) fileInfo.getDiskOffset();
+                table.compressedSizes[i] = (int) fileInfo.getCompressedSize();
+                table.decompressedSizes[i] = (int) fileInfo.getDecompressedSize();
+                table.diskSizes[i] = (int) fileInfo.getDiskSize();
+                table.unknowns[i] = (int) fileInfo.getUnknown();
+                ++i;
+            }
+            return table;
+        } finally {
+            try {
+                pakFile.close();
+            } catch (IOException e) {
+                LOGGER.warn("Unable to close pak " + path, e);
+            }
+        }
+    }
+
+    /**
+     * @return The number of entries
+     */
+    public int size() {
+        return names.length;
+    }
+
+    /**
+     * Writes this table in the index cache format
+     */
+    void write(DataOutputStream out) throws IOException {
+        int size = names.length;
+        out.writeInt(size);
+        writeInts(out, diskOffsets);
+        writeInts(out, compressedSizes);
+        writeInts(out, decompressedSizes);
+        writeInts(out, diskSizes);
+        writeInts(out, unknowns);
+        byte[][] encoded = new byte[size][];
+        for (int i = 0; i < size; i++) {
+            encoded[i] = names[i].getBytes(StandardCharsets.UTF_8);
+            out.writeShort(encoded[i].length);
+        }
+        for (byte[] bytes : encoded) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Reads a table written by {@link #write(DataOutputStream)}
+     *
+     * @param path The path of the pak the table belongs to
+     * @param in   The buffer to read from, positioned at the start of the table
+     */
+    static PakTable read(Path path, ByteBuffer in) {
+        int size = in.getInt();
+        PakTable table = new PakTable(path, size);
+        readInts(in, table.diskOffsets);
+        readInts(in, table.compressedSizes);
+        readInts(in, table.decompressedSizes);
+        readInts(in, table.diskSizes);
+        readInts(in, table.unknowns);
+        int[] lengths = new int[size];
+        for (int i = 0; i < size; i++) {
+            lengths[i] = in.getShort() & 0xFFFF;
+        }
+        byte[] bytes = new byte[256];
+        for (int i = 0; i < size; i++) {
+            if (lengths[i] > bytes.length) {
+                bytes = new byte[lengths[i]];
+            }
+            in.get(bytes, 0, lengths[i]);
+            table.names[i] = new String(bytes, 0, lengths[i], StandardCharsets.UTF_8);
+        }
+        return table;
+    }
+
+    static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    /**
+     * Bulk reads into an int array and advances the buffer past it
+     */
+    static void readInts(ByteBuffer in, int[] values) {
+        in.asIntBuffer().get(values);
+        in.position(in.position() + 4 * values.length);
+    }
+}
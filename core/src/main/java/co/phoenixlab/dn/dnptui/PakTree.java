@@ -0,0 +1,1395 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package co.phoenixlab.dn.dnptui;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.stream.IntStream;
+
+/**
+ * The directory structure of a pak/virtual pak, held in flat arrays indexed by node id instead of as a graph of
+ * objects. Node 0 is the root directory. Each directory keeps its children as an int array of node ids, sorted by
+ * {@link #sort()} with directories first and then alphabetically, and a (parent, name) hash table makes looking up a
+ * child by name O(1).
+ * <p>
+ * Names are stored as offsets into a single shared char pool rather than as Strings, and directory names are
+ * interned so that a name like "mapdata" that appears under every stage is stored once. A full path is never stored;
+ * it is rebuilt from the parent links when needed. Each subfile's location and sizes are stored in int columns,
+ * so a subfile can be read with nothing but the tree.
+ * <p>
+ * Like the client, the tree holds one subfile per path: when a later pak has a subfile with the same path as an
+ * earlier one, the later copy overrides it in place, and the overridden copy is moved to a compact shadow table where
+ * it can still be looked up with {@link #getShadowed(int)}.
+ * <p>
+ * Large trees are built in parallel by {@link #build(List, int)}, small ones on a single thread. Either way the tree
+ * is read-only once built, at which point it can be shared freely. A tree shown while paks are still being loaded is
+ * never modified either; a new tree is built from the paks loaded so far instead, see
+ * {@link #build(List, int)}.
+ */
+public class PakTree {
+
+    /**
+     * Logger
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(PakTree.class);
+
+    /**
+     * Node id of the root directory
+     */
+    public static final int ROOT = 0;
+
+    /**
+     * Separator used when building path strings, matching Path.toString()
+     */
+    private static final String SEPARATOR = FileSystems.getDefault().getSeparator();
+
+    /**
+     * Number of threads large trees are built on
+     */
+    public static final int DEFAULT_BUILD_THREADS = Integer.getInteger("co.phoenixlab.dn.dnptui.tree.threads",
+            Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Trees with fewer entries than this are built on a single thread, as splitting up the work costs more than it
+     * saves
+     */
+    private static final int PARALLEL_THRESHOLD = 16384;
+
+    /**
+     * Whether subfiles in later paks override subfiles with the same path in earlier paks. Can be disabled with the
+     * co.phoenixlab.dn.dnptui.tree.keepduplicates system property, in which case every copy is kept as a sibling and
+     * lookups find the first one loaded.
+     */
+    public static final boolean DEDUPLICATE = !Boolean.getBoolean("co.phoenixlab.dn.dnptui.tree.keepduplicates");
+
+    private final List<Path> paks;
+    /**
+     * Whether this tree was built with {@link #DEDUPLICATE} set, which may differ for a tree read from the index
+     */
+    private boolean deduplicated;
+    private int size;
+    /**
+     * All distinct names, concatenated
+     */
+    private char[] namePool;
+    private int namePoolSize;
+    /**
+     * Offset in the name pool of each directory name already stored, so repeated directory names share storage
+     */
+    private Map<String, Integer> internedDirNames;
+    private int[] nameOffsets;
+    private short[] nameLengths;
+    private int[] parents;
+    /**
+     * Index into paks of the pak each subfile came from, or -1 for directories
+     */
+    private short[] pakIndices;
+    /**
+     * Subfile columns, unused for directories. Disk offsets are unsigned
+     */
+    private int[] diskOffsets;
+    private int[] compressedSizes;
+    private int[] decompressedSizes;
+    private int[] diskSizes;
+    private int[] unknowns;
+    /**
+     * Child node ids of each directory, or null for subfiles. Only the first childCounts[node] slots are used
+     */
+    private int[][] children;
+    private int[] childCounts;
+    /**
+     * Open addressing table of node id + 1, keyed by (parent, name). 0 marks an empty slot
+     */
+    private int[] table;
+    /**
+     * Copies of subfiles overridden by a later pak
+     */
+    private ShadowTable shadows;
+    /**
+     * Totals for every directory, or null if paks were added since they were last computed. Computed by whichever
+     * thread builds or reads the tree, and read from any thread
+     */
+    private volatile SubtreeAggregates aggregates;
+
+    /**
+     * Constructs a tree whose arrays will be filled in by {@link #read(ByteBuffer, List)}
+     */
+    private PakTree(List<Path> paks) {
+        this.paks = paks;
+        internedDirNames = new HashMap<>();
+    }
+
+    /**
+     * Constructs an empty tree containing only the root directory
+     *
+     * @param expectedSize The expected number of nodes, to presize the arrays
+     */
+    public PakTree(int expectedSize) {
+        int capacity = Math.max(16, expectedSize);
+        paks = new ArrayList<>();
+        //  Assume names average around 16 chars
+        namePool = new char[capacity * 16];
+        internedDirNames = new HashMap<>();
+        nameOffsets = new int[capacity];
+        nameLengths = new short[capacity];
+        parents = new int[capacity];
+        pakIndices = new short[capacity];
+        diskOffsets = new int[capacity];
+        compressedSizes = new int[capacity];
+        decompressedSizes = new int[capacity];
+        diskSizes = new int[capacity];
+        unknowns = new int[capacity];
+        children = new int[capacity][];
+        childCounts = new int[capacity];
+        table = new int[tableSizeFor(capacity)];
+        shadows = new ShadowTable();
+        deduplicated = DEDUPLICATE;
+        parents[ROOT] = -1;
+        pakIndices[ROOT] = -1;
+        children[ROOT] = new int[16];
+        size = 1;
+    }
+
+    /**
+     * Builds and sorts a tree from the given pak tables, on the default number of threads
+     *
+     * @param tables The tables, in load order
+     * @return The sorted tree
+     */
+    public static PakTree build(List<PakTable> tables) {
+        return build(tables, DEFAULT_BUILD_THREADS);
+    }
+
+    /**
+     * Builds and sorts a tree from the given pak tables. Large trees are built in parallel: the entries' paths are
+     * split up, the entries are partitioned by path into subtrees of similar size, each subtree is built and sorted
+     * on its own, and the subtrees are then copied into the final tree. Only the directories above the subtrees are
+     * sorted after the copy.
+     * <p>
+     * Building a tree from the same tables plus some more yields the same tree with nodes added, with every existing
+     * node keeping its path and its position relative to its existing siblings. While a virtual pak is loading, the
+     * tree is rebuilt like this from the paks loaded so far, so that the tree being shown never changes underneath
+     * its readers.
+     *
+     * @param tables  The tables, in load order
+     * @param threads The number of threads to build the tree on
+     * @return The sorted tree
+     */
+    public static PakTree build(List<PakTable> tables, int threads) {
+        int expectedSize = 0;
+        for (PakTable table : tables) {
+            expectedSize += table.size();
+        }
+        PakTree tree;
+        if (threads > 1 && expectedSize >= PARALLEL_THRESHOLD) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                tree = new ParallelBuilder(tables, expectedSize, pool).build();
+            } finally {
+                pool.shutdown();
+            }
+        } else {
+            //  Leave some room for directories
+            tree = new PakTree(expectedSize + expectedSize / 8);
+            for (PakTable table : tables) {
+                tree.add(table);
+            }
+            tree.sort();
+        }
+        tree.aggregates = SubtreeAggregates.compute(tree);
+        return tree;
+    }
+
+    /**
+     * Adds every entry of a pak to the tree. An entry whose path already exists as a subfile overrides it, and the
+     * existing copy is moved to the shadow table. If {@link #DEDUPLICATE} is off, the entry is instead added as a
+     * sibling of the existing subfile, but lookups continue to find the first one added.
+     *
+     * @param pakTable The table of the pak to add
+     */
+    public void add(PakTable pakTable) {
+        aggregates = null;
+        int pakIndex = paks.size();
+        paks.add(pakTable.path);
+        List<String> segments = new ArrayList<>();
+        for (int e = 0; e < pakTable.size(); e++) {
+            split(pakTable.names[e], segments);
+            if (!segments.isEmpty()) {
+                addEntry(segments, 0, pakIndex, pakTable, e);
+            }
+        }
+    }
+
+    /**
+     * Adds a pak entry below the root
+     *
+     * @param segments The entry's path segments
+     * @param from     The first segment to use; earlier segments are taken to lead to the root of this tree
+     * @param pakIndex The index of the entry's pak, in load order
+     * @param pakTable The table of the entry's pak
+     * @param e        The index of the entry in its table
+     */
+    private void addEntry(List<String> segments, int from, int pakIndex, PakTable pakTable, int e) {
+        int dir = ROOT;
+        int last = segments.size() - 1;
+        for (int i = from; i < last; i++) {
+            dir = getOrCreateDir(dir, segments.get(i));
+        }
+        String name = segments.get(last);
+        if (deduplicated) {
+            int existing = findSubfile(dir, name);
+            if (existing >= 0) {
+                override(existing, pakIndex, pakTable, e);
+                return;
+            }
+        }
+        //  If the same path exists in multiple paks, the first one loaded is found
+        boolean exists = lookup(dir, name) >= 0;
+        int node = newNode(storeName(name), name.length(), dir);
+        pakIndices[node] = (short) pakIndex;
+        diskOffsets[node] = pakTable.diskOffsets[e];
+        compressedSizes[node] = pakTable.compressedSizes[e];
+        decompressedSizes[node] = pakTable.decompressedSizes[e];
+        diskSizes[node] = pakTable.diskSizes[e];
+        unknowns[node] = pakTable.unknowns[e];
+        addChild(dir, node);
+        if (!exists) {
+            put(node);
+        }
+    }
+
+    /**
+     * Replaces a subfile's columns with those of a pak entry with the same path, keeping the previous copy in the
+     * shadow table. The node itself is reused, so its position in the tree doesn't change.
+     */
+    private void override(int node, int pakIndex, PakTable pakTable, int e) {
+        shadows.add(node, pakIndices[node], diskOffsets[node], compressedSizes[node], decompressedSizes[node]);
+        pakIndices[node] = (short) pakIndex;
+        diskOffsets[node] = pakTable.diskOffsets[e];
+        compressedSizes[node] = pakTable.compressedSizes[e];
+        decompressedSizes[node] = pakTable.decompressedSizes[e];
+        diskSizes[node] = pakTable.diskSizes[e];
+        unknowns[node] = pakTable.unknowns[e];
+    }
+
+    /**
+     * Splits a raw pak entry path into sanitized path segments
+     *
+     * @param s        The raw path
+     * @param segments The list to fill with the segments, cleared first
+     */
+    private static void split(String s, List<String> segments) {
+        segments.clear();
+        int length = s.length();
+        int start = 0;
+        for (int i = 0; i <= length; i++) {
+            if (i == length || s.charAt(i) == '\\' || s.charAt(i) == '/') {
+                if (i > start) {
+                    String segment = s.substring(start, i).trim();
+                    if (!segment.isEmpty()) {
+                        segments.add(sanitize(segment));
+                    }
+                }
+                start = i + 1;
+            }
+        }
+    }
+
+    /**
+     * Replaces characters that aren't allowed in file names so that every node can be exported as-is
+     */
+    private static String sanitize(String name) {
+        char[] chars = null;
+        for (int i = 0; i < name.length(); i++) {
+            if (isInvalidPathChar(name.charAt(i))) {
+                if (chars == null) {
+                    chars = name.toCharArray();
+                }
+                chars[i] = '-';
+            }
+        }
+        if (chars == null) {
+            return name;
+        }
+        String replaced = new String(chars);
+        LOGGER.info("Replaced illegal characters in {}, result is {}", name, replaced);
+        return replaced;
+    }
+
+    private static boolean isInvalidPathChar(char c) {
+        return c < ' ' || "<>:\"|?*".indexOf(c) != -1;
+    }
+
+    private int getOrCreateDir(int parent, String name) {
+        int node = lookup(parent, name);
+        if (node >= 0 && isDirectory(node)) {
+            return node;
+        }
+        Integer offset = internedDirNames.get(name);
+        if (offset == null) {
+            offset = storeName(name);
+            internedDirNames.put(name, offset);
+        }
+        node = newNode(offset, name.length(), parent);
+        pakIndices[node] = -1;
+        children[node] = new int[4];
+        addChild(parent, node);
+        //  Directories take over their path from a subfile of the same name
+        put(node);
+        return node;
+    }
+
+    /**
+     * Appends a name to the name pool
+     *
+     * @return The name's offset in the pool
+     */
+    private int storeName(String name) {
+        int length = name.length();
+        if (namePoolSize + length > namePool.length) {
+            namePool = Arrays.copyOf(namePool, Math.max(namePool.length + (namePool.length >> 1),
+                    namePoolSize + length));
+        }
+        int offset = namePoolSize;
+        name.getChars(0, length, namePool, offset);
+        namePoolSize += length;
+        return offset;
+    }
+
+    private int newNode(int nameOffset, int nameLength, int parent) {
+        if (size == parents.length) {
+            grow();
+        }
+        int node = size++;
+        nameOffsets[node] = nameOffset;
+        nameLengths[node] = (short) nameLength;
+        parents[node] = parent;
+        return node;
+    }
+
+    private void grow() {
+        resize(Math.max(16, parents.length + (parents.length >> 1)));
+    }
+
+    private void resize(int capacity) {
+        nameOffsets = Arrays.copyOf(nameOffsets, capacity);
+        nameLengths = Arrays.copyOf(nameLengths, capacity);
+        parents = Arrays.copyOf(parents, capacity);
+        pakIndices = Arrays.copyOf(pakIndices, capacity);
+        diskOffsets = Arrays.copyOf(diskOffsets, capacity);
+        compressedSizes = Arrays.copyOf(compressedSizes, capacity);
+        decompressedSizes = Arrays.copyOf(decompressedSizes, capacity);
+        diskSizes = Arrays.copyOf(diskSizes, capacity);
+        unknowns = Arrays.copyOf(unknowns, capacity);
+        children = Arrays.copyOf(children, capacity);
+        childCounts = Arrays.copyOf(childCounts, capacity);
+        if (table.length < tableSizeFor(capacity)) {
+            rehash(tableSizeFor(capacity));
+        }
+    }
+
+    private void addChild(int dir, int child) {
+        int[] dirChildren = children[dir];
+        int count = childCounts[dir];
+        if (count == dirChildren.length) {
+            dirChildren = Arrays.copyOf(dirChildren, Math.max(4, count * 2));
+            children[dir] = dirChildren;
+        }
+        dirChildren[count] = child;
+        childCounts[dir] = count + 1;
+    }
+
+    /**
+     * Sorts the children of every directory, directories first and then alphabetically ignoring case, and trims the
+     * child arrays to size. The sort is stable, so subfiles that exist in multiple paks stay in load order. Also
+     * trims the node arrays and name pool to size.
+     */
+    public void sort() {
+        sortChildren();
+        trim();
+    }
+
+    /**
+     * Sorts and trims the children of every directory
+     */
+    private void sortChildren() {
+        for (int node = 0; node < size; node++) {
+            if (children[node] != null) {
+                sortDir(node);
+            }
+        }
+    }
+
+    /**
+     * Sorts and trims the children of a directory
+     */
+    private void sortDir(int dir) {
+        int count = childCounts[dir];
+        sortRange(children[dir], 0, count);
+        children[dir] = Arrays.copyOf(children[dir], count);
+    }
+
+    /**
+     * Trims the node arrays and name pool to size and drops the interning table. Called once the last pak has been
+     * added.
+     */
+    public void trim() {
+        namePool = Arrays.copyOf(namePool, namePoolSize);
+        internedDirNames = new HashMap<>();
+        nameOffsets = Arrays.copyOf(nameOffsets, size);
+        nameLengths = Arrays.copyOf(nameLengths, size);
+        parents = Arrays.copyOf(parents, size);
+        pakIndices = Arrays.copyOf(pakIndices, size);
+        diskOffsets = Arrays.copyOf(diskOffsets, size);
+        compressedSizes = Arrays.copyOf(compressedSizes, size);
+        decompressedSizes = Arrays.copyOf(decompressedSizes, size);
+        diskSizes = Arrays.copyOf(diskSizes, size);
+        unknowns = Arrays.copyOf(unknowns, size);
+        children = Arrays.copyOf(children, size);
+        childCounts = Arrays.copyOf(childCounts, size);
+        shadows.trim();
+    }
+
+    /**
+     * Stable sorts part of a child array, directories first and then by name ignoring case
+     */
+    private void sortRange(int[] nodes, int from, int to) {
+        int count = to - from;
+        if (count < 2) {
+            return;
+        }
+        SortKey[] keys = sortKeys(nodes, from, to);
+        Arrays.sort(keys);
+        for (int i = 0; i < count; i++) {
+            nodes[from + i] = keys[i].node;
+        }
+    }
+
+    /**
+     * Computes the sort keys of part of a child array
+     */
+    private SortKey[] sortKeys(int[] nodes, int from, int to) {
+        SortKey[] keys = new SortKey[to - from];
+        for (int i = from; i < to; i++) {
+            int node = nodes[i];
+            int offset = nameOffsets[node];
+            char[] folded = new char[getNameLength(node)];
+            for (int j = 0; j < folded.length; j++) {
+                folded[j] = fold(namePool[offset + j]);
+            }
+            keys[i - from] = new SortKey(node, isDirectory(node), folded);
+        }
+        return keys;
+    }
+
+    /**
+     * Folds a char the same way String.compareToIgnoreCase does before comparing it
+     */
+    private static char fold(char c) {
+        if (c < 0x80) {
+            return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+        }
+        return Character.toLowerCase(Character.toUpperCase(c));
+    }
+
+    /**
+     * @return The number of nodes, including the root
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return The paths of the loaded paks, in the order they were added
+     */
+    public List<Path> getPaks() {
+        return paks;
+    }
+
+    public boolean isDirectory(int node) {
+        return children[node] != null;
+    }
+
+    /**
+     * @return The node's name. Creates a new String each call
+     */
+    public String getName(int node) {
+        return new String(namePool, nameOffsets[node], getNameLength(node));
+    }
+
+    int getNameLength(int node) {
+        return nameLengths[node] & 0xFFFF;
+    }
+
+    /**
+     * @return A char of the node's name, without creating a String
+     */
+    char getNameChar(int node, int index) {
+        return namePool[nameOffsets[node] + index];
+    }
+
+    /**
+     * Checks the end of a node's name without creating a String, e.g. to filter subfiles by extension
+     *
+     * @param node       The node id
+     * @param suffix     The suffix
+     * @param ignoreCase Whether to ignore case, the way String.regionMatches does
+     * @return Whether the node's name ends with the suffix
+     */
+    public boolean nameEndsWith(int node, String suffix, boolean ignoreCase) {
+        int length = getNameLength(node);
+        int suffixLength = suffix.length();
+        if (suffixLength > length) {
+            return false;
+        }
+        int offset = nameOffsets[node] + length - suffixLength;
+        for (int i = 0; i < suffixLength; i++) {
+            char a = namePool[offset + i];
+            char b = suffix.charAt(i);
+            if (a != b && !(ignoreCase && fold(a) == fold(b))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The parent directory's node id, or -1 for the root
+     */
+    public int getParent(int node) {
+        return parents[node];
+    }
+
+    /**
+     * @return The index of the pak the subfile came from, in load order, or -1 if the node is a directory
+     */
+    public int getPakIndex(int node) {
+        return pakIndices[node];
+    }
+
+    /**
+     * @return The path of the pak the subfile came from, or null if the node is a directory
+     */
+    public Path getPak(int node) {
+        int pakIndex = pakIndices[node];
+        return pakIndex < 0 ? null : paks.get(pakIndex);
+    }
+
+    /**
+     * @return Where the subfile is stored, or null if the node is a directory
+     */
+    public SubfileLocation getLocation(int node) {
+        int pakIndex = pakIndices[node];
+        if (pakIndex < 0) {
+            return null;
+        }
+        return new SubfileLocation(paks.get(pakIndex), getDiskOffset(node), compressedSizes[node],
+                decompressedSizes[node]);
+    }
+
+    /**
+     * @return Whether subfiles in later paks override earlier subfiles with the same path in this tree
+     */
+    public boolean isDeduplicated() {
+        return deduplicated;
+    }
+
+    /**
+     * @return The total number of subfile copies that were overridden by a later pak
+     */
+    public int getShadowedCount() {
+        return shadows.size();
+    }
+
+    /**
+     * @return The number of copies of a subfile that were overridden by later paks. A binary search of the shadow
+     * table, so this is cheap enough to call on every selection
+     */
+    public int getShadowedCount(int node) {
+        return shadows.count(node);
+    }
+
+    /**
+     * Gets the copies of a subfile that were overridden by later paks.
+     *
+     * @param node The subfile's node
+     * @return Where each overridden copy is stored, oldest first, or an empty list if there are none
+     */
+    public List<SubfileLocation> getShadowed(int node) {
+        int[] found = shadows.find(node);
+        List<SubfileLocation> locations = new ArrayList<>(found.length);
+        for (int index : found) {
+            locations.add(new SubfileLocation(paks.get(shadows.getPakIndex(index)), shadows.getDiskOffset(index),
+                    shadows.getCompressedSize(index), shadows.getDecompressedSize(index)));
+        }
+        return locations;
+    }
+
+    public long getDiskOffset(int node) {
+        return Integer.toUnsignedLong(diskOffsets[node]);
+    }
+
+    public int getCompressedSize(int node) {
+        return compressedSizes[node];
+    }
+
+    public int getDecompressedSize(int node) {
+        return decompressedSizes[node];
+    }
+
+    public int getDiskSize(int node) {
+        return diskSizes[node];
+    }
+
+    public int getUnknown(int node) {
+        return unknowns[node];
+    }
+
+    public int getChildCount(int node) {
+        return childCounts[node];
+    }
+
+    /**
+     * @param node  The directory's node id
+     * @param index The index of the child, in sorted order
+     * @return The child's node id
+     */
+    public int getChild(int node, int index) {
+        return children[node][index];
+    }
+
+    /**
+     * Counts every subfile and directory below a directory
+     *
+     * @param node The directory's node id
+     * @return The number of descendants
+     */
+    public int countDescendants(int node) {
+        if (node == ROOT) {
+            //  Every other node is below the root
+            return size - 1;
+        }
+        int count = 0;
+        Deque<Integer> stack = new ArrayDeque<>();
+        stack.push(node);
+        while (!stack.isEmpty()) {
+            int dir = stack.pop();
+            int childCount = childCounts[dir];
+            count += childCount;
+            for (int i = 0; i < childCount; i++) {
+                int child = children[dir][i];
+                if (isDirectory(child)) {
+                    stack.push(child);
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Gets the totals for everything below a directory. They are computed for every directory at once when the tree
+     * is built or read from the index, so this doesn't walk the directory. If paks were added since, they are
+     * recomputed first, which walks the whole tree; see {@link #peekStats(int)}.
+     *
+     * @param dir The directory's node id
+     * @return The directory's totals, or null if the node is a subfile
+     */
+    public DirectoryStats getStats(int dir) {
+        SubtreeAggregates current = aggregates;
+        if (current == null) {
+            current = SubtreeAggregates.compute(this);
+            aggregates = current;
+        }
+        return current.get(dir);
+    }
+
+    /**
+     * Gets the totals for everything below a directory if they have already been computed, without ever computing
+     * them. Meant for the FX thread, which shouldn't walk the whole tree.
+     *
+     * @param dir The directory's node id
+     * @return The directory's totals, or null if the node is a subfile or the totals haven't been computed
+     */
+    public DirectoryStats peekStats(int dir) {
+        SubtreeAggregates current = aggregates;
+        return current == null ? null : current.get(dir);
+    }
+
+    /**
+     * Finds the node at a path.
+     *
+     * @param path The path, relative to the root
+     * @return The node id, or -1 if there is no such node
+     */
+    public int find(Path path) {
+        int node = ROOT;
+        for (Path element : path.normalize()) {
+            String name = element.toString();
+            if (name.isEmpty()) {
+                continue;
+            }
+            if (!isDirectory(node)) {
+                return -1;
+            }
+            node = lookup(node, name);
+            if (node < 0) {
+                return -1;
+            }
+        }
+        return node;
+    }
+
+    /**
+     * Finds a child of a directory by name.
+     *
+     * @param dir  The directory's node id
+     * @param name The name of the child
+     * @return The child's node id, or -1 if there is no such child
+     */
+    public int find(int dir, String name) {
+        return isDirectory(dir) ? lookup(dir, name) : -1;
+    }
+
+    /**
+     * Builds the path of a node. Paths are only built when needed, such as when exporting
+     *
+     * @param node The node id
+     * @return The path of the node relative to the root
+     */
+    public Path getPath(int node) {
+        if (node == ROOT) {
+            return Paths.get("");
+        }
+        return Paths.get(getPathString(node));
+    }
+
+    /**
+     * Builds the path of a node as a string, using the default file system's separator
+     *
+     * @param node The node id
+     * @return The path of the node relative to the root
+     */
+    public String getPathString(int node) {
+        if (node == ROOT) {
+            return "";
+        }
+        int length = getNameLength(node);
+        for (int dir = parents[node]; dir != ROOT; dir = parents[dir]) {
+            length += getNameLength(dir) + SEPARATOR.length();
+        }
+        //  Fill from the end, since we walk from the node up to the root
+        char[] chars = new char[length];
+        int pos = length;
+        for (int n = node; n != ROOT; n = parents[n]) {
+            int nameLength = getNameLength(n);
+            pos -= nameLength;
+            System.arraycopy(namePool, nameOffsets[n], chars, pos, nameLength);
+            if (pos > 0) {
+                pos -= SEPARATOR.length();
+                SEPARATOR.getChars(0, SEPARATOR.length(), chars, pos);
+            }
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Creates a PakTreeEntry for a node
+     *
+     * @param node The node id
+     * @return A new PakTreeEntry
+     */
+    public PakTreeEntry getEntry(int node) {
+        return new PakTreeEntry(this, node, getName(node));
+    }
+
+    /**
+     * @return The approximate heap used by this tree in bytes
+     */
+    public long sizeInBytes() {
+        long bytes = (long) parents.length * (4 + 2 + 4 + 2 + 5 * 4 + 4 + 4) + 4L * table.length +
+                2L * namePool.length;
+        for (int node = 0; node < size; node++) {
+            if (children[node] != null) {
+                bytes += 16 + 4L * children[node].length;
+            }
+        }
+        bytes += shadows.sizeInBytes();
+        return aggregates == null ? bytes : bytes + aggregates.sizeInBytes();
+    }
+
+    /**
+     * Writes this tree in the index cache format. Must be called after {@link #sort()}. The pak paths are not
+     * written; the index cache stores them separately.
+     */
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(size);
+        out.writeInt(namePoolSize);
+        for (int i = 0; i < namePoolSize; i++) {
+            out.writeChar(namePool[i]);
+        }
+        PakTable.writeInts(out, nameOffsets);
+        for (short length : nameLengths) {
+            out.writeShort(length);
+        }
+        PakTable.writeInts(out, parents);
+        for (short pakIndex : pakIndices) {
+            out.writeShort(pakIndex);
+        }
+        PakTable.writeInts(out, diskOffsets);
+        PakTable.writeInts(out, compressedSizes);
+        PakTable.writeInts(out, decompressedSizes);
+        PakTable.writeInts(out, diskSizes);
+        PakTable.writeInts(out, unknowns);
+        //  Subfiles have no child array, marked with a count of -1
+        for (int node = 0; node < size; node++) {
+            out.writeInt(children[node] == null ? -1 : childCounts[node]);
+        }
+        for (int node = 0; node < size; node++) {
+            if (children[node] != null) {
+                PakTable.writeInts(out, children[node]);
+            }
+        }
+        out.writeInt(table.length);
+        PakTable.writeInts(out, table);
+        out.writeBoolean(deduplicated);
+        shadows.write(out);
+    }
+
+    /**
+     * Reads a tree written by {@link #write(DataOutputStream)}
+     *
+     * @param in   The buffer to read from, positioned at the start of the tree
+     * @param paks The paths of the paks, in the order they were loaded when the tree was written
+     * @return The tree
+     */
+    static PakTree read(ByteBuffer in, List<Path> paks) {
+        PakTree tree = new PakTree(new ArrayList<>(paks));
+        int size = in.getInt();
+        tree.size = size;
+        tree.namePoolSize = in.getInt();
+        tree.namePool = new char[tree.namePoolSize];
+        in.asCharBuffer().get(tree.namePool);
+        in.position(in.position() + 2 * tree.namePoolSize);
+        tree.nameOffsets = new int[size];
+        PakTable.readInts(in, tree.nameOffsets);
+        tree.nameLengths = new short[size];
+        in.asShortBuffer().get(tree.nameLengths);
+        in.position(in.position() + 2 * size);
+        tree.parents = new int[size];
+        PakTable.readInts(in, tree.parents);
+        tree.pakIndices = new short[size];
+        in.asShortBuffer().get(tree.pakIndices);
+        in.position(in.position() + 2 * size);
+        tree.diskOffsets = new int[size];
+        PakTable.readInts(in, tree.diskOffsets);
+        tree.compressedSizes = new int[size];
+        PakTable.readInts(in, tree.compressedSizes);
+        tree.decompressedSizes = new int[size];
+        PakTable.readInts(in, tree.decompressedSizes);
+        tree.diskSizes = new int[size];
+        PakTable.readInts(in, tree.diskSizes);
+        tree.unknowns = new int[size];
+        PakTable.readInts(in, tree.unknowns);
+        int[] counts = new int[size];
+        PakTable.readInts(in, counts);
+        tree.childCounts = new int[size];
+        tree.children = new int[size][];
+        for (int node = 0; node < size; node++) {
+            if (counts[node] >= 0) {
+                tree.childCounts[node] = counts[node];
+                tree.children[node] = new int[counts[node]];
+                PakTable.readInts(in, tree.children[node]);
+            }
+        }
+        tree.table = new int[in.getInt()];
+        PakTable.readInts(in, tree.table);
+        tree.deduplicated = in.get() != 0;
+        tree.shadows = ShadowTable.read(in);
+        tree.aggregates = SubtreeAggregates.compute(tree);
+        return tree;
+    }
+
+    private int lookup(int parent, String name) {
+        int mask = table.length - 1;
+        for (int slot = hash(parent, name.hashCode()) & mask; ; slot = (slot + 1) & mask) {
+            int node = table[slot] - 1;
+            if (node < 0) {
+                return -1;
+            }
+            if (parents[node] == parent && nameEquals(node, name)) {
+                return node;
+            }
+        }
+    }
+
+    /**
+     * Looks up a subfile by parent and name, even if a directory with the same name has taken over its path
+     */
+    private int findSubfile(int parent, String name) {
+        int node = lookup(parent, name);
+        if (node < 0 || !isDirectory(node)) {
+            return node;
+        }
+        //  Rare enough that scanning the siblings is fine
+        for (int i = 0; i < childCounts[parent]; i++) {
+            int child = children[parent][i];
+            if (!isDirectory(child) && nameEquals(child, name)) {
+                return child;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Adds a node to the lookup table, replacing any node with the same parent and name
+     */
+    private void put(int node) {
+        put(node, true);
+    }
+
+    /**
+     * Adds a node to the lookup table
+     *
+     * @param node    The node
+     * @param replace Whether to replace a node with the same parent and name, or to keep it
+     */
+    private void put(int node, boolean replace) {
+        int parent = parents[node];
+        int mask = table.length - 1;
+        for (int slot = hash(parent, nameHash(node)) & mask; ; slot = (slot + 1) & mask) {
+            int existing = table[slot] - 1;
+            if (existing < 0) {
+                table[slot] = node + 1;
+                return;
+            }
+            if (parents[existing] == parent && namesEqual(existing, node)) {
+                if (replace) {
+                    table[slot] = node + 1;
+                }
+                return;
+            }
+        }
+    }
+
+    private boolean nameEquals(int node, String name) {
+        int length = getNameLength(node);
+        if (length != name.length()) {
+            return false;
+        }
+        int offset = nameOffsets[node];
+        for (int i = 0; i < length; i++) {
+            if (namePool[offset + i] != name.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean namesEqual(int a, int b) {
+        int length = getNameLength(a);
+        if (length != getNameLength(b)) {
+            return false;
+        }
+        int offA = nameOffsets[a];
+        int offB = nameOffsets[b];
+        for (int i = 0; i < length; i++) {
+            if (namePool[offA + i] != namePool[offB + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The same hash String.hashCode() would give the node's name
+     */
+    private int nameHash(int node) {
+        int h = 0;
+        int offset = nameOffsets[node];
+        int end = offset + getNameLength(node);
+        for (int i = offset; i < end; i++) {
+            h = 31 * h + namePool[i];
+        }
+        return h;
+    }
+
+    private void rehash(int tableSize) {
+        int[] old = table;
+        table = new int[tableSize];
+        for (int entry : old) {
+            if (entry != 0) {
+                put(entry - 1);
+            }
+        }
+    }
+
+    private static int hash(int parent, int nameHash) {
+        int h = parent * 0x9E3779B9 + nameHash;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @return A power of two table size that keeps the load factor at or below 0.5
+     */
+    private static int tableSizeFor(int capacity) {
+        return Integer.highestOneBit(Math.max(1, capacity) * 2 - 1) * 2;
+    }
+
+    /**
+     * Makes room for at least the given number of nodes and name chars
+     */
+    private void ensureCapacity(int nodes, int names) {
+        if (parents.length < nodes) {
+            resize(nodes);
+        }
+        if (namePool.length < names) {
+            namePool = Arrays.copyOf(namePool, names);
+        }
+    }
+
+    /**
+     * Copies every node of another tree except its root into this tree, with the other tree's root standing in for
+     * one of this tree's directories. The root's children are not added to that directory. Safe to call from
+     * multiple threads at once as long as each copies into a different range.
+     *
+     * @param other    The tree to copy
+     * @param base     The node id the other tree's first node after its root is copied to
+     * @param poolBase The offset in the name pool the other tree's names are copied to
+     * @param dir      The directory the other tree's root stands in for
+     */
+    private void copyFrom(PakTree other, int base, int poolBase, int dir) {
+        int count = other.size - 1;
+        System.arraycopy(other.namePool, 0, namePool, poolBase, other.namePoolSize);
+        System.arraycopy(other.nameLengths, 1, nameLengths, base, count);
+        System.arraycopy(other.pakIndices, 1, pakIndices, base, count);
+        System.arraycopy(other.diskOffsets, 1, diskOffsets, base, count);
+        System.arraycopy(other.compressedSizes, 1, compressedSizes, base, count);
+        System.arraycopy(other.decompressedSizes, 1, decompressedSizes, base, count);
+        System.arraycopy(other.diskSizes, 1, diskSizes, base, count);
+        System.arraycopy(other.unknowns, 1, unknowns, base, count);
+        System.arraycopy(other.childCounts, 1, childCounts, base, count);
+        //  Node n of the other tree becomes node base + n - 1 of this one
+        int shift = base - 1;
+        for (int n = 1; n < other.size; n++) {
+            int node = n + shift;
+            nameOffsets[node] = other.nameOffsets[n] + poolBase;
+            int parent = other.parents[n];
+            parents[node] = parent == ROOT ? dir : parent + shift;
+            int[] otherChildren = other.children[n];
+            if (otherChildren != null) {
+                int[] mapped = new int[other.childCounts[n]];
+                for (int i = 0; i < mapped.length; i++) {
+                    mapped[i] = otherChildren[i] + shift;
+                }
+                children[node] = mapped;
+            }
+        }
+    }
+
+    /**
+     * Rebuilds the lookup table from scratch. Directories take over their path from a subfile of the same name, and
+     * of several subfiles with the same path the one with the lowest node id is found.
+     */
+    private void rebuildTable() {
+        table = new int[tableSizeFor(parents.length)];
+        for (int node = 1; node < size; node++) {
+            put(node, isDirectory(node));
+        }
+    }
+
+    /**
+     * A node's sort key: whether it is a directory, and its name folded the way String.compareToIgnoreCase folds
+     * each char. Computing the keys once per sort makes each comparison a plain char comparison.
+     */
+    private static class SortKey implements Comparable<SortKey> {
+
+        final int node;
+        final boolean directory;
+        final char[] folded;
+
+        SortKey(int node, boolean directory, char[] folded) {
+            this.node = node;
+            this.directory = directory;
+            this.folded = folded;
+        }
+
+        @Override
+        public int compareTo(SortKey o) {
+            if (directory != o.directory) {
+                return directory ? -1 : 1;
+            }
+            char[] other = o.folded;
+            int len = Math.min(folded.length, other.length);
+            for (int i = 0; i < len; i++) {
+                if (folded[i] != other[i]) {
+                    return folded[i] - other[i];
+                }
+            }
+            return folded.length - other.length;
+        }
+    }
+
+    /**
+     * Builds a large tree on a ForkJoinPool, see {@link #build(List, int)}
+     */
+    private static class ParallelBuilder {
+
+        /**
+         * Number of entries split into path segments per task
+         */
+        private static final int SPLIT_CHUNK_SIZE = 8192;
+
+        /**
+         * Subtrees are never split below this many entries
+         */
+        private static final int MIN_SUBTREE_SIZE = 4096;
+
+        private final List<PakTable> tables;
+        private final ForkJoinPool pool;
+        /**
+         * Path segments of every entry of every table, in load order. Cleared as the subtrees are built
+         */
+        private final String[][] paths;
+        /**
+         * Index of the table each entry came from, and the first entry of each table
+         */
+        private final short[] pakOf;
+        private final int[] tableStarts;
+        private final List<Subtree> subtrees;
+
+        ParallelBuilder(List<PakTable> tables, int entries, ForkJoinPool pool) {
+            this.tables = tables;
+            this.pool = pool;
+            paths = new String[entries][];
+            pakOf = new short[entries];
+            tableStarts = new int[tables.size()];
+            int start = 0;
+            for (int t = 0; t < tables.size(); t++) {
+                tableStarts[t] = start;
+                int end = start + tables.get(t).size();
+                Arrays.fill(pakOf, start, end, (short) t);
+                start = end;
+            }
+            subtrees = new ArrayList<>();
+        }
+
+        PakTree build() {
+            List<Callable<Void>> tasks = new ArrayList<>();
+            for (int from = 0; from < paths.length; from += SPLIT_CHUNK_SIZE) {
+                int chunkFrom = from;
+                tasks.add(() -> split(chunkFrom, Math.min(chunkFrom + SPLIT_CHUNK_SIZE, paths.length)));
+            }
+            runAll(tasks);
+            int[] entries = IntStream.range(0, paths.length).filter(e -> paths[e].length > 0).toArray();
+            partition(entries, 0, Math.max(MIN_SUBTREE_SIZE, entries.length / (pool.getParallelism() * 4)));
+            tasks.clear();
+            for (Subtree subtree : subtrees) {
+                tasks.add(subtree::build);
+            }
+            runAll(tasks);
+            return merge();
+        }
+
+        /**
+         * Splits the paths of a range of entries into segments. Entries of the same directory tend to be next to each
+         * other in a pak, so directory names are shared with the previous entry where they match.
+         */
+        private Void split(int from, int to) {
+            List<String> segments = new ArrayList<>();
+            String[] previous = new String[0];
+            for (int e = from; e < to; e++) {
+                int t = pakOf[e];
+                PakTree.split(tables.get(t).names[e - tableStarts[t]], segments);
+                String[] path = segments.toArray(new String[segments.size()]);
+                int shared = Math.min(path.length, previous.length) - 1;
+                for (int i = 0; i < shared && path[i].equals(previous[i]); i++) {
+                    path[i] = previous[i];
+                }
+                paths[e] = path;
+                previous = path;
+            }
+            return null;
+        }
+
+        /**
+         * Partitions entries that share their first segments into subtrees of at most about maxSize entries. A
+         * directory with more entries below it than that is split into a subtree per subdirectory, plus one for the
+         * subfiles directly inside it. A directory without subdirectories is never split.
+         *
+         * @param entries The entries, in load order
+         * @param depth   The number of leading segments the entries share
+         * @param maxSize The preferred maximum number of entries per subtree
+         */
+        private void partition(int[] entries, int depth, int maxSize) {
+            if (entries.length > maxSize) {
+                Map<String, IntStream.Builder> subdirs = new LinkedHashMap<>();
+                IntStream.Builder files = IntStream.builder();
+                boolean hasFiles = false;
+                for (int e : entries) {
+                    String[] path = paths[e];
+                    if (path.length == depth + 1) {
+                        files.add(e);
+                        hasFiles = true;
+                    } else {
+                        subdirs.computeIfAbsent(path[depth], k -> IntStream.builder()).add(e);
+                    }
+                }
+                if (!subdirs.isEmpty()) {
+                    if (hasFiles) {
+                        subtrees.add(new Subtree(files.build().toArray(), depth));
+                    }
+                    for (IntStream.Builder subdir : subdirs.values()) {
+                        partition(subdir.build().toArray(), depth + 1, maxSize);
+                    }
+                    return;
+                }
+            }
+            subtrees.add(new Subtree(entries, depth));
+        }
+
+        /**
+         * Creates the directories above the subtrees, copies the subtrees below them and sorts them
+         */
+        private PakTree merge() {
+            PakTree tree = new PakTree(subtrees.size() * 2);
+            for (PakTable table : tables) {
+                tree.paks.add(table.path);
+            }
+            for (Subtree subtree : subtrees) {
+                int dir = ROOT;
+                for (String name : subtree.prefix) {
+                    dir = tree.getOrCreateDir(dir, name);
+                }
+                subtree.dir = dir;
+            }
+            //  Every node so far is a directory above the subtrees
+            int aboveSize = tree.size;
+            int size = aboveSize;
+            int namePoolSize = tree.namePoolSize;
+            for (Subtree subtree : subtrees) {
+                subtree.base = size;
+                subtree.poolBase = namePoolSize;
+                size += subtree.tree.size - 1;
+                namePoolSize += subtree.tree.namePoolSize;
+            }
+            tree.ensureCapacity(size, namePoolSize);
+            List<Callable<Void>> tasks = new ArrayList<>();
+            for (Subtree subtree : subtrees) {
+                tasks.add(() -> {
+                    tree.copyFrom(subtree.tree, subtree.base, subtree.poolBase, subtree.dir);
+                    return null;
+                });
+            }
+            runAll(tasks);
+            tree.size = size;
+            tree.namePoolSize = namePoolSize;
+            for (Subtree subtree : subtrees) {
+                int[] rootChildren = subtree.tree.children[ROOT];
+                for (int i = 0; i < subtree.tree.childCounts[ROOT]; i++) {
+                    tree.addChild(subtree.dir, rootChildren[i] + subtree.base - 1);
+                }
+                //  Every copy of a path lands in the same subtree, so overrides were all resolved there
+                tree.shadows.addAll(subtree.tree.shadows, subtree.base - 1);
+                subtree.tree = null;
+            }
+            for (int dir = 0; dir < aboveSize; dir++) {
+                tree.sortDir(dir);
+            }
+            tree.rebuildTable();
+            tree.trim();
+            return tree;
+        }
+
+        private void runAll(List<Callable<Void>> tasks) {
+            try {
+                for (Future<Void> future : pool.invokeAll(tasks)) {
+                    future.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while building the file tree", e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new IllegalStateException(cause);
+            }
+        }
+
+        /**
+         * Entries below a common directory, built into a tree of their own whose root stands in for that directory
+         */
+        private class Subtree {
+
+            final int[] entries;
+            final int depth;
+            final String[] prefix;
+            PakTree tree;
+            int dir;
+            int base;
+            int poolBase;
+
+            Subtree(int[] entries, int depth) {
+                this.entries = entries;
+                this.depth = depth;
+                prefix = Arrays.copyOf(paths[entries[0]], depth);
+            }
+
+            Void build() {
+                tree = new PakTree(entries.length + entries.length / 8);
+                for (int e : entries) {
+                    int t = pakOf[e];
+                    tree.addEntry(Arrays.asList(paths[e]), depth, t, tables.get(t), e - tableStarts[t]);
+                    paths[e] = null;
+                }
+                tree.sortChildren();
+                return null;
+            }
+        }
+    }
+}
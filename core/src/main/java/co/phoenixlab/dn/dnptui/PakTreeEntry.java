@@ -0,0 +1,99 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package co.phoenixlab.dn.dnptui;
+
+import java.nio.file.Path;
+
+/**
+ * A handle to a node in a PakTree. The entry's path isn't stored; it is rebuilt from the tree on request.
+ */
+public class PakTreeEntry {
+
+    public final String name;
+    /**
+     * The tree this entry belongs to
+     */
+    public final PakTree tree;
+    /**
+     * Id of this entry's node in the tree
+     */
+    public final int node;
+
+    public PakTreeEntry(PakTree tree, int node, String name) {
+        this.tree = tree;
+        this.node = node;
+        this.name = name;
+    }
+
+    public boolean isDirectory() {
+        return tree.isDirectory(node);
+    }
+
+    /**
+     * @return Where the subfile is stored, or null if this entry is a directory
+     */
+    public SubfileLocation getLocation() {
+        return tree.getLocation(node);
+    }
+
+    /**
+     * Builds this entry's path. Paths aren't kept in memory, so prefer {@link #getPathString()} for display and
+     * logging, and only build a Path when one is actually needed, such as for exporting.
+     *
+     * @return The path of this entry relative to the root of the tree
+     */
+    public Path getPath() {
+        return tree.getPath(node);
+    }
+
+    /**
+     * @return The path of this entry relative to the root of the tree, as a string
+     */
+    public String getPathString() {
+        return tree.getPathString(node);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        PakTreeEntry that = (PakTreeEntry) o;
+        return tree == that.tree && node == that.node;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * System.identityHashCode(tree) + node;
+    }
+
+    @Override
+    public String toString() {
+        return name + "\\";
+    }
+}
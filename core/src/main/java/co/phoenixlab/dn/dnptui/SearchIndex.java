@@ -0,0 +1,509 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package co.phoenixlab.dn.dnptui;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntConsumer;
+
+/**
+ * Trigram index over the full paths of every file and directory in a loaded pak/virtual pak. Everything is held in
+ * primitive arrays: the paths are packed into a single char array, and each trigram's posting list is a run of
+ * varint-encoded document id deltas in a single byte array. Matching is case insensitive and treats \ and / as the
+ * same separator.
+ * <p>
+ * Instances are immutable once built and can be queried from any number of threads at once.
+ */
+public class SearchIndex {
+
+    /**
+     * Query matching modes
+     */
+    public enum Mode {
+        /**
+         * Matches entries whose full path contains the query
+         */
+        SUBSTRING("Contains"),
+        /**
+         * Matches entries whose name starts with the query. If the query contains a separator, it is matched from the
+         * start of each element of the path instead
+         */
+        PREFIX("Starts with"),
+        /**
+         * Matches entries whose name matches the query, where * matches any run of characters and ? matches any
+         * single character. If the query contains a separator, it is matched against the trailing elements of the
+         * path instead, so ui/*.dds matches resource/ui/mainbar.dds
+         */
+        GLOB("Glob");
+
+        private final String displayName;
+
+        Mode(String displayName) {
+            this.displayName = displayName;
+        }
+
+        @Override
+        public String toString() {
+            return displayName;
+        }
+    }
+
+    /**
+     * Number of bits kept from each character of a trigram. Characters outside of ASCII collide, which is fine since
+     * every candidate is verified against the actual path
+     */
+    private static final int CHAR_BITS = 7;
+    private static final int CHAR_MASK = (1 << CHAR_BITS) - 1;
+    private static final int KEY_SPACE = 1 << (CHAR_BITS * 3);
+
+    /**
+     * All paths, concatenated
+     */
+    private final char[] text;
+    /**
+     * Start of each path in text, plus a trailing end offset
+     */
+    private final int[] docStarts;
+    /**
+     * Start of each path's last element in text
+     */
+    private final int[] nameStarts;
+    /**
+     * Which documents are directories
+     */
+    private final BitSet directories;
+    /**
+     * Distinct trigram keys, sorted
+     */
+    private final int[] keys;
+    /**
+     * Start of each key's posting list in postings, plus a trailing end offset
+     */
+    private final int[] postingStarts;
+    /**
+     * Number of documents in each key's posting list
+     */
+    private final int[] postingCounts;
+    /**
+     * Varint-encoded document id deltas
+     */
+    private final byte[] postings;
+
+    private SearchIndex(char[] text, int[] docStarts, int[] nameStarts, BitSet directories,
+                        int[] keys, int[] postingStarts, int[] postingCounts, byte[] postings) {
+        this.text = text;
+        this.docStarts = docStarts;
+        this.nameStarts = nameStarts;
+        this.directories = directories;
+        this.keys = keys;
+        this.postingStarts = postingStarts;
+        this.postingCounts = postingCounts;
+        this.postings = postings;
+    }
+
+    /**
+     * Builds an index over the given paths. Document ids are assigned in iteration order.
+     *
+     * @param paths       The full paths to index
+     * @param directories Which of the paths, by iteration order, are directories
+     * @return The built index
+     */
+    public static SearchIndex build(Collection<String> paths, BitSet directories) {
+        int numDocs = paths.size();
+        int[] docStarts = new int[numDocs + 1];
+        int[] nameStarts = new int[numDocs];
+        int length = 0;
+        for (String path : paths) {
+            length += path.length();
+        }
+        char[] text = new char[length];
+        int doc = 0;
+        int pos = 0;
+        for (String path : paths) {
+            docStarts[doc] = pos;
+            path.getChars(0, path.length(), text, pos);
+            int nameStart = pos;
+            for (int i = path.length() - 1; i >= 0; i--) {
+                if (isSeparator(path.charAt(i))) {
+                    nameStart = pos + i + 1;
+                    break;
+                }
+            }
+            nameStarts[doc] = nameStart;
+            pos += path.length();
+            ++doc;
+        }
+        docStarts[numDocs] = pos;
+
+        //  First pass sizes each posting list, second pass writes them. Both walk the documents in the same order
+        //  so the deltas, and therefore the encoded lengths, come out identical
+        int[] lastDoc = new int[KEY_SPACE];
+        int[] sizes = new int[KEY_SPACE];
+        int[] counts = new int[KEY_SPACE];
+        Arrays.fill(lastDoc, -1);
+        for (doc = 0; doc < numDocs; doc++) {
+            int end = docStarts[doc + 1];
+            for (int i = docStarts[doc]; i + 2 < end; i++) {
+                int key = key(text, i);
+                if (lastDoc[key] != doc) {
+                    sizes[key] += varintSize(doc - lastDoc[key]);
+                    ++counts[key];
+                    lastDoc[key] = doc;
+                }
+            }
+        }
+        int numKeys = 0;
+        int totalSize = 0;
+        for (int key = 0; key < KEY_SPACE; key++) {
+            if (counts[key] != 0) {
+                ++numKeys;
+                totalSize += sizes[key];
+            }
+        }
+        int[] keys = new int[numKeys];
+        int[] postingStarts = new int[numKeys + 1];
+        int[] postingCounts = new int[numKeys];
+        //  Reuse sizes as the write cursor for each key
+        int k = 0;
+        int offset = 0;
+        for (int key = 0; key < KEY_SPACE; key++) {
+            if (counts[key] != 0) {
+                keys[k] = key;
+                postingStarts[k] = offset;
+                postingCounts[k] = counts[key];
+                int size = sizes[key];
+                sizes[key] = offset;
+                offset += size;
+                ++k;
+            }
+        }
+        postingStarts[numKeys] = offset;
+        byte[] postings = new byte[totalSize];
+        Arrays.fill(lastDoc, -1);
+        for (doc = 0; doc < numDocs; doc++) {
+            int end = docStarts[doc + 1];
+            for (int i = docStarts[doc]; i + 2 < end; i++) {
+                int key = key(text, i);
+                if (lastDoc[key] != doc) {
+                    sizes[key] = writeVarint(postings, sizes[key], doc - lastDoc[key]);
+                    lastDoc[key] = doc;
+                }
+            }
+        }
+        return new SearchIndex(text, docStarts, nameStarts, (BitSet) directories.clone(),
+                keys, postingStarts, postingCounts, postings);
+    }
+
+    /**
+     * @return The number of indexed paths
+     */
+    public int size() {
+        return nameStarts.length;
+    }
+
+    /**
+     * @param doc The document id
+     * @return The full path of the document, as it was given when the index was built
+     */
+    public String getPath(int doc) {
+        return new String(text, docStarts[doc], docStarts[doc + 1] - docStarts[doc]);
+    }
+
+    /**
+     * @param doc The document id
+     * @return Whether or not the document is a directory
+     */
+    public boolean isDirectory(int doc) {
+        return directories.get(doc);
+    }
+
+    /**
+     * @return The approximate heap used by this index in bytes
+     */
+    public long sizeInBytes() {
+        return 2L * text.length + 4L * (docStarts.length + nameStarts.length) + directories.size() / 8 +
+                4L * (keys.length + postingStarts.length + postingCounts.length) + postings.length;
+    }
+
+    /**
+     * Runs a query, passing the id of each matching document to sink in ascending order as it is found.
+     *
+     * @param query     The query
+     * @param mode      How the query is matched
+     * @param sink      Receives matching document ids
+     * @param cancelled Polled periodically; the search stops early once this returns true
+     * @return The number of matches passed to sink
+     */
+    public int search(String query, Mode mode, IntConsumer sink, BooleanSupplier cancelled) {
+        if (query.isEmpty()) {
+            return 0;
+        }
+        char[] pattern = fold(query);
+        boolean fullPath = false;
+        for (char c : pattern) {
+            if (c == '/') {
+                fullPath = true;
+                break;
+            }
+        }
+        int[] candidates = candidates(pattern, mode);
+        int numCandidates = candidates == null ? size() : candidates.length;
+        int matches = 0;
+        for (int i = 0; i < numCandidates; i++) {
+            if ((i & 0xFFF) == 0 && cancelled.getAsBoolean()) {
+                break;
+            }
+            int doc = candidates == null ? i : candidates[i];
+            boolean match;
+            if (mode == Mode.SUBSTRING) {
+                match = contains(docStarts[doc], docStarts[doc + 1], pattern);
+            } else if (fullPath) {
+                match = matchesAnyElement(doc, pattern, mode);
+            } else {
+                match = matches(nameStarts[doc], docStarts[doc + 1], pattern, mode);
+            }
+            if (match) {
+                sink.accept(doc);
+                ++matches;
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Narrows down the documents that can match a pattern by intersecting the posting lists of every trigram in
+     * the pattern's literal runs.
+     *
+     * @param pattern The folded pattern
+     * @param mode    How the pattern is matched
+     * @return The sorted candidate document ids, or null if the pattern has no trigrams and every document must be
+     * checked
+     */
+    private int[] candidates(char[] pattern, Mode mode) {
+        List<Integer> slots = new ArrayList<>();
+        int runStart = 0;
+        for (int i = 0; i <= pattern.length; i++) {
+            boolean boundary = i == pattern.length ||
+                    (mode == Mode.GLOB && (pattern[i] == '*' || pattern[i] == '?'));
+            if (boundary) {
+                for (int j = runStart; j + 2 < i; j++) {
+                    int slot = Arrays.binarySearch(keys, key(pattern, j));
+                    if (slot < 0) {
+                        return new int[0];
+                    }
+                    if (!slots.contains(slot)) {
+                        slots.add(slot);
+                    }
+                }
+                runStart = i + 1;
+            }
+        }
+        if (slots.isEmpty()) {
+            return null;
+        }
+        //  Intersect starting from the shortest list so the working set only ever shrinks
+        slots.sort((a, b) -> Integer.compare(postingCounts[a], postingCounts[b]));
+        int[] result = decode(slots.get(0));
+        int resultSize = result.length;
+        for (int s = 1; s < slots.size() && resultSize > 0; s++) {
+            int slot = slots.get(s);
+            int pos = postingStarts[slot];
+            int end = postingStarts[slot + 1];
+            int doc = -1;
+            int kept = 0;
+            for (int r = 0; r < resultSize; r++) {
+                int want = result[r];
+                while (doc < want && pos < end) {
+                    int delta = 0;
+                    int shift = 0;
+                    byte b;
+                    do {
+                        b = postings[pos++];
+                        delta |= (b & 0x7F) << shift;
+                        shift += 7;
+                    } while (b < 0);
+                    doc += delta;
+                }
+                if (doc == want) {
+                    result[kept++] = want;
+                } else if (doc < want) {
+                    //  List exhausted
+                    break;
+                }
+            }
+            resultSize = kept;
+        }
+        return Arrays.copyOf(result, resultSize);
+    }
+
+    /**
+     * Decodes a posting list
+     *
+     * @param slot The index of the key
+     * @return The document ids in the posting list
+     */
+    private int[] decode(int slot) {
+        int[] docs = new int[postingCounts[slot]];
+        int pos = postingStarts[slot];
+        int doc = -1;
+        for (int i = 0; i < docs.length; i++) {
+            int delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = postings[pos++];
+                delta |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            doc += delta;
+            docs[i] = doc;
+        }
+        return docs;
+    }
+
+    /**
+     * Tries to match a prefix or glob pattern starting at each element of a document's path
+     */
+    private boolean matchesAnyElement(int doc, char[] pattern, Mode mode) {
+        int start = docStarts[doc];
+        int end = docStarts[doc + 1];
+        if (matches(start, end, pattern, mode)) {
+            return true;
+        }
+        for (int i = start; i < end; i++) {
+            if (isSeparator(text[i]) && matches(i + 1, end, pattern, mode)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean matches(int start, int end, char[] pattern, Mode mode) {
+        return mode == Mode.GLOB ? globMatches(start, end, pattern) : startsWith(start, end, pattern);
+    }
+
+    private boolean contains(int start, int end, char[] pattern) {
+        int last = end - pattern.length;
+        for (int i = start; i <= last; i++) {
+            if (regionMatches(i, pattern, 0, pattern.length)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean startsWith(int start, int end, char[] pattern) {
+        return end - start >= pattern.length && regionMatches(start, pattern, 0, pattern.length);
+    }
+
+    private boolean regionMatches(int offset, char[] pattern, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (fold(text[offset + i - from]) != pattern[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Matches the whole of text[start, end) against a glob pattern, backtracking to the last * on a mismatch.
+     */
+    private boolean globMatches(int start, int end, char[] pattern) {
+        int t = start;
+        int p = 0;
+        int starP = -1;
+        int starT = -1;
+        while (t < end) {
+            if (p < pattern.length && (pattern[p] == '?' || pattern[p] == fold(text[t]))) {
+                ++t;
+                ++p;
+            } else if (p < pattern.length && pattern[p] == '*') {
+                starP = p++;
+                starT = t;
+            } else if (starP != -1) {
+                p = starP + 1;
+                t = ++starT;
+            } else {
+                return false;
+            }
+        }
+        while (p < pattern.length && pattern[p] == '*') {
+            ++p;
+        }
+        return p == pattern.length;
+    }
+
+    private static int key(char[] chars, int i) {
+        return (fold(chars[i]) & CHAR_MASK) << (CHAR_BITS * 2) |
+                (fold(chars[i + 1]) & CHAR_MASK) << CHAR_BITS |
+                (fold(chars[i + 2]) & CHAR_MASK);
+    }
+
+    private static char[] fold(String s) {
+        char[] chars = s.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = fold(chars[i]);
+        }
+        return chars;
+    }
+
+    /**
+     * Folds a character for case and separator insensitive matching
+     */
+    private static char fold(char c) {
+        if (c < 0x80) {
+            if (c >= 'A' && c <= 'Z') {
+                return (char) (c + ('a' - 'A'));
+            }
+            return c == '\\' ? '/' : c;
+        }
+        return Character.toLowerCase(c);
+    }
+
+    private static boolean isSeparator(char c) {
+        return c == '/' || c == '\\';
+    }
+
+    private static int varintSize(int value) {
+        int size = 1;
+        while ((value >>>= 7) != 0) {
+            ++size;
+        }
+        return size;
+    }
+
+    private static int writeVarint(byte[] out, int pos, int value) {
+        while ((value & ~0x7F) != 0) {
+            out[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out[pos++] = (byte) value;
+        return pos;
+    }
+}
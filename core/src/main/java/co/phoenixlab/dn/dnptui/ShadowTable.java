@@ -0,0 +1,282 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package co.phoenixlab.dn.dnptui;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The copies of subfiles in a {@link PakTree} that were overridden by a copy of the same path in a later pak. Only
+ * what's needed to locate and read each copy is kept, in parallel columns. Once the tree is built the copies are
+ * sorted by node, oldest first for each node, so lookups are binary searches and cheap enough for the FX thread.
+ */
+class ShadowTable {
+
+    private int size;
+    /**
+     * The node whose path each copy shares
+     */
+    private int[] nodes;
+    private short[] pakIndices;
+    /**
+     * Unsigned, as in PakTree
+     */
+    private int[] diskOffsets;
+    private int[] compressedSizes;
+    private int[] decompressedSizes;
+    /**
+     * Whether the copies are in node order, so lookups can binary search. Only false while a tree is being built
+     */
+    private boolean sorted;
+
+    ShadowTable() {
+        this(0);
+    }
+
+    private ShadowTable(int capacity) {
+        nodes = new int[capacity];
+        pakIndices = new short[capacity];
+        diskOffsets = new int[capacity];
+        compressedSizes = new int[capacity];
+        decompressedSizes = new int[capacity];
+        sorted = true;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void add(int node, short pakIndex, int diskOffset, int compressedSize, int decompressedSize) {
+        if (size == nodes.length) {
+            resize(Math.max(16, size * 2));
+        }
+        if (size > 0 && node < nodes[size - 1]) {
+            sorted = false;
+        }
+        nodes[size] = node;
+        pakIndices[size] = pakIndex;
+        diskOffsets[size] = diskOffset;
+        compressedSizes[size] = compressedSize;
+        decompressedSizes[size] = decompressedSize;
+        ++size;
+    }
+
+    /**
+     * Appends every copy in another table, e.g. a subtree's, whose nodes have since been renumbered
+     *
+     * @param other The table to append
+     * @param shift The amount to add to each of the other table's node ids
+     */
+    void addAll(ShadowTable other, int shift) {
+        if (size + other.size > nodes.length) {
+            resize(size + other.size);
+        }
+        for (int i = 0; i < other.size; i++) {
+            int node = other.nodes[i] + shift;
+            if (size + i > 0 && node < nodes[size + i - 1]) {
+                sorted = false;
+            }
+            nodes[size + i] = node;
+        }
+        System.arraycopy(other.pakIndices, 0, pakIndices, size, other.size);
+        System.arraycopy(other.diskOffsets, 0, diskOffsets, size, other.size);
+        System.arraycopy(other.compressedSizes, 0, compressedSizes, size, other.size);
+        System.arraycopy(other.decompressedSizes, 0, decompressedSizes, size, other.size);
+        size += other.size;
+    }
+
+    /**
+     * @return The number of copies of a node's subfile, i.e. the number of indices {@link #find(int)} returns
+     */
+    int count(int node) {
+        if (sorted) {
+            return firstIndex(node + 1) - firstIndex(node);
+        }
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (nodes[i] == node) {
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return The indices of the copies of a node's subfile, oldest first
+     */
+    int[] find(int node) {
+        if (sorted) {
+            int from = firstIndex(node);
+            int[] found = new int[firstIndex(node + 1) - from];
+            for (int i = 0; i < found.length; i++) {
+                found[i] = from + i;
+            }
+            return found;
+        }
+        int[] found = new int[count(node)];
+        int n = 0;
+        for (int i = 0; i < size && n < found.length; i++) {
+            if (nodes[i] == node) {
+                found[n++] = i;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return The index of the first copy of a node at or after the given one, or size if there is none. Only valid
+     * while sorted
+     */
+    private int firstIndex(int node) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (nodes[mid] < node) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    short getPakIndex(int index) {
+        return pakIndices[index];
+    }
+
+    long getDiskOffset(int index) {
+        return Integer.toUnsignedLong(diskOffsets[index]);
+    }
+
+    int getCompressedSize(int index) {
+        return compressedSizes[index];
+    }
+
+    int getDecompressedSize(int index) {
+        return decompressedSizes[index];
+    }
+
+    /**
+     * Sorts the copies by node and trims the columns to size. Called once the tree is built
+     */
+    void trim() {
+        sort();
+        resize(size);
+    }
+
+    /**
+     * Sorts the copies by node, keeping copies of the same node in the order they were overridden
+     */
+    private void sort() {
+        if (sorted) {
+            return;
+        }
+        //  Sorting the node together with the original index keeps the sort stable
+        long[] keys = new long[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = (long) nodes[i] << 32 | i;
+        }
+        Arrays.sort(keys);
+        int[] oldNodes = nodes;
+        short[] oldPakIndices = pakIndices;
+        int[] oldDiskOffsets = diskOffsets;
+        int[] oldCompressedSizes = compressedSizes;
+        int[] oldDecompressedSizes = decompressedSizes;
+        nodes = new int[size];
+        pakIndices = new short[size];
+        diskOffsets = new int[size];
+        compressedSizes = new int[size];
+        decompressedSizes = new int[size];
+        for (int i = 0; i < size; i++) {
+            int from = (int) keys[i];
+            nodes[i] = oldNodes[from];
+            pakIndices[i] = oldPakIndices[from];
+            diskOffsets[i] = oldDiskOffsets[from];
+            compressedSizes[i] = oldCompressedSizes[from];
+            decompressedSizes[i] = oldDecompressedSizes[from];
+        }
+        sorted = true;
+    }
+
+    private void resize(int capacity) {
+        nodes = Arrays.copyOf(nodes, capacity);
+        pakIndices = Arrays.copyOf(pakIndices, capacity);
+        diskOffsets = Arrays.copyOf(diskOffsets, capacity);
+        compressedSizes = Arrays.copyOf(compressedSizes, capacity);
+        decompressedSizes = Arrays.copyOf(decompressedSizes, capacity);
+    }
+
+    /**
+     * @return The approximate heap used by this table in bytes
+     */
+    long sizeInBytes() {
+        return (long) nodes.length * (4 + 2 + 4 + 4 + 4);
+    }
+
+    /**
+     * Writes this table in the index cache format, trimmed to size
+     */
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            out.writeInt(nodes[i]);
+        }
+        for (int i = 0; i < size; i++) {
+            out.writeShort(pakIndices[i]);
+        }
+        for (int i = 0; i < size; i++) {
+            out.writeInt(diskOffsets[i]);
+        }
+        for (int i = 0; i < size; i++) {
+            out.writeInt(compressedSizes[i]);
+        }
+        for (int i = 0; i < size; i++) {
+            out.writeInt(decompressedSizes[i]);
+        }
+    }
+
+    /**
+     * Reads a table written by {@link #write(DataOutputStream)}. Indexes written before the table was sorted are
+     * sorted here
+     */
+    static ShadowTable read(ByteBuffer in) {
+        int size = in.getInt();
+        ShadowTable shadows = new ShadowTable(size);
+        shadows.size = size;
+        PakTable.readInts(in, shadows.nodes);
+        in.asShortBuffer().get(shadows.pakIndices);
+        in.position(in.position() + 2 * size);
+        PakTable.readInts(in, shadows.diskOffsets);
+        PakTable.readInts(in, shadows.compressedSizes);
+        PakTable.readInts(in, shadows.decompressedSizes);
+        for (int i = 1; i < size && shadows.sorted; i++) {
+            shadows.sorted = shadows.nodes[i] >= shadows.nodes[i - 1];
+        }
+        shadows.sort();
+        return shadows;
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package co.phoenixlab.dn.dnptui;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A size-bounded LRU cache of decompressed subfile data. The cache is bounded by the total number of decompressed
+ * bytes it holds rather than by entry count, since a single texture can be larger than hundreds of small ini files.
+ */
+public class SubfileCache {
+
+    /**
+     * Default cache budget in megabytes. Can be overridden with the co.phoenixlab.dn.dnptui.cache.mb system
+     * property, with 0 disabling the cache
+     */
+    public static final long DEFAULT_BUDGET_MB = Long.getLong("co.phoenixlab.dn.dnptui.cache.mb", 128L);
+
+    /**
+     * Cached data in access order, eldest first
+     */
+    private final LinkedHashMap<SubfileLocation, ByteBuffer> entries;
+    /**
+     * Maximum number of bytes to hold
+     */
+    private final long budget;
+    /**
+     * Number of bytes currently held
+     */
+    private long size;
+
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    private final AtomicLong evictions;
+
+    public SubfileCache() {
+        this(DEFAULT_BUDGET_MB * 1024L * 1024L);
+    }
+
+    /**
+     * Constructs a new cache
+     *
+     * @param budget The maximum number of decompressed bytes to hold
+     */
+    public SubfileCache(long budget) {
+        this.budget = Math.max(0, budget);
+        entries = new LinkedHashMap<>(64, 0.75F, true);
+        hits = new AtomicLong();
+        misses = new AtomicLong();
+        evictions = new AtomicLong();
+    }
+
+    /**
+     * Gets the cached data for a subfile.
+     *
+     * @param location Where the subfile is stored
+     * @return A new view of the cached data positioned at 0, or null if the subfile is not cached
+     */
+    public ByteBuffer get(SubfileLocation location) {
+        ByteBuffer buffer;
+        synchronized (this) {
+            buffer = entries.get(location);
+        }
+        if (buffer == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        //  Each caller gets its own position, limit and byte order
+        return buffer.duplicate();
+    }
+
+    /**
+     * Adds the data for a subfile to the cache, evicting the least recently used entries as needed. Data larger than
+     * half the budget is not cached so that one large file can't flush everything else.
+     *
+     * @param location Where the subfile is stored
+     * @param data     The decompressed data, positioned at 0. The caller must not modify it afterwards
+     */
+    public void put(SubfileLocation location, ByteBuffer data) {
+        long dataSize = data.capacity();
+        if (dataSize > budget / 2) {
+            return;
+        }
+        synchronized (this) {
+            ByteBuffer old = entries.put(location, data.duplicate());
+            if (old != null) {
+                size -= old.capacity();
+            }
+            size += dataSize;
+            Iterator<ByteBuffer> iterator = entries.values().iterator();
+            while (size > budget && iterator.hasNext()) {
+                size -= iterator.next().capacity();
+                iterator.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Removes all cached data belonging to the given pak
+     *
+     * @param pak The path of the pak to remove
+     */
+    public synchronized void invalidate(Path pak) {
+        Iterator<Map.Entry<SubfileLocation, ByteBuffer>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<SubfileLocation, ByteBuffer> entry = iterator.next();
+            if (entry.getKey().pak.equals(pak)) {
+                size -= entry.getValue().capacity();
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Removes all cached data
+     */
+    public synchronized void clear() {
+        entries.clear();
+        size = 0;
+    }
+
+    public long getBudget() {
+        return budget;
+    }
+
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    @Override
+    public String toString() {
+        long h = getHits();
+        long m = getMisses();
+        return String.format("%,d entries, %,d/%,d bytes, %,d hits, %,d misses (%.1f%% hit rate), %,d evictions",
+                getEntryCount(), getSize(), budget, h, m, h + m == 0 ? 0D : h * 100D / (h + m), getEvictions());
+    }
+}
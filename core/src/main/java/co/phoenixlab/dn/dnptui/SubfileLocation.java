@@ -24,27 +24,27 @@
 
 package co.phoenixlab.dn.dnptui;
 
-import co.phoenixlab.dn.pak.FileEntry;
-import co.phoenixlab.dn.pak.PakFile;
-
 import java.nio.file.Path;
 
-public class PakTreeEntry {
-
-    public final String name;
-    public final Path path;
-    public final FileEntry entry;
-    public final PakFile parent;
+/**
+ * Where a subfile's compressed data is stored. This is all that is needed to read a subfile, so readers don't need
+ * the pak's file table to be loaded.
+ */
+public class SubfileLocation {
 
-    public PakTreeEntry(String name, Path path, FileEntry entry, PakFile parent) {
-        this.name = name;
-        this.path = path;
-        this.entry = entry;
-        this.parent = parent;
-    }
+    /**
+     * The pak containing the subfile
+     */
+    public final Path pak;
+    public final long diskOffset;
+    public final int compressedSize;
+    public final int decompressedSize;
 
-    public boolean isDirectory() {
-        return entry == null;
+    public SubfileLocation(Path pak, long diskOffset, int compressedSize, int decompressedSize) {
+        this.pak = pak;
+        this.diskOffset = diskOffset;
+        this.compressedSize = compressedSize;
+        this.decompressedSize = decompressedSize;
     }
 
     @Override
@@ -55,19 +55,20 @@ public class PakTreeEntry {
         if (o == null || getClass() != o.getClass()) {
             return false;
         }
-        PakTreeEntry that = (PakTreeEntry) o;
-        return name.equals(that.name) && path.equals(that.path);
+        SubfileLocation that = (SubfileLocation) o;
+        return diskOffset == that.diskOffset && compressedSize == that.compressedSize && pak.equals(that.pak);
     }
 
     @Override
     public int hashCode() {
-        int result = name.hashCode();
-        result = 31 * result + path.hashCode();
+        int result = pak.hashCode();
+        result = 31 * result + Long.hashCode(diskOffset);
+        result = 31 * result + compressedSize;
         return result;
     }
 
     @Override
     public String toString() {
-        return name + "\\";
+        return pak.getFileName() + "@0x" + Long.toHexString(diskOffset);
     }
 }
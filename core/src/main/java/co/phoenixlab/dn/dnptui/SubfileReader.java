@@ -0,0 +1,230 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package co.phoenixlab.dn.dnptui;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads subfile data out of loaded paks. Implementations must be safe to use from multiple threads at once.
+ */
+public abstract class SubfileReader implements Closeable {
+
+    /**
+     * Whether to memory map paks instead of reading through channels. Can be enabled with the
+     * co.phoenixlab.dn.dnptui.read.mmap system property
+     */
+    public static final boolean USE_MAPPED_READER = Boolean.getBoolean("co.phoenixlab.dn.dnptui.read.mmap");
+
+    /**
+     * Size of the chunks copied out of direct buffers into the inflater
+     */
+    private static final int INFLATE_CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * Creates the reader backend selected by the system configuration
+     *
+     * @return A new SubfileReader
+     */
+    public static SubfileReader create() {
+        if (USE_MAPPED_READER) {
+            return new MappedSubfileReader();
+        }
+        return new ChannelSubfileReader();
+    }
+
+    /**
+     * Reads the compressed data of a subfile.
+     *
+     * @param location Where the subfile is stored
+     * @return A ByteBuffer containing exactly the compressed data, positioned at 0. May be a view of a direct or
+     * mapped buffer, and so should not be retained longer than necessary
+     * @throws IOException If there was an I/O error while reading
+     */
+    public abstract ByteBuffer readCompressed(SubfileLocation location) throws IOException;
+
+    /**
+     * @return Whether this backend copies compressed data out of the pak, and so wants a scratch array to copy it into
+     */
+    protected boolean needsScratch() {
+        return false;
+    }
+
+    /**
+     * Reads the compressed data of a subfile, using the given scratch array if the data has to be copied out of the
+     * pak. The default implementation ignores the scratch array.
+     *
+     * @param location Where the subfile is stored
+     * @param scratch  An array at least location.compressedSize long that the data may be read into, or null if
+     *                 {@link #needsScratch()} is false
+     * @return A ByteBuffer containing exactly the compressed data, which may be backed by scratch
+     * @throws IOException If there was an I/O error while reading
+     */
+    protected ByteBuffer readCompressed(SubfileLocation location, byte[] scratch) throws IOException {
+        return readCompressed(location);
+    }
+
+    /**
+     * Reads and decompresses a subfile.
+     *
+     * @param location Where the subfile is stored
+     * @return A heap ByteBuffer containing the decompressed data, positioned at 0
+     * @throws IOException If there was an I/O error while reading, or the data could not be decompressed
+     */
+    public ByteBuffer extract(SubfileLocation location) throws IOException {
+        byte[] scratch = needsScratch() ? InflatePool.acquireBuffer(location.compressedSize) : null;
+        try {
+            return inflate(readCompressed(location, scratch), location);
+        } finally {
+            if (scratch != null) {
+                InflatePool.release(scratch);
+            }
+        }
+    }
+
+    /**
+     * Reads and decompresses a subfile into pooled buffers and passes the data to the given consumer. Nothing is
+     * allocated once the pools are warm, which makes this the better choice when the data is only needed briefly,
+     * such as when writing it out during an export.
+     *
+     * @param location Where the subfile is stored
+     * @param consumer Receives the decompressed data, positioned at 0. The buffer is reused once the consumer
+     *                 returns, so it must not be retained
+     * @throws IOException If there was an I/O error while reading, the data could not be decompressed, or the
+     *                     consumer threw one
+     */
+    public void extract(SubfileLocation location, DataConsumer consumer) throws IOException {
+        byte[] scratch = needsScratch() ? InflatePool.acquireBuffer(location.compressedSize) : null;
+        byte[] out = InflatePool.acquireBuffer(location.decompressedSize);
+        try {
+            consumer.accept(inflate(readCompressed(location, scratch), location, out));
+        } finally {
+            InflatePool.release(out);
+            if (scratch != null) {
+                InflatePool.release(scratch);
+            }
+        }
+    }
+
+    /**
+     * Releases any resources held for the given pak
+     *
+     * @param pak The path of the pak to release
+     */
+    public abstract void release(Path pak);
+
+    /**
+     * Releases all resources held by this reader
+     */
+    @Override
+    public abstract void close();
+
+    /**
+     * Decompresses subfile data into a new array sized from the file table.
+     *
+     * @param compressed The compressed data
+     * @param location   Where the subfile is stored
+     * @return A heap ByteBuffer containing the decompressed data, positioned at 0
+     * @throws IOException If the data could not be decompressed
+     */
+    protected static ByteBuffer inflate(ByteBuffer compressed, SubfileLocation location) throws IOException {
+        return inflate(compressed, location, new byte[Math.max(location.decompressedSize, 1)]);
+    }
+
+    /**
+     * Decompresses subfile data into the given array using a pooled Inflater. Heap buffers are inflated in place,
+     * while direct buffers are fed to the inflater in small pooled chunks so the compressed data is never copied onto
+     * the heap as a whole.
+     *
+     * @param compressed The compressed data
+     * @param location   Where the subfile is stored
+     * @param out        The array to decompress into. A larger one is allocated if the file table's decompressed
+     *                   size turns out to be wrong
+     * @return A heap ByteBuffer wrapping the decompressed data, positioned at 0
+     * @throws IOException If the data could not be decompressed, including if it ends before the end of the
+     *                     compressed stream
+     */
+    protected static ByteBuffer inflate(ByteBuffer compressed, SubfileLocation location, byte[] out)
+            throws IOException {
+        if (out.length == 0) {
+            out = new byte[1];
+        }
+        int length = 0;
+        byte[] chunk = null;
+        Inflater inflater = InflatePool.acquireInflater();
+        try {
+            while (!inflater.finished()) {
+                if (inflater.needsInput()) {
+                    if (!compressed.hasRemaining()) {
+                        throw new IOException("Truncated subfile data at " + location);
+                    }
+                    if (compressed.hasArray()) {
+                        inflater.setInput(compressed.array(), compressed.arrayOffset() + compressed.position(),
+                                compressed.remaining());
+                        compressed.position(compressed.limit());
+                    } else {
+                        if (chunk == null) {
+                            chunk = InflatePool.acquireBuffer(Math.min(INFLATE_CHUNK_SIZE, compressed.remaining()));
+                        }
+                        int len = Math.min(chunk.length, compressed.remaining());
+                        compressed.get(chunk, 0, len);
+                        inflater.setInput(chunk, 0, len);
+                    }
+                }
+                if (length == out.length) {
+                    //  Decompressed size in the file table was wrong, grow
+                    out = Arrays.copyOf(out, out.length * 2);
+                }
+                int inflated = inflater.inflate(out, length, out.length - length);
+                if (inflated == 0 && inflater.needsDictionary()) {
+                    //  Subfiles are never compressed with a preset dictionary
+                    throw new IOException("Subfile data at " + location + " needs a preset dictionary");
+                }
+                length += inflated;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt subfile data at " + location, e);
+        } finally {
+            InflatePool.release(inflater);
+            if (chunk != null) {
+                InflatePool.release(chunk);
+            }
+        }
+        return ByteBuffer.wrap(out, 0, length);
+    }
+
+    /**
+     * Receives subfile data that is only valid for the duration of the call
+     */
+    @FunctionalInterface
+    public interface DataConsumer {
+
+        void accept(ByteBuffer data) throws IOException;
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package co.phoenixlab.dn.dnptui;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Totals for every directory of a {@link PakTree}: how many subfiles and directories are below it, their compressed
+ * and decompressed sizes, and a breakdown by extension. They are computed bottom-up, in one pass over the subfiles
+ * and one over the directories, so that a directory's totals can be looked up without walking everything below it.
+ */
+class SubtreeAggregates {
+
+    /**
+     * Node id of each directory, ascending, so that a directory's slot in the other columns can be binary searched
+     */
+    private final int[] dirs;
+    private final int[] fileCounts;
+    private final int[] dirCounts;
+    private final long[] compressedSizes;
+    private final long[] decompressedSizes;
+    /**
+     * Per directory, pairs of (extension id << 32 | file count, decompressed size)
+     */
+    private final long[][] extensions;
+    private String[] extensionNames;
+
+    private SubtreeAggregates(int[] dirs) {
+        this.dirs = dirs;
+        fileCounts = new int[dirs.length];
+        dirCounts = new int[dirs.length];
+        compressedSizes = new long[dirs.length];
+        decompressedSizes = new long[dirs.length];
+        extensions = new long[dirs.length][];
+    }
+
+    /**
+     * Computes the totals of every directory in a tree
+     *
+     * @param tree The tree
+     * @return The totals
+     */
+    static SubtreeAggregates compute(PakTree tree) {
+        int size = tree.size();
+        int[] slots = new int[size];
+        int numDirs = 0;
+        for (int node = 0; node < size; node++) {
+            if (tree.isDirectory(node)) {
+                slots[node] = numDirs++;
+            }
+        }
+        int[] dirs = new int[numDirs];
+        for (int node = 0; node < size; node++) {
+            if (tree.isDirectory(node)) {
+                dirs[slots[node]] = node;
+            }
+        }
+        Map<String, Integer> ids = new HashMap<>();
+        List<String> names = new ArrayList<>();
+        SubtreeAggregates aggregates = new SubtreeAggregates(dirs);
+        int[] extensionLengths = new int[numDirs];
+        //  First add each subfile to its own directory, reading the columns in order
+        String previous = null;
+        int previousId = -1;
+        for (int node = 0; node < size; node++) {
+            if (tree.isDirectory(node)) {
+                continue;
+            }
+            //  Neighbouring subfiles usually share an extension, so check against the last one before making a String
+            int start = extensionStart(tree, node);
+            if (previous == null || !extensionEquals(tree, node, start, previous)) {
+                previous = extensionOf(tree, node, start);
+                Integer id = ids.get(previous);
+                if (id == null) {
+                    id = names.size();
+                    ids.put(previous, id);
+                    names.add(previous);
+                }
+                previousId = id;
+            }
+            int slot = slots[tree.getParent(node)];
+            long decompressed = Integer.toUnsignedLong(tree.getDecompressedSize(node));
+            aggregates.fileCounts[slot]++;
+            aggregates.compressedSizes[slot] += Integer.toUnsignedLong(tree.getCompressedSize(node));
+            aggregates.decompressedSizes[slot] += decompressed;
+            aggregates.addExtension(slot, extensionLengths, previousId, 1, decompressed);
+        }
+        //  Then add each directory's totals to its parent's, deepest directories first
+        for (int slot : byDepthDescending(tree, dirs, slots)) {
+            long[] pairs = aggregates.extensions[slot];
+            aggregates.extensions[slot] = pairs == null ? new long[0] : Arrays.copyOf(pairs, extensionLengths[slot]);
+            if (dirs[slot] == PakTree.ROOT) {
+                continue;
+            }
+            int parent = slots[tree.getParent(dirs[slot])];
+            aggregates.fileCounts[parent] += aggregates.fileCounts[slot];
+            aggregates.dirCounts[parent] += aggregates.dirCounts[slot] + 1;
+            aggregates.compressedSizes[parent] += aggregates.compressedSizes[slot];
+            aggregates.decompressedSizes[parent] += aggregates.decompressedSizes[slot];
+            for (int i = 0; i < extensionLengths[slot]; i += 2) {
+                aggregates.addExtension(parent, extensionLengths, (int) (pairs[i] >>> 32), (int) pairs[i],
+                        pairs[i + 1]);
+            }
+        }
+        aggregates.extensionNames = names.toArray(new String[names.size()]);
+        return aggregates;
+    }
+
+    /**
+     * @return The slots of the directories, sorted so that every directory comes before its parent
+     */
+    private static int[] byDepthDescending(PakTree tree, int[] dirs, int[] slots) {
+        int[] depths = new int[dirs.length];
+        int maxDepth = 0;
+        for (int slot = 0; slot < dirs.length; slot++) {
+            int depth = 0;
+            for (int dir = dirs[slot]; dir != PakTree.ROOT; dir = tree.getParent(dir)) {
+                ++depth;
+            }
+            depths[slot] = depth;
+            maxDepth = Math.max(maxDepth, depth);
+        }
+        //  Counting sort
+        int[] starts = new int[maxDepth + 2];
+        for (int depth : depths) {
+            ++starts[maxDepth - depth + 1];
+        }
+        for (int i = 1; i < starts.length; i++) {
+            starts[i] += starts[i - 1];
+        }
+        int[] order = new int[dirs.length];
+        for (int slot = 0; slot < dirs.length; slot++) {
+            order[starts[maxDepth - depths[slot]]++] = slot;
+        }
+        return order;
+    }
+
+    /**
+     * Adds subfiles to a directory's per-extension totals while computing. There are only a few extensions per
+     * directory, so a linear scan is fine.
+     */
+    private void addExtension(int slot, int[] lengths, int id, int count, long size) {
+        long[] pairs = extensions[slot];
+        int length = lengths[slot];
+        for (int i = 0; i < length; i += 2) {
+            if ((int) (pairs[i] >>> 32) == id) {
+                pairs[i] += count;
+                pairs[i + 1] += size;
+                return;
+            }
+        }
+        if (pairs == null) {
+            pairs = new long[4];
+        } else if (length == pairs.length) {
+            pairs = Arrays.copyOf(pairs, length * 2);
+        }
+        pairs[length] = (long) id << 32 | count;
+        pairs[length + 1] = size;
+        extensions[slot] = pairs;
+        lengths[slot] = length + 2;
+    }
+
+    /**
+     * @return Where the extension of a node's name starts, after the dot, or the length of the name if it has none
+     */
+    private static int extensionStart(PakTree tree, int node) {
+        int length = tree.getNameLength(node);
+        //  A leading dot doesn't start an extension
+        for (int i = length - 1; i > 0; i--) {
+            if (tree.getNameChar(node, i) == '.') {
+                return i + 1;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * @return The extension of a node's name in lower case
+     */
+    private static String extensionOf(PakTree tree, int node, int start) {
+        char[] chars = new char[tree.getNameLength(node) - start];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = Character.toLowerCase(tree.getNameChar(node, start + i));
+        }
+        return new String(chars);
+    }
+
+    private static boolean extensionEquals(PakTree tree, int node, int start, String extension) {
+        if (tree.getNameLength(node) - start != extension.length()) {
+            return false;
+        }
+        for (int i = 0; i < extension.length(); i++) {
+            if (Character.toLowerCase(tree.getNameChar(node, start + i)) != extension.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param node The directory's node id
+     * @return The directory's totals, or null if the node isn't a directory
+     */
+    DirectoryStats get(int node) {
+        int slot = Arrays.binarySearch(dirs, node);
+        if (slot < 0) {
+            return null;
+        }
+        long[] pairs = extensions[slot];
+        List<DirectoryStats.Extension> breakdown = new ArrayList<>(pairs.length / 2);
+        for (int i = 0; i < pairs.length; i += 2) {
+            breakdown.add(new DirectoryStats.Extension(extensionNames[(int) (pairs[i] >>> 32)], (int) pairs[i],
+                    pairs[i + 1]));
+        }
+        breakdown.sort(Comparator.comparingLong((DirectoryStats.Extension e) -> e.decompressedSize).reversed());
+        return new DirectoryStats(fileCounts[slot], dirCounts[slot], compressedSizes[slot], decompressedSizes[slot],
+                breakdown);
+    }
+
+    /**
+     * @return The approximate heap used by these totals in bytes
+     */
+    long sizeInBytes() {
+        long bytes = (long) dirs.length * (4 + 4 + 4 + 8 + 8);
+        for (long[] pairs : extensions) {
+            bytes += 16 + 8L * pairs.length;
+        }
+        return bytes;
+    }
+}
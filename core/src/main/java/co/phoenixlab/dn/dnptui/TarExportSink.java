@@ -0,0 +1,199 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package co.phoenixlab.dn.dnptui;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Exports subfiles into an uncompressed POSIX (ustar) tar archive. Names that don't fit in the ustar header, or that
+ * aren't plain ASCII, are given in a pax extended header.
+ */
+public class TarExportSink extends ArchiveExportSink {
+
+    private static final int BLOCK_SIZE = 512;
+    private static final byte TYPE_FILE = '0';
+    private static final byte TYPE_DIRECTORY = '5';
+    private static final byte TYPE_PAX = 'x';
+    private static final int NAME_LENGTH = 100;
+    private static final int PREFIX_LENGTH = 155;
+    /**
+     * "ustar" magic and version "00"
+     */
+    private static final byte[] MAGIC = "ustar\u000000".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ZEROS = new byte[BLOCK_SIZE * 2];
+
+    private final byte[] header;
+    /**
+     * Modification time given to every entry, as paks don't store one
+     */
+    private final long mtime;
+    /**
+     * Number of pax headers written, to give each one a distinct name
+     */
+    private long paxCount;
+
+    public TarExportSink(Path archive) throws IOException {
+        super(archive);
+        header = new byte[BLOCK_SIZE];
+        mtime = System.currentTimeMillis() / 1000L;
+    }
+
+    @Override
+    public void createDirectories(Collection<Path> dirs) throws IOException {
+        for (Path dir : dirs) {
+            String name = ExportSink.archiveName(dir);
+            if (!name.isEmpty()) {
+                writeHeader(name + "/", TYPE_DIRECTORY, 0);
+            }
+        }
+    }
+
+    @Override
+    public void write(Path path, ByteBuffer data) throws IOException {
+        int size = data.remaining();
+        writeHeader(ExportSink.archiveName(path), TYPE_FILE, size);
+        write(data);
+        pad(size);
+    }
+
+    private void writeHeader(String name, byte type, long size) throws IOException {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        int split = splitName(nameBytes);
+        if (split < -1) {
+            byte[] record = paxRecord("path", name);
+            ++paxCount;
+            writeHeader(("PaxHeaders/" + paxCount).getBytes(StandardCharsets.US_ASCII), -1, TYPE_PAX, record.length);
+            write(record);
+            pad(record.length);
+            //  Readers use the pax path, this is only for readers that don't support pax
+            nameBytes = Arrays.copyOf(nameBytes, Math.min(nameBytes.length, NAME_LENGTH));
+            split = -1;
+        }
+        writeHeader(nameBytes, split, type, size);
+    }
+
+    /**
+     * Writes a ustar header block
+     *
+     * @param name  The entry name
+     * @param split The index of the '/' to split the name into prefix and name at, or -1 to not split it
+     * @param type  The entry type
+     * @param size  The size of the entry's data
+     */
+    private void writeHeader(byte[] name, int split, byte type, long size) throws IOException {
+        Arrays.fill(header, (byte) 0);
+        if (split == -1) {
+            System.arraycopy(name, 0, header, 0, name.length);
+        } else {
+            System.arraycopy(name, split + 1, header, 0, name.length - split - 1);
+            System.arraycopy(name, 0, header, 345, split);
+        }
+        putOctal(type == TYPE_DIRECTORY ? 0755 : 0644, 100, 8);
+        putOctal(0, 108, 8);
+        putOctal(0, 116, 8);
+        putOctal(size, 124, 12);
+        putOctal(mtime, 136, 12);
+        header[156] = type;
+        System.arraycopy(MAGIC, 0, header, 257, MAGIC.length);
+        //  The checksum is computed with its own field filled with spaces
+        Arrays.fill(header, 148, 156, (byte) ' ');
+        long checksum = 0;
+        for (byte b : header) {
+            checksum += b & 0xFF;
+        }
+        putOctal(checksum, 148, 7);
+        header[155] = ' ';
+        write(header);
+    }
+
+    /**
+     * Works out how to fit a name into the ustar name and prefix fields
+     *
+     * @return -1 if the name fits in the name field, the index of the '/' to split the name at into prefix and name,
+     * or -2 if it doesn't fit or isn't ASCII and so needs a pax header
+     */
+    private static int splitName(byte[] name) {
+        for (byte b : name) {
+            if (b < 0) {
+                return -2;
+            }
+        }
+        if (name.length <= NAME_LENGTH) {
+            return -1;
+        }
+        //  Split at the first '/' that leaves a short enough name
+        for (int i = name.length - NAME_LENGTH - 1; i < name.length && i <= PREFIX_LENGTH; i++) {
+            if (i > 0 && name[i] == '/') {
+                return i;
+            }
+        }
+        return -2;
+    }
+
+    /**
+     * Builds a pax record, "length key=value\n", where length counts the whole record including itself
+     */
+    private static byte[] paxRecord(String key, String value) {
+        int contentLength = (" " + key + "=" + value + "\n").getBytes(StandardCharsets.UTF_8).length;
+        int length = contentLength + 1;
+        while (Integer.toString(length).length() + contentLength != length) {
+            ++length;
+        }
+        return (length + " " + key + "=" + value + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes a zero padded octal number into the header, leaving room for a trailing NUL
+     */
+    private void putOctal(long value, int offset, int length) {
+        String octal = Long.toOctalString(value);
+        int digits = length - 1;
+        int pad = digits - octal.length();
+        for (int i = 0; i < digits; i++) {
+            header[offset + i] = (byte) (i < pad ? '0' : octal.charAt(i - pad));
+        }
+        header[offset + digits] = 0;
+    }
+
+    /**
+     * Pads an entry's data out to a whole block
+     */
+    private void pad(long size) throws IOException {
+        int remainder = (int) (size % BLOCK_SIZE);
+        if (remainder != 0) {
+            write(ZEROS, 0, BLOCK_SIZE - remainder);
+        }
+    }
+
+    @Override
+    protected void finish() throws IOException {
+        //  Two empty blocks mark the end of the archive
+        write(ZEROS);
+    }
+}
@@ -0,0 +1,296 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package co.phoenixlab.dn.dnptui;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Exports subfiles into a zip archive. Subfiles are stored using the deflate data already in the pak, so nothing is
+ * compressed again; subfiles whose data can't be reused that way are stored uncompressed. ZIP64 records are written
+ * when the archive has more than 65535 entries or grows past 4 GB, which a full client export does.
+ */
+public class ZipExportSink extends ArchiveExportSink {
+
+    private static final int LOCAL_HEADER = 0x04034B50;
+    private static final int CENTRAL_HEADER = 0x02014B50;
+    private static final int ZIP64_END = 0x06064B50;
+    private static final int ZIP64_LOCATOR = 0x07064B50;
+    private static final int END = 0x06054B50;
+    private static final short ZIP64_EXTRA = 0x0001;
+    private static final short STORED = 0;
+    private static final short DEFLATED = 8;
+    /**
+     * Version 2.0, or 4.5 for entries with ZIP64 fields
+     */
+    private static final short VERSION = 20;
+    private static final short VERSION_ZIP64 = 45;
+    /**
+     * Names are UTF-8
+     */
+    private static final short FLAG_UTF8 = 1 << 11;
+    /**
+     * Largest value that fits in a 32 bit field; anything at or above it is stored in the ZIP64 extra field
+     */
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+    /**
+     * Unix permissions for files and directories, in the high half of the external attributes
+     */
+    private static final int FILE_ATTRIBUTES = 0100644 << 16;
+    private static final int DIR_ATTRIBUTES = (040755 << 16) | 0x10;
+
+    /**
+     * Entries written so far, for the central directory
+     */
+    private final List<Entry> entries;
+    /**
+     * Modification time given to every entry, as paks don't store one
+     */
+    private final int dosTime;
+    private final ByteBuffer header;
+
+    public ZipExportSink(Path archive) throws IOException {
+        super(archive);
+        entries = new ArrayList<>();
+        dosTime = toDosTime(Calendar.getInstance());
+        header = ByteBuffer.allocate(128).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @Override
+    public boolean acceptsDeflated() {
+        return true;
+    }
+
+    @Override
+    public void createDirectories(Collection<Path> dirs) throws IOException {
+        for (Path dir : dirs) {
+            String name = ExportSink.archiveName(dir);
+            if (!name.isEmpty()) {
+                writeEntry(name + "/", true, STORED, 0, 0, 0, null);
+            }
+        }
+    }
+
+    @Override
+    public void write(Path path, ByteBuffer data) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(data.duplicate());
+        writeEntry(ExportSink.archiveName(path), false, STORED, crc.getValue(), data.remaining(), data.remaining(),
+                data);
+    }
+
+    @Override
+    public void writeDeflated(Path path, Deflated data) throws IOException {
+        writeEntry(ExportSink.archiveName(path), false, DEFLATED, data.crc, data.data.remaining(), data.size,
+                data.data);
+    }
+
+    private void writeEntry(String name, boolean directory, short method, long crc, long compressedSize, long size,
+                            ByteBuffer data) throws IOException {
+        Entry entry = new Entry();
+        entry.name = name.getBytes(StandardCharsets.UTF_8);
+        entry.directory = directory;
+        entry.method = method;
+        entry.crc = crc;
+        entry.compressedSize = compressedSize;
+        entry.size = size;
+        entry.offset = position();
+        entries.add(entry);
+        boolean zip64 = compressedSize >= ZIP64_MAGIC || size >= ZIP64_MAGIC;
+        ByteBuffer h = header(30 + (zip64 ? 20 : 0));
+        h.putInt(LOCAL_HEADER);
+        h.putShort(zip64 ? VERSION_ZIP64 : VERSION);
+        h.putShort(FLAG_UTF8);
+        h.putShort(method);
+        h.putInt(dosTime);
+        h.putInt((int) crc);
+        h.putInt((int) (zip64 ? ZIP64_MAGIC : compressedSize));
+        h.putInt((int) (zip64 ? ZIP64_MAGIC : size));
+        h.putShort((short) entry.name.length);
+        h.putShort((short) (zip64 ? 20 : 0));
+        writeHeader(h, entry.name);
+        if (zip64) {
+            h = header(20);
+            h.putShort(ZIP64_EXTRA);
+            h.putShort((short) 16);
+            h.putLong(size);
+            h.putLong(compressedSize);
+            writeHeader(h, null);
+        }
+        if (data != null) {
+            write(data);
+        }
+    }
+
+    @Override
+    protected void finish() throws IOException {
+        long centralOffset = position();
+        for (Entry entry : entries) {
+            writeCentralHeader(entry);
+        }
+        long centralSize = position() - centralOffset;
+        int count = entries.size();
+        if (count >= ZIP64_MAGIC_COUNT || centralOffset >= ZIP64_MAGIC || centralSize >= ZIP64_MAGIC) {
+            long zip64EndOffset = position();
+            ByteBuffer h = header(56 + 20);
+            h.putInt(ZIP64_END);
+            h.putLong(44);
+            h.putShort(VERSION_ZIP64);
+            h.putShort(VERSION_ZIP64);
+            h.putInt(0);
+            h.putInt(0);
+            h.putLong(count);
+            h.putLong(count);
+            h.putLong(centralSize);
+            h.putLong(centralOffset);
+            h.putInt(ZIP64_LOCATOR);
+            h.putInt(0);
+            h.putLong(zip64EndOffset);
+            h.putInt(1);
+            writeHeader(h, null);
+        }
+        ByteBuffer h = header(22);
+        h.putInt(END);
+        h.putShort((short) 0);
+        h.putShort((short) 0);
+        h.putShort((short) Math.min(count, ZIP64_MAGIC_COUNT));
+        h.putShort((short) Math.min(count, ZIP64_MAGIC_COUNT));
+        h.putInt((int) Math.min(centralSize, ZIP64_MAGIC));
+        h.putInt((int) Math.min(centralOffset, ZIP64_MAGIC));
+        h.putShort((short) 0);
+        writeHeader(h, null);
+    }
+
+    private void writeCentralHeader(Entry entry) throws IOException {
+        //  Only the fields that overflowed go in the ZIP64 extra field, in this order
+        int extraLength = 0;
+        if (entry.size >= ZIP64_MAGIC) {
+            extraLength += 8;
+        }
+        if (entry.compressedSize >= ZIP64_MAGIC) {
+            extraLength += 8;
+        }
+        if (entry.offset >= ZIP64_MAGIC) {
+            extraLength += 8;
+        }
+        boolean zip64 = extraLength > 0;
+        ByteBuffer h = header(46 + (zip64 ? 4 + extraLength : 0));
+        h.putInt(CENTRAL_HEADER);
+        //  Made by Unix, so the external attributes hold permissions
+        h.putShort((short) (3 << 8 | VERSION_ZIP64));
+        h.putShort(zip64 ? VERSION_ZIP64 : VERSION);
+        h.putShort(FLAG_UTF8);
+        h.putShort(entry.method);
+        h.putInt(dosTime);
+        h.putInt((int) entry.crc);
+        h.putInt((int) Math.min(entry.compressedSize, ZIP64_MAGIC));
+        h.putInt((int) Math.min(entry.size, ZIP64_MAGIC));
+        h.putShort((short) entry.name.length);
+        h.putShort((short) (zip64 ? 4 + extraLength : 0));
+        h.putShort((short) 0);
+        h.putShort((short) 0);
+        h.putShort((short) 0);
+        h.putInt(entry.directory ? DIR_ATTRIBUTES : FILE_ATTRIBUTES);
+        h.putInt((int) Math.min(entry.offset, ZIP64_MAGIC));
+        if (!zip64) {
+            writeHeader(h, entry.name);
+            return;
+        }
+        //  The extra field goes after the name
+        writeHeader(h, null, 46);
+        write(entry.name);
+        h = header(4 + extraLength);
+        h.putShort(ZIP64_EXTRA);
+        h.putShort((short) extraLength);
+        if (entry.size >= ZIP64_MAGIC) {
+            h.putLong(entry.size);
+        }
+        if (entry.compressedSize >= ZIP64_MAGIC) {
+            h.putLong(entry.compressedSize);
+        }
+        if (entry.offset >= ZIP64_MAGIC) {
+            h.putLong(entry.offset);
+        }
+        writeHeader(h, null);
+    }
+
+    /**
+     * @return The shared header buffer, cleared
+     */
+    private ByteBuffer header(int length) {
+        header.clear();
+        header.limit(length);
+        return header;
+    }
+
+    private void writeHeader(ByteBuffer h, byte[] name) throws IOException {
+        writeHeader(h, name, h.position());
+    }
+
+    /**
+     * Writes the first length bytes of the header buffer, followed by the name if given
+     */
+    private void writeHeader(ByteBuffer h, byte[] name, int length) throws IOException {
+        write(h.array(), 0, length);
+        if (name != null) {
+            write(name);
+        }
+    }
+
+    /**
+     * Packs a time into the MS-DOS date and time format used by zip
+     */
+    private static int toDosTime(Calendar calendar) {
+        int year = Math.max(1980, calendar.get(Calendar.YEAR));
+        return (year - 1980) << 25 |
+                (calendar.get(Calendar.MONTH) + 1) << 21 |
+                calendar.get(Calendar.DAY_OF_MONTH) << 16 |
+                calendar.get(Calendar.HOUR_OF_DAY) << 11 |
+                calendar.get(Calendar.MINUTE) << 5 |
+                calendar.get(Calendar.SECOND) >> 1;
+    }
+
+    /**
+     * What the central directory needs to know about an entry
+     */
+    private static class Entry {
+
+        byte[] name;
+        boolean directory;
+        short method;
+        long crc;
+        long compressedSize;
+        long size;
+        long offset;
+    }
+}
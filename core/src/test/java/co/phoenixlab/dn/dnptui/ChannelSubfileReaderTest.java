@@ -0,0 +1,183 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package co.phoenixlab.dn.dnptui;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class ChannelSubfileReaderTest {
+
+    private static final int CHUNK_SIZE = 4 * 1024 * 1024;
+    private static final int CHUNKS = 8;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path pak;
+    private byte[] contents;
+    private ChannelSubfileReader reader;
+
+    @Before
+    public void setUp() throws IOException {
+        pak = folder.newFile("Resource00.pak").toPath().toRealPath();
+        contents = new byte[CHUNK_SIZE * CHUNKS];
+        new Random(1).nextBytes(contents);
+        Files.write(pak, contents);
+        reader = new ChannelSubfileReader(2);
+    }
+
+    @After
+    public void tearDown() {
+        reader.close();
+    }
+
+    @Test
+    public void testRead() throws IOException {
+        for (int chunk = 0; chunk < CHUNKS; chunk++) {
+            assertArrayEquals(expected(chunk), read(chunk));
+        }
+    }
+
+    @Test
+    public void testReleaseClosesChannels() throws IOException {
+        assumeTrue("Open files can only be counted on Linux", Files.isDirectory(Paths.get("/proc/self/fd")));
+        read(0);
+        read(1);
+        assertTrue(openChannels() > 0);
+        reader.release(pak);
+        assertEquals(0, openChannels());
+        //  A read after the pak was released opens it again
+        assertArrayEquals(expected(2), read(2));
+        reader.release(pak);
+        assertEquals(0, openChannels());
+    }
+
+    @Test
+    public void testReleaseDuringReads() throws Exception {
+        assumeTrue("Open files can only be counted on Linux", Files.isDirectory(Paths.get("/proc/self/fd")));
+        AtomicBoolean done = new AtomicBoolean();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Integer>> readers = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                int seed = i;
+                readers.add(executor.submit(() -> {
+                    Random random = new Random(seed);
+                    //  Reading into a scratch array keeps the garbage collector from closing leaked channels
+                    byte[] scratch = new byte[CHUNK_SIZE];
+                    int failed = 0;
+                    while (!done.get()) {
+                        int chunk = random.nextInt(CHUNKS);
+                        try {
+                            ByteBuffer data = reader.readCompressed(location(chunk), scratch);
+                            assertEquals(CHUNK_SIZE, data.remaining());
+                            for (int b = 0; b < CHUNK_SIZE; b += 4096) {
+                                assertEquals(contents[chunk * CHUNK_SIZE + b], scratch[b]);
+                            }
+                        } catch (ClosedChannelException e) {
+                            //  The pak was released during the read
+                            ++failed;
+                        }
+                    }
+                    return failed;
+                }));
+            }
+            long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+            while (System.nanoTime() < end) {
+                reader.release(pak);
+                Thread.sleep(1);
+            }
+            done.set(true);
+            for (Future<Integer> future : readers) {
+                future.get();
+            }
+        } finally {
+            done.set(true);
+            executor.shutdown();
+        }
+        //  Only the stripes still registered for the pak may have channels open, and releasing closes them
+        reader.release(pak);
+        assertEquals("Channels left open", 0, openChannels());
+    }
+
+    private SubfileLocation location(int chunk) {
+        return new SubfileLocation(pak, (long) chunk * CHUNK_SIZE, CHUNK_SIZE, CHUNK_SIZE);
+    }
+
+    private byte[] read(int chunk) throws IOException {
+        ByteBuffer data = reader.readCompressed(location(chunk));
+        byte[] bytes = new byte[data.remaining()];
+        data.get(bytes);
+        return bytes;
+    }
+
+    private byte[] expected(int chunk) {
+        byte[] bytes = new byte[CHUNK_SIZE];
+        System.arraycopy(contents, chunk * CHUNK_SIZE, bytes, 0, CHUNK_SIZE);
+        return bytes;
+    }
+
+    /**
+     * @return The number of file descriptors this process has open on the pak
+     */
+    private int openChannels() throws IOException {
+        int count = 0;
+        try (DirectoryStream<Path> fds = Files.newDirectoryStream(Paths.get("/proc/self/fd"))) {
+            for (Path fd : fds) {
+                try {
+                    if (Files.readSymbolicLink(fd).equals(pak)) {
+                        ++count;
+                    }
+                } catch (IOException e) {
+                    //  Closed while listing, such as the descriptor of the listing itself
+                }
+            }
+        }
+        return count;
+    }
+}
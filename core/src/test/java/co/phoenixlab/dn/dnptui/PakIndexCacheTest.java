@@ -0,0 +1,181 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package co.phoenixlab.dn.dnptui;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PakIndexCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private PakIndexCache cache;
+    private List<Path> paks;
+    private List<PakTable> tables;
+    private PakTree tree;
+
+    @Before
+    public void setUp() throws IOException {
+        cache = new PakIndexCache(folder.newFolder("index").toPath());
+        paks = new ArrayList<>();
+        tables = new ArrayList<>();
+        Random random = new Random(1);
+        for (int i = 0; i < 3; i++) {
+            //  Only the fingerprint reads the paks, so they just need some header bytes
+            Path pak = folder.newFile("Resource0" + i + ".pak").toPath();
+            byte[] header = new byte[2048];
+            random.nextBytes(header);
+            Files.write(pak, header);
+            paks.add(pak);
+            tables.add(TestPaks.randomTable(pak, 5000, random, i));
+        }
+        tree = PakTree.build(tables);
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        List<PakIndexCache.Fingerprint> fingerprints = fingerprints();
+        cache.write(fingerprints, tables, tree);
+        PakIndexCache.Snapshot snapshot = cache.open(paks);
+        assertNotNull(snapshot);
+        assertTrue(snapshot.matches(fingerprints));
+        PakTree read = snapshot.readTree(paks);
+        assertEquals(paks, read.getPaks());
+        assertEquals(tree.size(), read.size());
+        assertEquals(tree.getShadowedCount(), read.getShadowedCount());
+        assertEquals(TestPaks.listing(tree), TestPaks.listing(read));
+        for (int i = 0; i < paks.size(); i++) {
+            assertTable(tables.get(i), snapshot.readTable(paks.get(i), fingerprints.get(i)));
+        }
+    }
+
+    @Test
+    public void testChangedPak() throws IOException {
+        List<PakIndexCache.Fingerprint> fingerprints = fingerprints();
+        cache.write(fingerprints, tables, tree);
+        Path changed = paks.get(1);
+        //  Keep the size and modification time so that only the header checksum differs
+        FileTime modified = Files.getLastModifiedTime(changed);
+        try (FileChannel channel = FileChannel.open(changed, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{1, 2, 3, 4}), 0);
+        }
+        Files.setLastModifiedTime(changed, modified);
+        List<PakIndexCache.Fingerprint> current = fingerprints();
+        PakIndexCache.Snapshot snapshot = cache.open(paks);
+        assertNotNull(snapshot);
+        assertFalse(snapshot.matches(current));
+        assertNull(snapshot.readTable(changed, current.get(1)));
+        assertTable(tables.get(0), snapshot.readTable(paks.get(0), current.get(0)));
+        assertTable(tables.get(2), snapshot.readTable(paks.get(2), current.get(2)));
+    }
+
+    @Test
+    public void testMissingIndex() {
+        assertNull(cache.open(paks));
+        assertNull(cache.open(paks.subList(0, 2)));
+    }
+
+    @Test
+    public void testTruncatedIndex() throws IOException {
+        cache.write(fingerprints(), tables, tree);
+        Path index = indexFile();
+        byte[] bytes = Files.readAllBytes(index);
+        Files.write(index, Arrays.copyOf(bytes, bytes.length / 2));
+        assertNull(cache.open(paks));
+        Files.write(index, new byte[0]);
+        assertNull(cache.open(paks));
+    }
+
+    @Test
+    public void testRewriteWhileOpen() throws IOException {
+        cache.write(fingerprints(), tables, tree);
+        PakIndexCache.Snapshot old = cache.open(paks);
+        assertNotNull(old);
+        //  Replacing the index has to work while an earlier snapshot of it is still in use
+        List<PakTable> newTables = new ArrayList<>(tables);
+        newTables.set(2, TestPaks.randomTable(paks.get(2), 100, new Random(2), 9));
+        PakTree newTree = PakTree.build(newTables);
+        cache.write(fingerprints(), newTables, newTree);
+        PakIndexCache.Snapshot snapshot = cache.open(paks);
+        assertNotNull(snapshot);
+        assertEquals(TestPaks.listing(newTree), TestPaks.listing(snapshot.readTree(paks)));
+        assertEquals(TestPaks.listing(tree), TestPaks.listing(old.readTree(paks)));
+        assertEquals(1, indexFiles().size());
+    }
+
+    private List<PakIndexCache.Fingerprint> fingerprints() throws IOException {
+        List<PakIndexCache.Fingerprint> fingerprints = new ArrayList<>();
+        for (Path pak : paks) {
+            fingerprints.add(PakIndexCache.Fingerprint.of(pak));
+        }
+        return fingerprints;
+    }
+
+    private Path indexFile() throws IOException {
+        List<Path> files = indexFiles();
+        assertEquals(1, files.size());
+        return files.get(0);
+    }
+
+    private List<Path> indexFiles() throws IOException {
+        try (Stream<Path> files = Files.list(folder.getRoot().toPath().resolve("index"))) {
+            return files.collect(Collectors.toList());
+        }
+    }
+
+    private static void assertTable(PakTable expected, PakTable actual) {
+        assertNotNull(actual);
+        assertEquals(expected.path, actual.path);
+        assertArrayEquals(expected.names, actual.names);
+        assertArrayEquals(expected.diskOffsets, actual.diskOffsets);
+        assertArrayEquals(expected.compressedSizes, actual.compressedSizes);
+        assertArrayEquals(expected.decompressedSizes, actual.decompressedSizes);
+        assertArrayEquals(expected.diskSizes, actual.diskSizes);
+        assertArrayEquals(expected.unknowns, actual.unknowns);
+    }
+}
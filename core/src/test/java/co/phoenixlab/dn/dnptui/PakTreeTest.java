@@ -0,0 +1,117 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package co.phoenixlab.dn.dnptui;
+
+import org.junit.Test;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PakTreeTest {
+
+    @Test
+    public void testParallelBuildMatchesSerial() {
+        //  Large enough to be built in parallel
+        List<PakTable> tables = tables(6, 20000);
+        PakTree serial = PakTree.build(tables, 1);
+        String expected = TestPaks.listing(serial);
+        for (int threads : new int[]{2, 3, 8}) {
+            PakTree parallel = PakTree.build(tables, threads);
+            assertEquals(serial.size(), parallel.size());
+            assertEquals(serial.getShadowedCount(), parallel.getShadowedCount());
+            assertEquals(expected, TestPaks.listing(parallel));
+            //  Node ids depend on how the work was split up, but lookups have to find the same nodes
+            for (int node = 1; node < serial.size(); node += 7) {
+                Path path = Paths.get(serial.getPathString(node));
+                int expectedNode = serial.find(path);
+                int actualNode = parallel.find(path);
+                assertEquals(serial.getPathString(expectedNode), parallel.getPathString(actualNode));
+                assertEquals(serial.isDirectory(expectedNode), parallel.isDirectory(actualNode));
+                assertEquals(serial.getLocation(expectedNode), parallel.getLocation(actualNode));
+            }
+        }
+    }
+
+    @Test
+    public void testSmallSnapshotsKeepExistingNodes() {
+        checkSnapshots(tables(5, 2000));
+    }
+
+    @Test
+    public void testLargeSnapshotsKeepExistingNodes() {
+        checkSnapshots(tables(4, 20000));
+    }
+
+    /**
+     * Checks that building from more tables keeps every node of the tree built from fewer, in the same order, as the
+     * trees shown while a virtual pak is loading rely on
+     */
+    private static void checkSnapshots(List<PakTable> tables) {
+        PakTree previous = PakTree.build(tables.subList(0, 1));
+        for (int i = 2; i <= tables.size(); i++) {
+            PakTree next = PakTree.build(tables.subList(0, i));
+            assertTrue(next.size() > previous.size());
+            checkContains(previous, PakTree.ROOT, next, PakTree.ROOT);
+            previous = next;
+        }
+    }
+
+    private static void checkContains(PakTree smaller, int smallerDir, PakTree larger, int largerDir) {
+        int index = 0;
+        for (int i = 0; i < smaller.getChildCount(smallerDir); i++) {
+            int child = smaller.getChild(smallerDir, i);
+            //  Look for the child among the siblings after the last one found, so the order is checked too
+            int match = -1;
+            while (match < 0 && index < larger.getChildCount(largerDir)) {
+                int candidate = larger.getChild(largerDir, index++);
+                if (larger.getName(candidate).equals(smaller.getName(child)) &&
+                        larger.isDirectory(candidate) == smaller.isDirectory(child)) {
+                    match = candidate;
+                }
+            }
+            if (match < 0) {
+                fail(smaller.getPathString(child) + " is missing or out of order");
+            }
+            if (smaller.isDirectory(child)) {
+                checkContains(smaller, child, larger, match);
+            }
+        }
+    }
+
+    private static List<PakTable> tables(int count, int size) {
+        Random random = new Random(1);
+        List<PakTable> tables = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            tables.add(TestPaks.randomTable(Paths.get("Resource0" + i + ".pak"), size, random, i));
+        }
+        return tables;
+    }
+}
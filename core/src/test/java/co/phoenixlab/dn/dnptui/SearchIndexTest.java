@@ -0,0 +1,228 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package co.phoenixlab.dn.dnptui;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks {@link SearchIndex} against a plain scan over every path
+ */
+public class SearchIndexTest {
+
+    private static final String[] ELEMENTS = {"resource", "Resource", "mapdata", "char", "ui", "UI", "sound",
+            "effect", "npc", "weapon", "a", "b1", "x", "MainBar", "mainbar_over", "\uB9AC\uC18C\uC2A4",
+            "\u00C9t\u00E9"};
+    private static final String[] EXTENSIONS = {".dds", ".DDS", ".ani", ".skn", ".lua", ".ini", ""};
+
+    private List<String> paths;
+    private BitSet directories;
+    private SearchIndex index;
+    private Random random;
+
+    @Before
+    public void setUp() {
+        random = new Random(1);
+        paths = new ArrayList<>();
+        directories = new BitSet();
+        for (int i = 0; i < 20000; i++) {
+            StringBuilder path = new StringBuilder();
+            int depth = 1 + random.nextInt(5);
+            for (int d = 0; d < depth; d++) {
+                if (d > 0) {
+                    path.append(random.nextBoolean() ? '\\' : '/');
+                }
+                path.append(ELEMENTS[random.nextInt(ELEMENTS.length)]);
+                if (random.nextInt(3) == 0) {
+                    path.append(random.nextInt(100));
+                }
+            }
+            if (random.nextInt(4) == 0) {
+                directories.set(i);
+            } else {
+                path.append(EXTENSIONS[random.nextInt(EXTENSIONS.length)]);
+            }
+            paths.add(path.toString());
+        }
+        index = SearchIndex.build(paths, directories);
+    }
+
+    @Test
+    public void testDocuments() {
+        assertEquals(paths.size(), index.size());
+        for (int doc = 0; doc < paths.size(); doc++) {
+            assertEquals(paths.get(doc), index.getPath(doc));
+            assertEquals(directories.get(doc), index.isDirectory(doc));
+        }
+    }
+
+    @Test
+    public void testSubstring() {
+        for (String query : queries(false)) {
+            check(query, SearchIndex.Mode.SUBSTRING);
+        }
+    }
+
+    @Test
+    public void testPrefix() {
+        for (String query : queries(false)) {
+            check(query, SearchIndex.Mode.PREFIX);
+        }
+    }
+
+    @Test
+    public void testGlob() {
+        for (String query : queries(true)) {
+            check(query, SearchIndex.Mode.GLOB);
+        }
+    }
+
+    @Test
+    public void testCancelled() {
+        assertEquals(0, index.search("res", SearchIndex.Mode.SUBSTRING, doc -> {
+        }, () -> true));
+    }
+
+    private void check(String query, SearchIndex.Mode mode) {
+        List<Integer> expected = new ArrayList<>();
+        for (int doc = 0; doc < paths.size(); doc++) {
+            if (bruteForceMatches(paths.get(doc), query, mode)) {
+                expected.add(doc);
+            }
+        }
+        List<Integer> actual = new ArrayList<>();
+        int count = index.search(query, mode, actual::add, () -> false);
+        assertEquals(mode + " " + query, expected, actual);
+        assertEquals(expected.size(), count);
+    }
+
+    /**
+     * @return Queries taken from pieces of the indexed paths with their case changed, along with some that are too
+     * short to have trigrams or that match nothing. Glob queries have some characters replaced with wildcards.
+     */
+    private List<String> queries(boolean glob) {
+        List<String> queries = new ArrayList<>();
+        queries.add("");
+        queries.add("a");
+        queries.add("ui");
+        queries.add("\\");
+        queries.add("/ui/");
+        queries.add("nothing matches this");
+        queries.add("\u00E9T\u00C9");
+        if (glob) {
+            queries.add("*");
+            queries.add("*.dds");
+            queries.add("ui/*.dds");
+            queries.add("main*r?");
+            queries.add("r*\\c*\\*");
+        }
+        for (int i = 0; i < 300; i++) {
+            String path = paths.get(random.nextInt(paths.size()));
+            int start = random.nextInt(path.length());
+            int end = start + 1 + random.nextInt(Math.min(12, path.length() - start));
+            StringBuilder query = new StringBuilder();
+            for (int j = start; j < end; j++) {
+                char c = path.charAt(j);
+                int change = random.nextInt(10);
+                if (glob && change == 0) {
+                    query.append('*');
+                } else if (glob && change == 1) {
+                    query.append('?');
+                } else if (change < 5) {
+                    query.append(Character.toUpperCase(c));
+                } else {
+                    query.append(c);
+                }
+            }
+            queries.add(query.toString());
+        }
+        return queries;
+    }
+
+    /**
+     * Matches a query the slow way, following the rules given on {@link SearchIndex.Mode}
+     */
+    private static boolean bruteForceMatches(String path, String query, SearchIndex.Mode mode) {
+        if (query.isEmpty()) {
+            return false;
+        }
+        path = fold(path);
+        query = fold(query);
+        if (mode == SearchIndex.Mode.SUBSTRING) {
+            return path.contains(query);
+        }
+        List<String> candidates = new ArrayList<>();
+        if (query.contains("/")) {
+            //  The path from the start of each element to the end
+            candidates.add(path);
+            for (int i = 0; i < path.length(); i++) {
+                if (path.charAt(i) == '/') {
+                    candidates.add(path.substring(i + 1));
+                }
+            }
+        } else {
+            candidates.add(path.substring(path.lastIndexOf('/') + 1));
+        }
+        Pattern pattern = mode == SearchIndex.Mode.GLOB ? globPattern(query) : null;
+        for (String candidate : candidates) {
+            if (pattern == null ? candidate.startsWith(query) : pattern.matcher(candidate).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Pattern globPattern(String glob) {
+        StringBuilder regex = new StringBuilder();
+        for (char c : glob.toCharArray()) {
+            if (c == '*') {
+                regex.append(".*");
+            } else if (c == '?') {
+                regex.append('.');
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return Pattern.compile(regex.toString(), Pattern.DOTALL);
+    }
+
+    /**
+     * Lower cases each character on its own and turns backslashes into slashes
+     */
+    private static String fold(String s) {
+        StringBuilder folded = new StringBuilder(s.length());
+        for (char c : s.toCharArray()) {
+            folded.append(c == '\\' ? '/' : Character.toLowerCase(c));
+        }
+        return folded.toString();
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package co.phoenixlab.dn.dnptui;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class ShadowTableTest {
+
+    private static final int NODES = 1000;
+
+    private ShadowTable shadows;
+    /**
+     * The disk offsets added for each node, in the order they were added
+     */
+    private List<List<Integer>> expected;
+
+    @Before
+    public void setUp() {
+        shadows = new ShadowTable();
+        expected = new ArrayList<>();
+        for (int node = 0; node < NODES; node++) {
+            expected.add(new ArrayList<>());
+        }
+        Random random = new Random(1);
+        for (int i = 0; i < 5000; i++) {
+            //  Skewed so that some nodes have several copies and most have none
+            int node = (int) (Math.pow(random.nextDouble(), 3) * NODES);
+            shadows.add(node, (short) random.nextInt(50), i, i * 2, i * 3);
+            expected.get(node).add(i);
+        }
+    }
+
+    @Test
+    public void testLookupsWhileBuilding() {
+        assertEquals(5000, shadows.size());
+        check(shadows);
+    }
+
+    @Test
+    public void testLookupsOnceTrimmed() {
+        shadows.trim();
+        check(shadows);
+    }
+
+    @Test
+    public void testAddAll() {
+        ShadowTable combined = new ShadowTable();
+        //  Added first but numbered after every node of the appended table, so the table has to be sorted
+        combined.add(NODES + 5, (short) 0, 0, 0, 0);
+        combined.addAll(shadows, 0);
+        combined.trim();
+        assertEquals(5001, combined.size());
+        assertEquals(1, combined.count(NODES + 5));
+        check(combined);
+    }
+
+    @Test
+    public void testReadUnsorted() throws IOException {
+        //  Indexes written before the table was sorted on trim are sorted when read
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        shadows.write(new DataOutputStream(bytes));
+        check(ShadowTable.read(ByteBuffer.wrap(bytes.toByteArray())));
+    }
+
+    @Test
+    public void testWriteSorted() throws IOException {
+        shadows.trim();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        shadows.write(new DataOutputStream(bytes));
+        check(ShadowTable.read(ByteBuffer.wrap(bytes.toByteArray())));
+    }
+
+    private void check(ShadowTable table) {
+        for (int node = 0; node < NODES; node++) {
+            List<Integer> offsets = new ArrayList<>();
+            for (int index : table.find(node)) {
+                int offset = (int) table.getDiskOffset(index);
+                assertEquals(offset * 2, table.getCompressedSize(index));
+                assertEquals(offset * 3, table.getDecompressedSize(index));
+                offsets.add(offset);
+            }
+            assertEquals("node " + node, expected.get(node), offsets);
+            assertEquals("node " + node, expected.get(node).size(), table.count(node));
+        }
+        assertEquals(0, table.count(-1));
+        assertEquals(0, table.find(NODES + 100).length);
+    }
+}
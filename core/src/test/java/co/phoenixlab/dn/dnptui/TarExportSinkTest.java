@@ -0,0 +1,199 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package co.phoenixlab.dn.dnptui;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeNoException;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Writes archives with {@link TarExportSink} and reads them back with the system's tar, which is skipped if there
+ * isn't one.
+ */
+public class TarExportSinkTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path archive;
+
+    @Before
+    public void setUp() throws IOException {
+        assumeTrue("tar is not available", hasTar());
+        archive = folder.newFile("export.tar").toPath();
+    }
+
+    @Test
+    public void testEntries() throws Exception {
+        byte[] text = "Hello, world".getBytes(StandardCharsets.UTF_8);
+        byte[] block = randomBytes(512, 1);
+        byte[] random = randomBytes(100000, 2);
+        ByteBuffer direct = ByteBuffer.allocateDirect(random.length);
+        direct.put(random).flip();
+        try (TarExportSink sink = new TarExportSink(archive)) {
+            sink.createDirectories(Arrays.asList(Paths.get("resource"), Paths.get("resource", "ui")));
+            sink.write(Paths.get("resource", "ui", "text.txt"), ByteBuffer.wrap(text));
+            sink.write(Paths.get("resource", "block.bin"), ByteBuffer.wrap(block));
+            sink.write(Paths.get("direct.bin"), direct);
+            sink.write(Paths.get("empty.bin"), ByteBuffer.allocate(0));
+            //  Deflated data has to be inflated for tar
+            sink.writeDeflated(Paths.get("deflated.bin"), ZipExportSinkTest.deflate(random));
+        }
+        assertEquals(random.length, direct.remaining());
+        assertEquals(Arrays.asList("resource/", "resource/ui/", "resource/ui/text.txt", "resource/block.bin",
+                "direct.bin", "empty.bin", "deflated.bin"), list());
+        assertArrayEquals(text, extract("resource/ui/text.txt"));
+        assertArrayEquals(block, extract("resource/block.bin"));
+        assertArrayEquals(random, extract("direct.bin"));
+        assertArrayEquals(new byte[0], extract("empty.bin"));
+        assertArrayEquals(random, extract("deflated.bin"));
+    }
+
+    @Test
+    public void testLongNames() throws Exception {
+        StringBuilder dirs = new StringBuilder();
+        for (int i = 0; i < 4; i++) {
+            dirs.append("directory_with_a_rather_long_name_").append(i).append('/');
+        }
+        //  Fits by splitting it into the ustar prefix and name fields
+        String splitName = dirs + "file.dds";
+        //  The last element alone is too long for the name field, so this needs a pax header
+        String paxName = dirs + "file_with_a_name_that_is_longer_than_one_hundred_characters_all_by_itself_" +
+                "and_then_quite_a_bit_more_on_top.dds";
+        byte[] first = randomBytes(1000, 3);
+        byte[] second = randomBytes(1000, 4);
+        try (TarExportSink sink = new TarExportSink(archive)) {
+            sink.write(Paths.get(splitName), ByteBuffer.wrap(first));
+            sink.write(Paths.get(paxName), ByteBuffer.wrap(second));
+        }
+        assertEquals(Arrays.asList(splitName, paxName), list());
+        assertArrayEquals(first, extract(splitName));
+        assertArrayEquals(second, extract(paxName));
+    }
+
+    @Test
+    public void testNonAsciiNames() throws Exception {
+        String name = "\uB9AC\uC18C\uC2A4/ui/\uBA54\uC778\uBC14.dds";
+        byte[] data = randomBytes(1000, 5);
+        try (TarExportSink sink = new TarExportSink(archive)) {
+            sink.write(path(name), ByteBuffer.wrap(data));
+        }
+        //  Not listed, as how tar prints the name depends on the locale
+        assertArrayEquals(data, extract(name));
+    }
+
+    /**
+     * @return The names of the entries, in archive order
+     */
+    private List<String> list() throws IOException, InterruptedException {
+        String listing = new String(tar("-tf", archive.toString()), StandardCharsets.UTF_8);
+        return listing.isEmpty() ? Collections.emptyList() : Arrays.asList(listing.split("\n"));
+    }
+
+    /**
+     * @return The contents of an entry
+     */
+    private byte[] extract(String name) throws IOException, InterruptedException {
+        return tar("-xOf", archive.toString(), name);
+    }
+
+    /**
+     * Runs tar, failing if it doesn't succeed
+     *
+     * @return What tar wrote to stdout
+     */
+    private static byte[] tar(String... args) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add("tar");
+        command.addAll(Arrays.asList(args));
+        Process process = new ProcessBuilder(command)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = process.getInputStream()) {
+            byte[] buffer = new byte[65536];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        }
+        assertEquals("tar exit code", 0, process.waitFor());
+        return out.toByteArray();
+    }
+
+    private static boolean hasTar() {
+        try {
+            Process process = new ProcessBuilder("tar", "--version")
+                    .redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.PIPE)
+                    .start();
+            try (InputStream in = process.getInputStream()) {
+                while (in.read() != -1) {
+                    //  Drain the output so tar can exit
+                }
+            }
+            return process.waitFor() == 0;
+        } catch (IOException | InterruptedException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return The path, or skips the test if the platform can't represent it, as happens under a POSIX locale
+     */
+    private static Path path(String name) {
+        try {
+            return Paths.get(name);
+        } catch (InvalidPathException e) {
+            assumeNoException(e);
+            throw e;
+        }
+    }
+
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+}
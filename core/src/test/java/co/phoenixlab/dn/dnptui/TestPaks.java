@@ -0,0 +1,137 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package co.phoenixlab.dn.dnptui;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Builds pak tables without needing actual paks
+ */
+class TestPaks {
+
+    private TestPaks() {
+    }
+
+    /**
+     * Makes a table with the given entry names and made up offsets and sizes
+     *
+     * @param pak   The path of the pak the table belongs to, which doesn't have to exist
+     * @param names The raw entry names, as stored in a pak
+     * @param seed  Varies the offsets and sizes between tables
+     */
+    static PakTable table(Path pak, List<String> names, int seed) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            int size = names.size();
+            out.writeInt(size);
+            for (int column = 0; column < 5; column++) {
+                for (int i = 0; i < size; i++) {
+                    out.writeInt(seed * 1000000 + i * 5 + column);
+                }
+            }
+            for (String name : names) {
+                out.writeShort(name.getBytes(StandardCharsets.UTF_8).length);
+            }
+            for (String name : names) {
+                out.write(name.getBytes(StandardCharsets.UTF_8));
+            }
+            return PakTable.read(pak, ByteBuffer.wrap(bytes.toByteArray()));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Makes a table of random entries shaped like a client pak. Names are drawn from a small pool, so tables made
+     * this way overlap, and some names differ only by case, are empty, or collide with a directory.
+     *
+     * @param pak    The path of the pak the table belongs to, which doesn't have to exist
+     * @param size   The number of entries
+     * @param random The source of the names
+     * @param seed   Varies the offsets and sizes between tables
+     */
+    static PakTable randomTable(Path pak, int size, Random random, int seed) {
+        String[] top = {"resource", "mapdata", "Resource"};
+        String[] middle = {"char", "ui", "sound", "Char", "effect", "Etoile", "npc", "weapon"};
+        List<String> names = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            int kind = random.nextInt(100);
+            if (kind < 2) {
+                names.add("\\root" + random.nextInt(50) + ".txt");
+            } else if (kind < 4) {
+                //  A subfile with the same path as a directory
+                names.add("\\resource\\char");
+            } else if (kind < 5) {
+                names.add("\\resource\\ui\\sub" + random.nextInt(5));
+            } else if (kind < 6) {
+                names.add("");
+            } else {
+                names.add("\\" + top[random.nextInt(top.length)] + "\\" + middle[random.nextInt(middle.length)] +
+                        "\\sub" + random.nextInt(30) + "\\" + (random.nextBoolean() ? "F" : "f") + "ile" +
+                        random.nextInt(size / 10 + 1) + (random.nextInt(20) == 0 ? "\\deep" + random.nextInt(3) : "") +
+                        ".dds");
+            }
+        }
+        return table(pak, names, seed);
+    }
+
+    /**
+     * Lists every node of a tree in order, one per line, with everything the tree stores about it
+     */
+    static String listing(PakTree tree) {
+        StringBuilder builder = new StringBuilder();
+        list(tree, PakTree.ROOT, "", builder);
+        return builder.toString();
+    }
+
+    private static void list(PakTree tree, int dir, String indent, StringBuilder builder) {
+        for (int i = 0; i < tree.getChildCount(dir); i++) {
+            int child = tree.getChild(dir, i);
+            builder.append(indent).append(tree.getName(child));
+            if (tree.isDirectory(child)) {
+                DirectoryStats stats = tree.getStats(child);
+                builder.append("/ ").append(stats).append(' ').append(stats.extensions).append('\n');
+                list(tree, child, indent + " ", builder);
+            } else {
+                builder.append(' ').append(tree.getPakIndex(child))
+                        .append(' ').append(tree.getDiskOffset(child))
+                        .append(' ').append(tree.getCompressedSize(child))
+                        .append(' ').append(tree.getDecompressedSize(child))
+                        .append(' ').append(tree.getDiskSize(child))
+                        .append(' ').append(tree.getUnknown(child))
+                        .append(' ').append(tree.getShadowed(child))
+                        .append('\n');
+            }
+        }
+    }
+}
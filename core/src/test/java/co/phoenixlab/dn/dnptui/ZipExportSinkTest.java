@@ -0,0 +1,302 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package co.phoenixlab.dn.dnptui;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assume.assumeNoException;
+
+/**
+ * Writes archives with {@link ZipExportSink} and reads them back with the JDK's zip readers: {@link ZipFile}, which
+ * goes by the central directory, and {@link ZipInputStream}, which only sees the local headers.
+ */
+public class ZipExportSinkTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testStoredAndDeflatedEntries() throws IOException {
+        Path archive = folder.newFile("export.zip").toPath();
+        byte[] text = "Hello, world".getBytes(StandardCharsets.UTF_8);
+        byte[] random = randomBytes(100000, 1);
+        ByteBuffer direct = ByteBuffer.allocateDirect(random.length);
+        direct.put(random).flip();
+        try (ZipExportSink sink = new ZipExportSink(archive)) {
+            sink.createDirectories(Arrays.asList(Paths.get("resource"), Paths.get("resource", "ui")));
+            sink.write(Paths.get("resource", "ui", "text.txt"), ByteBuffer.wrap(text));
+            sink.writeDeflated(Paths.get("resource", "random.bin"), deflate(random));
+            sink.write(Paths.get("direct.bin"), direct);
+            sink.write(Paths.get("empty.bin"), ByteBuffer.allocate(0));
+            sink.writeDeflated(Paths.get("emptydeflated.bin"), deflate(new byte[0]));
+        }
+        //  Writing mustn't consume the caller's buffer
+        assertEquals(random.length, direct.remaining());
+        Map<String, byte[]> expected = new LinkedHashMap<>();
+        expected.put("resource/", new byte[0]);
+        expected.put("resource/ui/", new byte[0]);
+        expected.put("resource/ui/text.txt", text);
+        expected.put("resource/random.bin", random);
+        expected.put("direct.bin", random);
+        expected.put("empty.bin", new byte[0]);
+        expected.put("emptydeflated.bin", new byte[0]);
+        try (ZipFile zip = new ZipFile(archive.toFile())) {
+            assertEquals(expected.size(), zip.size());
+            for (Map.Entry<String, byte[]> entry : expected.entrySet()) {
+                ZipEntry zipEntry = zip.getEntry(entry.getKey());
+                assertNotNull(entry.getKey(), zipEntry);
+                assertEquals(entry.getKey(), entry.getKey().endsWith("/"), zipEntry.isDirectory());
+                assertArrayEquals(entry.getKey(), entry.getValue(), read(zip, zipEntry));
+            }
+            assertEquals(ZipEntry.STORED, zip.getEntry("resource/ui/text.txt").getMethod());
+            assertEquals(ZipEntry.DEFLATED, zip.getEntry("resource/random.bin").getMethod());
+        }
+        Map<String, byte[]> streamed = readStream(archive);
+        assertEquals(expected.keySet(), streamed.keySet());
+        for (Map.Entry<String, byte[]> entry : expected.entrySet()) {
+            assertArrayEquals(entry.getKey(), entry.getValue(), streamed.get(entry.getKey()));
+        }
+    }
+
+    @Test
+    public void testLongNames() throws IOException {
+        Path archive = folder.newFile("names.zip").toPath();
+        StringBuilder longName = new StringBuilder();
+        for (int i = 0; i < 5; i++) {
+            longName.append("directory_with_a_rather_long_name_").append(i).append('/');
+        }
+        longName.append("file_with_a_name_that_is_longer_than_one_hundred_characters_all_by_itself_")
+                .append("and_then_some_more.dds");
+        byte[] data = randomBytes(1000, 2);
+        try (ZipExportSink sink = new ZipExportSink(archive)) {
+            sink.write(Paths.get(longName.toString()), ByteBuffer.wrap(data));
+        }
+        try (ZipFile zip = new ZipFile(archive.toFile())) {
+            assertArrayEquals(data, read(zip, zip.getEntry(longName.toString())));
+        }
+        assertArrayEquals(data, readStream(archive).get(longName.toString()));
+    }
+
+    @Test
+    public void testNonAsciiNames() throws IOException {
+        Path archive = folder.newFile("korean.zip").toPath();
+        String name = "\uB9AC\uC18C\uC2A4/ui/\uBA54\uC778\uBC14.dds";
+        byte[] data = randomBytes(1000, 3);
+        try (ZipExportSink sink = new ZipExportSink(archive)) {
+            sink.writeDeflated(path(name), deflate(data));
+        }
+        try (ZipFile zip = new ZipFile(archive.toFile(), StandardCharsets.UTF_8)) {
+            assertArrayEquals(data, read(zip, zip.getEntry(name)));
+        }
+        assertArrayEquals(data, readStream(archive).get(name));
+    }
+
+    @Test
+    public void testMoreThan65535Entries() throws IOException {
+        Path archive = folder.newFile("many.zip").toPath();
+        int count = 70000;
+        try (ZipExportSink sink = new ZipExportSink(archive)) {
+            for (int i = 0; i < count; i++) {
+                byte[] data = Integer.toString(i).getBytes(StandardCharsets.US_ASCII);
+                Path path = Paths.get("dir" + i / 1000, "file" + i + ".txt");
+                if (i % 2 == 0) {
+                    sink.write(path, ByteBuffer.wrap(data));
+                } else {
+                    sink.writeDeflated(path, deflate(data));
+                }
+            }
+        }
+        try (ZipFile zip = new ZipFile(archive.toFile())) {
+            assertEquals(count, zip.size());
+            for (int i = 0; i < count; i += 997) {
+                ZipEntry entry = zip.getEntry("dir" + i / 1000 + "/file" + i + ".txt");
+                assertNotNull(entry);
+                assertEquals(Integer.toString(i), new String(read(zip, entry), StandardCharsets.US_ASCII));
+            }
+        }
+        Map<String, byte[]> streamed = readStream(archive);
+        assertEquals(count, streamed.size());
+        assertEquals("69999", new String(streamed.get("dir69/file69999.txt"), StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void testEntryLargerThan4Gb() throws IOException {
+        Path archive = folder.newFile("large.zip").toPath();
+        long size = (1L << 32) + 4097;
+        ExportSink.Deflated large = deflateZeros(size);
+        byte[] before = randomBytes(5000, 4);
+        byte[] after = randomBytes(5000, 5);
+        try (ZipExportSink sink = new ZipExportSink(archive)) {
+            sink.write(Paths.get("before.bin"), ByteBuffer.wrap(before));
+            sink.writeDeflated(Paths.get("large.bin"), large);
+            sink.write(Paths.get("after.bin"), ByteBuffer.wrap(after));
+        }
+        try (ZipFile zip = new ZipFile(archive.toFile())) {
+            ZipEntry entry = zip.getEntry("large.bin");
+            assertEquals(size, entry.getSize());
+            assertEquals(large.data.remaining(), entry.getCompressedSize());
+            assertEquals(large.crc, entry.getCrc());
+            //  Only the start is read back, inflating all of it takes too long
+            byte[] start = new byte[65536];
+            try (InputStream in = zip.getInputStream(entry)) {
+                int length = 0;
+                int read;
+                while (length < start.length && (read = in.read(start, length, start.length - length)) != -1) {
+                    length += read;
+                }
+                assertEquals(start.length, length);
+            }
+            assertArrayEquals(new byte[start.length], start);
+            assertArrayEquals(before, read(zip, zip.getEntry("before.bin")));
+            assertArrayEquals(after, read(zip, zip.getEntry("after.bin")));
+        }
+    }
+
+    /**
+     * @return The path, or skips the test if the platform can't represent it, as happens under a POSIX locale
+     */
+    private static Path path(String name) {
+        try {
+            return Paths.get(name);
+        } catch (InvalidPathException e) {
+            assumeNoException(e);
+            throw e;
+        }
+    }
+
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * Compresses data the way it is found in a pak, minus the zlib wrapper
+     */
+    static ExportSink.Deflated deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(data);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[65536];
+        while (!deflater.finished()) {
+            out.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.end();
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return new ExportSink.Deflated(ByteBuffer.wrap(out.toByteArray()), crc.getValue(), data.length);
+    }
+
+    /**
+     * Compresses size zero bytes without deflating all of them. A chunk compressed by a fresh deflater and ended with
+     * a full flush doesn't refer to anything before it, so it can be repeated as many times as needed.
+     */
+    private static ExportSink.Deflated deflateZeros(long size) {
+        byte[] zeros = new byte[16 * 1024 * 1024];
+        byte[] buffer = new byte[65536];
+        ByteArrayOutputStream chunk = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        deflater.setInput(zeros);
+        int length;
+        do {
+            length = deflater.deflate(buffer, 0, buffer.length, Deflater.FULL_FLUSH);
+            chunk.write(buffer, 0, length);
+        } while (length == buffer.length);
+        deflater.end();
+        long chunks = size / zeros.length;
+        int remainder = (int) (size % zeros.length);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CRC32 crc = new CRC32();
+        for (long i = 0; i < chunks; i++) {
+            out.write(chunk.toByteArray(), 0, chunk.size());
+            crc.update(zeros);
+        }
+        deflater = new Deflater(Deflater.BEST_SPEED, true);
+        deflater.setInput(zeros, 0, remainder);
+        deflater.finish();
+        while (!deflater.finished()) {
+            out.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.end();
+        crc.update(zeros, 0, remainder);
+        return new ExportSink.Deflated(ByteBuffer.wrap(out.toByteArray()), crc.getValue(), size);
+    }
+
+    private static byte[] read(ZipFile zip, ZipEntry entry) throws IOException {
+        try (InputStream in = zip.getInputStream(entry)) {
+            return readFully(in);
+        }
+    }
+
+    /**
+     * Reads every entry with a ZipInputStream
+     *
+     * @return The contents of each entry by name, in archive order
+     */
+    private static Map<String, byte[]> readStream(Path archive) throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        try (ZipInputStream in = new ZipInputStream(Files.newInputStream(archive), StandardCharsets.UTF_8)) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                entries.put(entry.getName(), readFully(in));
+            }
+        }
+        return entries;
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[65536];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
@@ -38,18 +38,15 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
 
 public class DNPTApplication extends Application {
 
-    public static final ScheduledExecutorService EXECUTOR_SERVICE;
+    /**
+     * Runs all of the UI's tasks, each in the lane that suits it
+     */
+    public static final TaskScheduler SCHEDULER = new TaskScheduler();
     private static final Logger LOGGER = LoggerFactory.getLogger(DNPTApplication.class);
 
-    static {
-        EXECUTOR_SERVICE = Executors.newScheduledThreadPool(2);
-    }
-
     public static void main(String[] args) {
         launch(args);
     }
@@ -60,7 +57,7 @@ public class DNPTApplication extends Application {
             String currentVersion = getClass().getPackage().getImplementationVersion();
             LOGGER.info("Starting DNPakToolUI v{}", currentVersion);
             //  Dispatch update checker
-            EXECUTOR_SERVICE.submit(new UpdateCheckTask(currentVersion));
+            SCHEDULER.execute(TaskScheduler.Lane.BACKGROUND, new UpdateCheckTask(currentVersion));
             //  Load the primary scene FXML
             FXMLLoader loader = new FXMLLoader(getClass().getResource("/co/phoenixlab/dn/dnptui/assets/scene.fxml"));
             Parent root = loader.load();
@@ -97,6 +94,8 @@ public class DNPTApplication extends Application {
     @Override
     public void stop() {
         LOGGER.info("Stopping DNPakToolUI");
+        LOGGER.info("Task lanes: {}", SCHEDULER);
+        SCHEDULER.shutdown();
         //  Nothing much to do here cleanup wise
         //  Stop application
         System.exit(0);
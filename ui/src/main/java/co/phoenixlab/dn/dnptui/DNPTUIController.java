@@ -29,12 +29,12 @@ import co.phoenixlab.dn.dnptui.fx.SpriteAnimation;
 import co.phoenixlab.dn.dnptui.viewers.Viewer;
 import co.phoenixlab.dn.dnptui.viewers.Viewers;
 import co.phoenixlab.dn.pak.DNPakTool;
-import co.phoenixlab.dn.pak.FileInfo;
 import javafx.animation.*;
 import javafx.application.Platform;
 import javafx.beans.binding.Bindings;
 import javafx.beans.property.*;
 import javafx.beans.value.ChangeListener;
+import javafx.beans.value.ObservableBooleanValue;
 import javafx.beans.value.ObservableValue;
 import javafx.concurrent.Task;
 import javafx.concurrent.Worker;
@@ -66,15 +66,10 @@ import org.slf4j.LoggerFactory;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.attribute.BasicFileAttributes;
 import java.util.List;
 import java.util.Optional;
-import java.util.function.BiPredicate;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 public class DNPTUIController {
 
@@ -95,6 +90,10 @@ public class DNPTUIController {
      * Path to the FXML for the exit dialog
      */
     public static final String EXIT_DIALOG_FXML_PATH = "/co/phoenixlab/dn/dnptui/assets/exitdialog.fxml";
+    /**
+     * Path to the FXML for the find dialog
+     */
+    public static final String FIND_DIALOG_FXML_PATH = "/co/phoenixlab/dn/dnptui/assets/finddialog.fxml";
     /**
      * Path to the navigation pane folder icon image
      */
@@ -145,10 +144,12 @@ public class DNPTUIController {
     @FXML private Button findBtn;
     @FXML private Button exportBtn;
     @FXML private Button exportFolderBtn;
+    @FXML private Button compareBtn;
     @FXML private Button closePakBtn;
     @FXML private ScrollPane navScrollPane;
     @FXML private BorderPane viewerPane;
     @FXML private TreeView<PakTreeEntry> treeView;
+    @FXML private Label navStatusLbl;
     @FXML private Label fileInfoLbl;
     /**
      * The folder icon used in the navigation pane. Shared instance
@@ -166,6 +167,10 @@ public class DNPTUIController {
      * Property tracking whether or not a pak is currently <b>not</b> loaded
      */
     private final BooleanProperty noPakLoadedProperty;
+    /**
+     * Property tracking whether paks are still being loaded into the displayed tree
+     */
+    private final BooleanProperty pakLoadingProperty;
     /**
      * Property tracking the type of item selected in the navigation pane
      */
@@ -190,6 +195,10 @@ public class DNPTUIController {
      * The active PakHandler, or null if no pak/virtual pak is loaded
      */
     private PakHandler handler;
+    /**
+     * The running pak load task, or null if none is running
+     */
+    private PakLoadTask pakLoadTask;
     /**
      * The current/last active file view load task
      */
@@ -203,15 +212,16 @@ public class DNPTUIController {
      */
     private Label subfileLoadingLabel;
     /**
-     * The synchronization object for loading subfiles to prevent loading multiple at the same time
+     * The find dialog, or null if it is not open
      */
-    private final Object loadLock;
+    private Stage findStage;
 
     /**
      * Constructs a new controller for the main interface. Invoked by the FXML loader
      */
     public DNPTUIController() {
         noPakLoadedProperty = new SimpleBooleanProperty(this, "noPakLoaded", true);
+        pakLoadingProperty = new SimpleBooleanProperty(this, "pakLoading", false);
         selectionTypeProperty = new SimpleObjectProperty<>(this, "selectionType", SelectionType.NONE);
         selectedProperty = new SimpleObjectProperty<>(this, "selected", null);
         openedFilePathProperty = new SimpleStringProperty(this, "openedFilePath", "No File");
@@ -219,7 +229,6 @@ public class DNPTUIController {
         lastOpenedDir = Paths.get(System.getProperty("user.dir"));
         currentLoadTask = Optional.empty();
         currentViewer = Optional.empty();
-        loadLock = new Object();
     }
 
     /**
@@ -245,19 +254,25 @@ public class DNPTUIController {
         ////////////////////////
         //  Property bindings //
         ////////////////////////
-        //  Disable the find button when no pak is loaded
-//        findBtn.disableProperty().bind(noPakLoadedProperty);
-        //  Find doesnt work, disable
-//        findBtn.setDisable(true);
+        //  Disable the find button when no pak is loaded or paks are still loading (no search index yet)
+        findBtn.disableProperty().bind(noPakLoadedProperty.or(pakLoadingProperty));
 
         //  Disable the export file button when no pak is loaded or the selection is not a file
         exportBtn.disableProperty().bind(noPakLoadedProperty.
                 or(selectionTypeProperty.isNotEqualTo(SelectionType.FILE)));
 
-        //  Disable the export folder button when no pak is loaded or the selection is not a directory
-        exportFolderBtn.disableProperty().bind(noPakLoadedProperty.
+        //  Disable the export folder button when no pak is loaded, paks are still loading (the directory may still
+        //  grow), or the selection is not a directory
+        exportFolderBtn.disableProperty().bind(noPakLoadedProperty.or(pakLoadingProperty).
                 or(selectionTypeProperty.isNotEqualTo(SelectionType.FOLDER)));
 
+        //  Show the loading status under the navigation tree while paks are still loading
+        navStatusLbl.visibleProperty().bind(pakLoadingProperty);
+        navStatusLbl.managedProperty().bind(pakLoadingProperty);
+
+        //  Disable the compare button when no pak is loaded or paks are still loading
+        compareBtn.disableProperty().bind(noPakLoadedProperty.or(pakLoadingProperty));
+
         //  Disable the close pak button when no pak is loaded
         closePakBtn.disableProperty().bind(noPakLoadedProperty);
 
@@ -288,20 +303,38 @@ public class DNPTUIController {
         treeView.setCellFactory(param -> new TreeCell<PakTreeEntry>() {
             ContextMenu contextMenu;
             MenuItem exportMenuItem;
+            MenuItem exportDirMenuItem;
+            MenuItem exportArchiveMenuItem;
+            MenuItem overriddenMenuItem;
             {
                 contextMenu = new ContextMenu();
-                exportMenuItem = new MenuItem();
-                contextMenu.getItems().addAll(exportMenuItem);
+                exportMenuItem = new MenuItem("Export File...");
+                exportMenuItem.setOnAction(ae -> exportFile(ae));
+                exportDirMenuItem = new MenuItem("Export Dir...");
+                exportDirMenuItem.setOnAction(ae -> exportFolder(ae));
+                //  Same as the export folder button, the directory may still grow
+                exportDirMenuItem.disableProperty().bind(pakLoadingProperty);
+                exportArchiveMenuItem = new MenuItem("Export to Archive...");
+                exportArchiveMenuItem.setOnAction(ae -> exportArchive());
+                //  Archive export walks the tree in the background, so wait until it stops growing
+                exportArchiveMenuItem.disableProperty().bind(pakLoadingProperty);
+                overriddenMenuItem = new MenuItem("Overridden Copies...");
+                overriddenMenuItem.setOnAction(ae -> showOverriddenCopies(getItem()));
+                contextMenu.getItems().addAll(exportMenuItem, exportDirMenuItem, exportArchiveMenuItem,
+                        overriddenMenuItem);
                 setOnMouseClicked(me -> {
                     if (me.getButton() == MouseButton.SECONDARY) {
                         //  Show context menu
                         PakTreeEntry item = getItem();
                         if (item != null && item.isDirectory()) {
-                            exportMenuItem.setText("Export Dir...");
-                            exportMenuItem.setOnAction(ae -> exportFolder(ae));
+                            exportMenuItem.setVisible(false);
+                            exportDirMenuItem.setVisible(true);
+                            overriddenMenuItem.setVisible(false);
                         } else {
-                            exportMenuItem.setText("Export File...");
-                            exportMenuItem.setOnAction(ae -> exportFile(ae));
+                            exportMenuItem.setVisible(true);
+                            exportDirMenuItem.setVisible(false);
+                            overriddenMenuItem.setVisible(true);
+                            overriddenMenuItem.setDisable(item == null || item.tree.getShadowedCount(item.node) == 0);
                         }
                         contextMenu.show(this, me.getScreenX(), me.getScreenY());
                     }
@@ -540,10 +573,11 @@ public class DNPTUIController {
         LOGGER.info("Attempting to load pak from {}", pakPath);
         lastOpenedDir = pakPath.getParent();
         openedFilePathProperty.set(pakPath.toString());
+        cancelPakLoad();
         resetProperties();
-        PakLoadTask pakLoadTask = new PakLoadTask(pakPath, this::onLoadFinished);
+        pakLoadTask = new PakLoadTask(pakPath, this::onLoadFinished);
         showLoadingPopup(pakLoadTask);
-        DNPTApplication.EXECUTOR_SERVICE.submit(pakLoadTask);
+        DNPTApplication.SCHEDULER.execute(TaskScheduler.Lane.BULK, pakLoadTask);
     }
 
     /**
@@ -570,15 +604,12 @@ public class DNPTUIController {
         LOGGER.info("Attempting to load virtual pak from directory {}", virtualPakDirPath);
         lastOpenedDir = virtualPakDirPath;
         openedFilePathProperty.set(virtualPakDirPath.toString() + " (Virtual)");
+        cancelPakLoad();
         resetProperties();
         //  Build path list
         List<Path> acceptedPakPaths;
-        //  Only accept files ending in .pak and not a directory
-        BiPredicate<Path, BasicFileAttributes> pakFilter = (p, a) -> p.getFileName().toString().endsWith(".pak");
-        pakFilter = pakFilter.and((p, a) -> !a.isDirectory());
-        pakFilter = pakFilter.and((p, a) -> p.getFileName().toString().startsWith("Resource"));
-        try (Stream<Path> matches = Files.find(virtualPakDirPath, 1, pakFilter)) {
-            acceptedPakPaths = matches.collect(Collectors.toList());
+        try {
+            acceptedPakPaths = PakLoader.findVirtualPaks(virtualPakDirPath);
         } catch (IOException e) {
             LOGGER.warn("Error while finding pak files in directory", e);
             //  TODO Error popup
@@ -586,9 +617,26 @@ public class DNPTUIController {
         }
         LOGGER.info("Found {} pak files to load", acceptedPakPaths.size());
         //  Create task
-        PakLoadTask virtualPakLoadTask = new PakLoadTask(acceptedPakPaths, this::onLoadFinished);
-        showLoadingPopup(virtualPakLoadTask);
-        DNPTApplication.EXECUTOR_SERVICE.submit(virtualPakLoadTask);
+        PakLoadTask virtualPakLoadTask = new PakLoadTask(acceptedPakPaths,
+                PakLoader.DEFAULT_LOAD_THREADS, this::onLoadFinished);
+        //  Show the tree as soon as the first pak is loaded instead of waiting for all of them
+        virtualPakLoadTask.setOnTreeAvailable(this::onTreeAvailable);
+        virtualPakLoadTask.addEventHandler(WorkerStateEvent.WORKER_STATE_FAILED, e -> onLoadFailed());
+        pakLoadTask = virtualPakLoadTask;
+        showLoadingPopup(virtualPakLoadTask, false, pakLoadingProperty);
+        DNPTApplication.SCHEDULER.execute(TaskScheduler.Lane.BULK, virtualPakLoadTask);
+    }
+
+    /**
+     * Cancels the running pak load task, if any
+     */
+    private void cancelPakLoad() {
+        if (pakLoadTask != null) {
+            pakLoadTask.cancel();
+            pakLoadTask = null;
+        }
+        navStatusLbl.textProperty().unbind();
+        pakLoadingProperty.set(false);
     }
 
     public void showLoadingPopup(Task task) {
@@ -596,6 +644,18 @@ public class DNPTUIController {
     }
 
     public void showLoadingPopup(Task task, boolean progress) {
+        showLoadingPopup(task, progress, null);
+    }
+
+    /**
+     * Shows a modal loading popup that is dismissed when the task finishes.
+     *
+     * @param task         The task to show the status of
+     * @param progress     Whether to show the task's progress
+     * @param dismissEarly Dismisses the popup while the task is still running once it becomes true, or null. Errors
+     *                     after that are left to the caller to report
+     */
+    public void showLoadingPopup(Task task, boolean progress, ObservableBooleanValue dismissEarly) {
         //  Create popup window
         Stage loadingStage = new Stage(StageStyle.TRANSPARENT);
         loadingStage.initOwner(stage);
@@ -644,7 +704,13 @@ public class DNPTUIController {
                 loadingStage.setX(newValue.doubleValue() + stage.getWidth() / 2 - loadingStage.getWidth() / 2);
         ChangeListener<Number> yPosListener = (observable, oldValue, newValue) ->
                 loadingStage.setY(newValue.doubleValue() + stage.getHeight() / 2 - loadingStage.getHeight() / 2);
-        EventHandler<WorkerStateEvent> okStateHandler = e ->
+        BooleanProperty dismissed = new SimpleBooleanProperty(false);
+        ChangeListener<Boolean> dismissEarlyListener = (observable, oldValue, newValue) -> {
+            if (newValue) {
+                dismissed.set(true);
+            }
+        };
+        dismissed.addListener((observable, oldValue, newValue) ->
                 FadeTransitionUtil.fadeTransitionOut(Duration.seconds(0.5D), loadingScene.getRoot(), () -> {
                     //  Stop animations, destroy window, remove listeners
                     spinnerAnimation.stop();
@@ -655,10 +721,23 @@ public class DNPTUIController {
                     }
                     stage.xProperty().removeListener(xPosListener);
                     stage.yProperty().removeListener(yPosListener);
-                }).play();
+                    if (dismissEarly != null) {
+                        dismissEarly.removeListener(dismissEarlyListener);
+                    }
+                }).play());
+        EventHandler<WorkerStateEvent> okStateHandler = e -> dismissed.set(true);
         task.setOnSucceeded(okStateHandler);
         task.setOnCancelled(okStateHandler);
+        if (dismissEarly != null) {
+            dismissEarly.addListener(dismissEarlyListener);
+        }
         task.setOnFailed(e -> {
+            if (dismissed.get()) {
+                return;
+            }
+            if (dismissEarly != null) {
+                dismissEarly.removeListener(dismissEarlyListener);
+            }
             spinnerAnimation.stop();
             loadingInfoLbl.textProperty().unbind();
             if (progress) {
@@ -698,6 +777,42 @@ public class DNPTUIController {
         yPosListener.changed(null, null, stage.getY());
     }
 
+    /**
+     * Called when the load task starts publishing paks into a tree that is still growing. The tree is shown right
+     * away so that loaded paks can be browsed while the rest load.
+     *
+     * @param handler  The handler created by the load task
+     * @param treeRoot The root TreeItem of the growing tree
+     */
+    public void onTreeAvailable(PakHandler handler, TreeItem<PakTreeEntry> treeRoot) {
+        closeFindDialog();
+        if (this.handler != null) {
+            this.handler.unload();
+        }
+        this.handler = handler;
+        treeView.setRoot(treeRoot);
+        treeRoot.setExpanded(true);
+        noPakLoadedProperty.set(false);
+        if (pakLoadTask != null) {
+            navStatusLbl.textProperty().bind(pakLoadTask.messageProperty());
+        }
+        pakLoadingProperty.set(true);
+        LOGGER.info("Showing file tree while paks load");
+    }
+
+    /**
+     * Called when the load task has failed. A tree that was already showing keeps the paks that loaded.
+     */
+    private void onLoadFailed() {
+        pakLoadTask = null;
+        if (pakLoadingProperty.get()) {
+            navStatusLbl.textProperty().unbind();
+            pakLoadingProperty.set(false);
+            fileInfoLbl.setText("Failed to load all paks, only the paks loaded so far are shown");
+            LOGGER.warn("Pak load failed, only some paks are shown");
+        }
+    }
+
     /**
      * Called when the load task has finished
      *
@@ -705,6 +820,15 @@ public class DNPTUIController {
      * @param treeRoot The root TreeItem built by the load task
      */
     public void onLoadFinished(PakHandler handler, TreeItem<PakTreeEntry> treeRoot) {
+        pakLoadTask = null;
+        if (handler == this.handler) {
+            //  The tree was already shown while loading
+            navStatusLbl.textProperty().unbind();
+            pakLoadingProperty.set(false);
+            LOGGER.info("Finished loading pak(s)");
+            return;
+        }
+        closeFindDialog();
         if (this.handler != null) {
             //  Unload the previous handler, if it existed
             this.handler.unload();
@@ -722,6 +846,13 @@ public class DNPTUIController {
         LOGGER.info("Finished loading pak(s)");
     }
 
+    /**
+     * @return The active PakHandler, or null if no pak/virtual pak is loaded
+     */
+    public PakHandler getPakHandler() {
+        return handler;
+    }
+
     /**
      * EventHandler for the find button. Shows a search dialog.
      *
@@ -729,7 +860,85 @@ public class DNPTUIController {
      */
     @FXML
     private void find(ActionEvent event) {
-        //  TODO Implement
+        if (findStage != null) {
+            findStage.toFront();
+            return;
+        }
+        if (handler == null || handler.getSearchIndex() == null) {
+            LOGGER.warn("find() called with no search index available");
+            return;
+        }
+        try {
+            //  Create a non-modal window so the tree can still be used while the dialog is open
+            Stage dialogStage = new Stage(StageStyle.TRANSPARENT);
+            dialogStage.initOwner(stage);
+            dialogStage.initModality(Modality.NONE);
+            dialogStage.setTitle("Find");
+            FXMLLoader findFxmlLoader = new FXMLLoader(getClass().getResource(FIND_DIALOG_FXML_PATH));
+            VBox findRoot = findFxmlLoader.load();
+            FindDialogController findController = findFxmlLoader.getController();
+            findController.setStage(dialogStage);
+            findController.setSearchIndex(handler.getSearchIndex());
+            findController.setShowAction(this::showInTree);
+            findController.setCloseAction(() -> findStage = null);
+            Scene findScene = new Scene(findRoot, Color.TRANSPARENT);
+            findScene.getStylesheets().add(STYLESHEET);
+            dialogStage.setScene(findScene);
+            findScene.getRoot().setOpacity(0D);
+            findStage = dialogStage;
+
+            //  Show window
+            dialogStage.show();
+
+            //  Center to main application stage
+            dialogStage.setX(stage.getX() + stage.getWidth() / 2 - dialogStage.getWidth() / 2);
+            dialogStage.setY(stage.getY() + stage.getHeight() / 2 - dialogStage.getHeight() / 2);
+
+            //  Fade in
+            FadeTransitionUtil.fadeTransitionIn(Duration.seconds(0.25D), findScene.getRoot()).
+                    play();
+            findController.focusQuery();
+        } catch (IOException e) {
+            LOGGER.warn("Error showing find dialog", e);
+        }
+    }
+
+    /**
+     * Closes the find dialog, if it is open
+     */
+    private void closeFindDialog() {
+        if (findStage != null) {
+            findStage.close();
+            findStage = null;
+        }
+    }
+
+    /**
+     * Selects the entry at the given path in the navigation pane, expanding its parents and scrolling it into view.
+     *
+     * @param path The full path of the entry to show
+     */
+    private void showInTree(String path) {
+        if (handler == null || treeView.getRoot() == null) {
+            return;
+        }
+        TreeItem<PakTreeEntry> item = ((PakTreeItem) treeView.getRoot()).find(Paths.get(path));
+        if (item == null) {
+            LOGGER.warn("Search result {} is not in the tree", path);
+            return;
+        }
+        for (TreeItem<PakTreeEntry> parent = item.getParent(); parent != null; parent = parent.getParent()) {
+            parent.setExpanded(true);
+        }
+        treeView.getSelectionModel().clearSelection();
+        treeView.getSelectionModel().select(item);
+        int row = treeView.getRow(item);
+        if (row >= 0) {
+            treeView.scrollTo(row);
+        }
+        //  Selection normally arrives through the cell, which may not exist yet if the row was offscreen
+        selectionTypeProperty.set(item.getValue().isDirectory() ? SelectionType.FOLDER : SelectionType.FILE);
+        selectedProperty.set(item);
     }
 
     /**
@@ -760,6 +969,21 @@ public class DNPTUIController {
 
     private void multiExport(TreeItem<PakTreeEntry>[] entries)
     {
+        //  Exporting a directory walks it in the background, so wait until it stops growing
+        if (pakLoadingProperty.get()) {
+            for (TreeItem<PakTreeEntry> entry : entries) {
+                if (entry.getValue() != null && entry.getValue().isDirectory()) {
+                    LOGGER.warn("Rejected multiexport of directory {} while paks are loading",
+                            entry.getValue().getPathString());
+                    Alert alert = new Alert(Alert.AlertType.WARNING);
+                    alert.initOwner(stage);
+                    alert.setTitle("Export");
+                    alert.setHeaderText("Directories can't be exported until every pak has loaded");
+                    alert.showAndWait();
+                    return;
+                }
+            }
+        }
         LOGGER.info("Requesting directory export for multiexport");
         //  Show directory chooser
         DirectoryChooser exportDirPathChooser = new DirectoryChooser();
@@ -773,7 +997,65 @@ public class DNPTUIController {
         }
         SubfileMultiExportTask exportTask = new SubfileMultiExportTask(handler, entries, exportDir.toPath());
         showLoadingPopup(exportTask);
-        DNPTApplication.EXECUTOR_SERVICE.submit(exportTask);
+        DNPTApplication.SCHEDULER.execute(TaskScheduler.Lane.BULK, exportTask);
+    }
+
+    /**
+     * Lists the copies of a subfile in earlier paks that the copy shown was loaded over.
+     */
+    private void showOverriddenCopies(PakTreeEntry entry) {
+        if (entry == null || entry.isDirectory()) {
+            return;
+        }
+        StringBuilder builder = new StringBuilder();
+        for (SubfileLocation location : entry.tree.getShadowed(entry.node)) {
+            builder.append(String.format("%s | Off 0x%08X | CmpSz 0x%08X | DcmSz 0x%08X%n",
+                    location.pak.getFileName(), location.diskOffset, location.compressedSize,
+                    location.decompressedSize));
+        }
+        Alert alert = new Alert(Alert.AlertType.INFORMATION);
+        alert.initOwner(stage);
+        alert.setTitle("Overridden Copies");
+        alert.setHeaderText(entry.getPathString() + " is read from " + entry.getLocation().pak.getFileName() +
+                ", overriding");
+        alert.setContentText(builder.toString());
+        alert.showAndWait();
+    }
+
+    /**
+     * Shows a file chooser for a zip or tar archive and exports the selected files and directories into it.
+     */
+    private void exportArchive() {
+        List<TreeItem<PakTreeEntry>> selected = treeView.getSelectionModel().getSelectedItems();
+        if (selected.isEmpty() || pakLoadingProperty.get()) {
+            return;
+        }
+        @SuppressWarnings("unchecked")
+        TreeItem<PakTreeEntry>[] entries = selected.toArray(new TreeItem[selected.size()]);
+        LOGGER.info("Requesting archive export for {} entries", entries.length);
+        FileChooser archiveChooser = new FileChooser();
+        archiveChooser.setTitle("Export to archive...");
+        archiveChooser.setInitialDirectory(lastOpenedDir.toFile());
+        archiveChooser.getExtensionFilters().addAll(
+                new FileChooser.ExtensionFilter("Zip archive", "*.zip"),
+                new FileChooser.ExtensionFilter("Tar archive", "*.tar"));
+        File archiveFile = archiveChooser.showSaveDialog(stage);
+        //  User hit cancel
+        if (archiveFile == null) {
+            LOGGER.debug("Archive export cancelled by user");
+            return;
+        }
+        Path archivePath = archiveFile.toPath();
+        String fileName = archivePath.getFileName().toString().toLowerCase();
+        if (!fileName.endsWith(".zip") && !fileName.endsWith(".tar")) {
+            //  Use the extension of the chosen filter
+            String extension = archiveChooser.getSelectedExtensionFilter() != null ?
+                    archiveChooser.getSelectedExtensionFilter().getExtensions().get(0).substring(1) : ".zip";
+            archivePath = archivePath.resolveSibling(archivePath.getFileName().toString() + extension);
+        }
+        SubfileMultiExportTask exportTask = new SubfileMultiExportTask(handler, entries, archivePath, true);
+        showLoadingPopup(exportTask, true);
+        DNPTApplication.SCHEDULER.execute(TaskScheduler.Lane.BULK, exportTask);
     }
 
     /**
@@ -792,7 +1074,7 @@ public class DNPTUIController {
             LOGGER.warn("Attempted to export invalid entry {}", selectedPakTreeEntry);
             return;
         }
-        LOGGER.info("Requesting export for {}", selectedPakTreeEntry.path);
+        LOGGER.info("Requesting export for {}", selectedPakTreeEntry.getPathString());
         //  Show file chooser
         FileChooser exportFilePathChooser = new FileChooser();
         exportFilePathChooser.setTitle("Export as...");
@@ -806,7 +1088,7 @@ public class DNPTUIController {
         }
         SubfileExportTask exportTask = new SubfileExportTask(handler, entry, exportFile.toPath(), false);
         showLoadingPopup(exportTask);
-        DNPTApplication.EXECUTOR_SERVICE.submit(exportTask);
+        DNPTApplication.SCHEDULER.execute(TaskScheduler.Lane.BULK, exportTask);
     }
 
     /**
@@ -842,7 +1124,13 @@ public class DNPTUIController {
             LOGGER.warn("Attempted to directory export invalid entry {}", selectedDirPakTreeEntry);
             return;
         }
-        LOGGER.info("Requesting directory export for {}", selectedDirPakTreeEntry.path);
+        //  The directory may still grow while paks are loading, and the export walks it in the background
+        if (pakLoadingProperty.get()) {
+            LOGGER.warn("Attempted to directory export {} while paks are loading",
+                    selectedDirPakTreeEntry.getPathString());
+            return;
+        }
+        LOGGER.info("Requesting directory export for {}", selectedDirPakTreeEntry.getPathString());
         //  Show directory chooser
         DirectoryChooser exportDirPathChooser = new DirectoryChooser();
         exportDirPathChooser.setTitle("Export into...");
@@ -855,9 +1143,52 @@ public class DNPTUIController {
         }
         SubfileExportTask exportTask = new SubfileExportTask(handler, entry, exportDir.toPath(), true);
         showLoadingPopup(exportTask, true);
-        DNPTApplication.EXECUTOR_SERVICE.submit(exportTask);
+        DNPTApplication.SCHEDULER.execute(TaskScheduler.Lane.BULK, exportTask);
     }
 
+    /**
+     * EventHandler for the compare button. Shows a directory chooser for another installation's paks to compare the
+     * loaded paks against, then one for where to export the changes.
+     *
+     * @param event The button click event
+     */
+    @FXML
+    private void comparePaks(ActionEvent event) {
+        if (handler == null || pakLoadingProperty.get()) {
+            return;
+        }
+        DirectoryChooser oldDirChooser = new DirectoryChooser();
+        oldDirChooser.setTitle("Compare against paks in...");
+        oldDirChooser.setInitialDirectory(lastOpenedDir.toFile());
+        File oldDir = oldDirChooser.showDialog(stage);
+        //  User hit cancel
+        if (oldDir == null) {
+            LOGGER.debug("Compare cancelled by user");
+            return;
+        }
+        DirectoryChooser exportDirPathChooser = new DirectoryChooser();
+        exportDirPathChooser.setTitle("Export changes into...");
+        exportDirPathChooser.setInitialDirectory(lastOpenedDir.toFile());
+        File exportDir = exportDirPathChooser.showDialog(stage);
+        if (exportDir == null) {
+            LOGGER.debug("Compare cancelled by user");
+            return;
+        }
+        LOGGER.info("Comparing loaded paks against {}", oldDir);
+        PakDiffTask diffTask = new PakDiffTask(handler, oldDir.toPath(), exportDir.toPath());
+        //  The export may take long enough that the popup's "Done" goes unnoticed, so show the summary until dismissed
+        diffTask.addEventHandler(WorkerStateEvent.WORKER_STATE_SUCCEEDED, e -> {
+            Alert alert = new Alert(Alert.AlertType.INFORMATION);
+            alert.initOwner(stage);
+            alert.setTitle("Compare");
+            alert.setHeaderText("Compared against " + oldDir.getName());
+            alert.setContentText(diffTask.getValue() + System.lineSeparator() + "Changes were exported to " +
+                    exportDir + ", see " + PakDiffTask.REPORT_NAME);
+            alert.show();
+        });
+        showLoadingPopup(diffTask, true);
+        DNPTApplication.SCHEDULER.execute(TaskScheduler.Lane.BULK, diffTask);
+    }
 
     /**
      * EventHandler for the close pak button. Closes the open pak file/virtual pak.
@@ -874,6 +1205,8 @@ public class DNPTUIController {
      */
     public void closePak() {
         LOGGER.info("Closing currently loaded pak(s)");
+        cancelPakLoad();
+        closeFindDialog();
         resetProperties();
         openedFilePathProperty.setValue("No File");
         treeView.setRoot(null);
@@ -881,7 +1214,6 @@ public class DNPTUIController {
             this.handler.unload();
             this.handler = null;
         }
-        System.gc();
     }
 
     /**
@@ -948,25 +1280,29 @@ public class DNPTUIController {
 
                 //  Notify viewer that we are about to start loading data
                 viewer.onLoadStart(newValue);
-                LOGGER.debug("Selection changed to {}", entry.path);
+                LOGGER.debug("Selection changed to {}", entry.getPathString());
                 //  Entry is not an empty entry and is not a directory
                 if (!entry.isDirectory()) {
                     //  Set up file information bar
-                    FileInfo fileInfo = entry.entry.getFileInfo();
+                    SubfileLocation location = entry.getLocation();
                     fileInfoLbl.setText(String.format("CmpSz 0x%08X | DskSz 0x%08X | " +
                             "DcmSz 0x%08X | Off 0x%08X | Unk 0x%08X | Parent %s",
-                        fileInfo.getCompressedSize(),
-                        fileInfo.getDiskSize(),
-                        fileInfo.getDecompressedSize(),
-                        fileInfo.getDiskOffset(),
-                        fileInfo.getUnknown(),
-                        entry.parent.getPath().getFileName().toString()));
+                        location.compressedSize,
+                        entry.tree.getDiskSize(entry.node),
+                        location.decompressedSize,
+                        location.diskOffset,
+                        entry.tree.getUnknown(entry.node),
+                        location.pak.getFileName().toString()));
+                    int overridden = entry.tree.getShadowedCount(entry.node);
+                    if (overridden > 0) {
+                        fileInfoLbl.setText(fileInfoLbl.getText() + " | Overrides " + overridden);
+                    }
                 } else {
                     fileInfoLbl.setText("Directory");
                 }
 
                 //  Set up loading task
-                Task<Void> task = new SubfileLoadTask(entry, viewer::parse, loadLock, TEMP_DIR);
+                Task<Void> task = new SubfileLoadTask(entry, handler, viewer::parse, TEMP_DIR);
                 //  Wire up event handlers for display updates
                 task.setOnRunning(e -> subfileLoadingLabel.textProperty().bind(task.messageProperty()));
                 task.setOnSucceeded(e -> {
@@ -993,7 +1329,7 @@ public class DNPTUIController {
                 });
                 //  Update the current task and submit for execution
                 currentLoadTask = Optional.of(task);
-                DNPTApplication.EXECUTOR_SERVICE.submit(task);
+                DNPTApplication.SCHEDULER.execute(TaskScheduler.Lane.INTERACTIVE, task);
                 return;
             }
         }
@@ -0,0 +1,182 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package co.phoenixlab.dn.dnptui;
+
+import co.phoenixlab.dn.dnptui.fx.FadeTransitionUtil;
+import javafx.animation.PauseTransition;
+import javafx.event.ActionEvent;
+import javafx.fxml.FXML;
+import javafx.scene.control.ComboBox;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListView;
+import javafx.scene.control.TextField;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.MouseButton;
+import javafx.scene.layout.VBox;
+import javafx.stage.Stage;
+import javafx.util.Duration;
+
+import java.util.Optional;
+import java.util.function.Consumer;
+
+public class FindDialogController {
+
+    @FXML private VBox root;
+    @FXML private TextField queryFld;
+    @FXML private ComboBox<SearchIndex.Mode> modeBox;
+    @FXML private ListView<String> resultsList;
+    @FXML private Label statusLbl;
+
+    private Stage stage;
+    private SearchIndex index;
+    private Consumer<String> showAction;
+    private Runnable closeAction;
+    /**
+     * The current/last search task
+     */
+    private Optional<SearchTask> currentTask;
+    /**
+     * Delays searching until the user stops typing
+     */
+    private PauseTransition debounce;
+    private double xOff;
+    private double yOff;
+
+    public FindDialogController() {
+        currentTask = Optional.empty();
+    }
+
+    @FXML
+    private void initialize() {
+        modeBox.getItems().addAll(SearchIndex.Mode.values());
+        modeBox.getSelectionModel().select(SearchIndex.Mode.SUBSTRING);
+        debounce = new PauseTransition(Duration.millis(150));
+        debounce.setOnFinished(e -> search());
+        queryFld.textProperty().addListener((observable, oldValue, newValue) -> debounce.playFromStart());
+        modeBox.valueProperty().addListener((observable, oldValue, newValue) -> search());
+        queryFld.setOnKeyPressed(ke -> {
+            if (ke.getCode() == KeyCode.DOWN && !resultsList.getItems().isEmpty()) {
+                resultsList.requestFocus();
+                resultsList.getSelectionModel().selectFirst();
+            } else if (ke.getCode() == KeyCode.ESCAPE) {
+                onCloseBtn(null);
+            }
+        });
+        resultsList.setOnMouseClicked(me -> {
+            if (me.getButton() == MouseButton.PRIMARY && me.getClickCount() == 2) {
+                showSelected();
+            }
+        });
+        resultsList.setOnKeyPressed(ke -> {
+            if (ke.getCode() == KeyCode.ENTER) {
+                showSelected();
+            }
+        });
+        //  Window is undecorated, allow dragging it around by its background
+        root.setOnMousePressed(me -> {
+            xOff = stage.getX() - me.getScreenX();
+            yOff = stage.getY() - me.getScreenY();
+        });
+        root.setOnMouseDragged(me -> {
+            stage.setX(me.getScreenX() + xOff);
+            stage.setY(me.getScreenY() + yOff);
+        });
+    }
+
+    public void setStage(Stage stage) {
+        this.stage = stage;
+    }
+
+    public void setSearchIndex(SearchIndex index) {
+        this.index = index;
+        statusLbl.setText(String.format("%,d entries indexed", index.size()));
+    }
+
+    /**
+     * @param showAction Called with the path of a result when the user picks it
+     */
+    public void setShowAction(Consumer<String> showAction) {
+        this.showAction = showAction;
+    }
+
+    /**
+     * @param closeAction Called after the dialog has closed
+     */
+    public void setCloseAction(Runnable closeAction) {
+        this.closeAction = closeAction;
+    }
+
+    /**
+     * Focuses the query field, selecting its current contents
+     */
+    public void focusQuery() {
+        queryFld.requestFocus();
+        queryFld.selectAll();
+    }
+
+    /**
+     * Cancels the running query, if any, and dispatches a new one for the current query and mode
+     */
+    private void search() {
+        debounce.stop();
+        currentTask.ifPresent(SearchTask::cancel);
+        currentTask = Optional.empty();
+        statusLbl.textProperty().unbind();
+        resultsList.getItems().clear();
+        String query = queryFld.getText();
+        if (index == null || query == null || query.isEmpty()) {
+            statusLbl.setText(index == null ? "" : String.format("%,d entries indexed", index.size()));
+            return;
+        }
+        SearchTask task = new SearchTask(index, query, modeBox.getValue(), resultsList.getItems()::addAll);
+        statusLbl.setText("Searching");
+        task.setOnSucceeded(e -> statusLbl.setText(task.getMessage()));
+        task.setOnFailed(e -> {
+            DNPTUIController.LOGGER.warn("Search failed", task.getException());
+            statusLbl.setText("Search failed: " + task.getException());
+        });
+        currentTask = Optional.of(task);
+        DNPTApplication.SCHEDULER.execute(TaskScheduler.Lane.INTERACTIVE, task);
+    }
+
+    private void showSelected() {
+        String path = resultsList.getSelectionModel().getSelectedItem();
+        if (path != null && showAction != null) {
+            showAction.accept(path);
+        }
+    }
+
+    @FXML
+    private void onCloseBtn(ActionEvent event) {
+        debounce.stop();
+        currentTask.ifPresent(SearchTask::cancel);
+        FadeTransitionUtil.fadeTransitionOut(Duration.seconds(0.125D), root, () -> {
+            stage.close();
+            if (closeAction != null) {
+                closeAction.run();
+            }
+        }).play();
+    }
+}
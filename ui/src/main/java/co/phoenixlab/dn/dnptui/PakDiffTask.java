@@ -0,0 +1,105 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package co.phoenixlab.dn.dnptui;
+
+import javafx.concurrent.Task;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Loads another installation's paks in the background, compares the loaded paks against them with {@link PakDiff},
+ * and exports a report of the differences along with every added and modified subfile. The other installation is
+ * never shown, and is unloaded again once the comparison is done.
+ */
+public class PakDiffTask extends Task<PakDiff.Result> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PakDiffTask.class);
+
+    /**
+     * Name of the report written into the export directory
+     */
+    public static final String REPORT_NAME = "changes.txt";
+
+    private final PakHandler handler;
+    private final Path oldDir;
+    private final Path exportPath;
+
+    /**
+     * @param handler    The loaded paks, taken as the new version
+     * @param oldDir     The directory of the paks to compare against, taken as the old version
+     * @param exportPath The directory to write the report and the changed subfiles into
+     */
+    public PakDiffTask(PakHandler handler, Path oldDir, Path exportPath) {
+        this.handler = handler;
+        this.oldDir = oldDir;
+        this.exportPath = exportPath;
+    }
+
+    @Override
+    protected PakDiff.Result call() throws Exception {
+        updateMessage("Loading " + oldDir.getFileName());
+        List<Path> paks = PakLoader.findVirtualPaks(oldDir);
+        if (paks.isEmpty()) {
+            throw new IOException("No paks found in " + oldDir);
+        }
+        //  Nothing to show until the load is done, so there's no need to go through a PakLoadTask
+        PakLoader loader = new PakLoader(paks, PakLoader.DEFAULT_LOAD_THREADS,
+                PakIndexCache.ENABLED ? new PakIndexCache(PakIndexCache.DEFAULT_DIR) : null, new PakLoader.Listener() {
+                    @Override
+                    public void message(String message) {
+                        updateMessage(message);
+                    }
+                });
+        PakHandler oldHandler = new PakHandler(loader.load());
+        try {
+            updateMessage("Comparing");
+            PakDiff.Result result = new PakDiff(oldHandler, handler).compare(this::updateProgress);
+            Files.createDirectories(exportPath);
+            result.writeReport(exportPath.resolve(REPORT_NAME));
+            List<ExportJob> jobs = new ArrayList<>();
+            Set<Path> dirs = new LinkedHashSet<>();
+            handler.collectExportJobs(result.getChanged(), exportPath, jobs, dirs);
+            updateMessage(String.format("Exporting %,d changed files", jobs.size()));
+            handler.exportAll(jobs, dirs, this::updateProgress);
+            LOGGER.info("Compared against {}: {}", oldDir, result);
+            updateMessage("Done");
+            return result;
+        } finally {
+            oldHandler.unload();
+        }
+    }
+
+    private void updateProgress(double d) {
+        updateProgress(d, 1D);
+    }
+}
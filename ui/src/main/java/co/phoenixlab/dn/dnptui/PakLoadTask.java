@@ -0,0 +1,287 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package co.phoenixlab.dn.dnptui;
+
+import javafx.application.Platform;
+import javafx.concurrent.Task;
+import javafx.scene.control.TreeItem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Loads a pak or virtual pak with a {@link PakLoader} and creates the TreeItems for the navigation pane
+ */
+public class PakLoadTask extends Task<PakLoadTask.Tuple> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PakLoadTask.class);
+
+    private final List<Path> paths;
+    private final int loadThreads;
+    /**
+     * Index cache to load from and update, or null to always read every pak
+     */
+    private final PakIndexCache indexCache;
+    private final BiConsumer<PakHandler, TreeItem<PakTreeEntry>> onDone;
+    /**
+     * Called on the FX thread with the still-growing tree once loading starts, or null to only hand the tree over
+     * once every pak is loaded
+     */
+    private BiConsumer<PakHandler, TreeItem<PakTreeEntry>> onTreeAvailable;
+    /**
+     * Tables loaded so far, in path order, while the tree is shown during loading
+     */
+    private final List<PakTable> loadedTables = new ArrayList<>();
+    /**
+     * Whether a snapshot of the loaded tables is waiting to be built. Guarded by loadedTables
+     */
+    private boolean snapshotPending;
+    /**
+     * The most recently published tree and the number of paks it was built from, while the tree is shown during
+     * loading. Only accessed from the snapshot thread and, once it has finished, the task thread
+     */
+    private PakTree published;
+    private int publishedPaks;
+
+    public PakLoadTask(Path path, BiConsumer<PakHandler, TreeItem<PakTreeEntry>> onDone) {
+        this(Collections.singletonList(path), 1, onDone);
+    }
+
+    public PakLoadTask(List<Path> paths, BiConsumer<PakHandler, TreeItem<PakTreeEntry>> onDone) {
+        this(paths, 1, onDone);
+    }
+
+    public PakLoadTask(List<Path> paths, int loadThreads, BiConsumer<PakHandler, TreeItem<PakTreeEntry>> onDone) {
+        this.paths = paths;
+        this.loadThreads = loadThreads;
+        this.onDone = onDone;
+        this.indexCache = PakIndexCache.ENABLED ? new PakIndexCache(PakIndexCache.DEFAULT_DIR) : null;
+    }
+
+    /**
+     * Displays the tree while paks are still loading. When set and more than one pak has to be read, an empty tree is
+     * handed to the given callback as soon as loading starts. Whenever more paks have loaded, in path order, a new
+     * tree is built from them off the FX thread, and the displayed TreeItems are then moved over to it on the FX
+     * thread. onDone is still called with the same handler and root once everything is loaded. Must be set before
+     * the task is started.
+     *
+     * @param onTreeAvailable Called on the FX thread with the handler and root TreeItem of the growing tree
+     */
+    public void setOnTreeAvailable(BiConsumer<PakHandler, TreeItem<PakTreeEntry>> onTreeAvailable) {
+        this.onTreeAvailable = onTreeAvailable;
+    }
+
+    @Override
+    protected Tuple call() throws Exception {
+        try {
+            long startTime = System.nanoTime();
+            PakLoader loader = new PakLoader(paths, loadThreads, indexCache, new PakLoader.Listener() {
+                @Override
+                public void message(String message) {
+                    updateMessage(message);
+                }
+
+                @Override
+                public void progress(long done, long total) {
+                    updateProgress(done, total);
+                }
+            });
+            PakTree tree = loader.openIndexed();
+            PakHandler handler = null;
+            PakTreeItem root = null;
+            if (tree == null) {
+                Consumer<PakTable> onLoaded = table -> {};
+                boolean streaming = onTreeAvailable != null && paths.size() > 1;
+                ExecutorService snapshotExecutor = null;
+                if (streaming) {
+                    //  Hand the tree over empty and publish a new tree whenever more paks have loaded
+                    tree = PakTree.build(Collections.emptyList());
+                    handler = new PakHandler(tree);
+                    root = populate(tree);
+                    PakHandler streamHandler = handler;
+                    PakTreeItem streamRoot = root;
+                    Platform.runLater(() -> {
+                        if (!isCancelled()) {
+                            onTreeAvailable.accept(streamHandler, streamRoot);
+                        }
+                    });
+                    snapshotExecutor = Executors.newSingleThreadExecutor(r -> {
+                        Thread thread = new Thread(r, "PakLoadTask-Snapshot");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                    ExecutorService executor = snapshotExecutor;
+                    onLoaded = table -> queueSnapshot(executor, streamHandler, streamRoot, table);
+                }
+                List<PakTable> tables;
+                try {
+                    tables = loader.loadTables(onLoaded);
+                } finally {
+                    if (snapshotExecutor != null) {
+                        //  Let the last snapshot finish, after which published is no longer written to
+                        snapshotExecutor.shutdown();
+                        snapshotExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+                    }
+                }
+                if (isCancelled()) {
+                    return null;
+                }
+                if (streaming && publishedPaks == tables.size()) {
+                    //  The last snapshot already holds every pak
+                    tree = published;
+                } else {
+                    updateMessage("Building file tree");
+                    LOGGER.info("Building file tree");
+                    tree = PakTree.build(tables);
+                    if (streaming) {
+                        publishAndWait(handler, root, tree);
+                        if (isCancelled()) {
+                            return null;
+                        }
+                    }
+                }
+                loader.writeIndex(tables, tree);
+            }
+            LOGGER.info("File tree ready in {} ms", (System.nanoTime() - startTime) / 1000000L);
+            if (handler == null) {
+                handler = new PakHandler(tree);
+                root = populate(tree);
+            }
+            updateMessage("Building search index");
+            handler.buildSearchIndex();
+            updateMessage("Done");
+            Tuple tuple = new Tuple();
+            tuple.handler = handler;
+            tuple.root = root;
+            LOGGER.info("Pak load job completed");
+            return tuple;
+        } catch (Exception e) {
+            if (isCancelled()) {
+                LOGGER.info("Pak load cancelled");
+                return null;
+            }
+            LOGGER.warn("Failed to load pak(s)", e);
+            throw e;
+        }
+    }
+
+    /**
+     * Creates the tree structure for the navigation pane of all the loaded files. Only the root TreeItem is created
+     * up front; the rest are created as directories are expanded.
+     *
+     * @return The TreeItem representing the root of the tree, directory "" (empty string).
+     */
+    private PakTreeItem populate(PakTree tree) {
+        PakTreeItem root = new PakTreeItem(tree, tree.getEntry(PakTree.ROOT));
+        LOGGER.info("File tree holds {} entries, approx. {} KB", tree.size(), tree.sizeInBytes() / 1024);
+        return root;
+    }
+
+    /**
+     * Records a loaded pak and, unless a snapshot is already waiting to be built, queues one. Paks that finish
+     * loading while a snapshot is being built are all included in the next one.
+     */
+    private void queueSnapshot(ExecutorService executor, PakHandler handler, PakTreeItem root, PakTable table) {
+        synchronized (loadedTables) {
+            loadedTables.add(table);
+            if (snapshotPending) {
+                return;
+            }
+            snapshotPending = true;
+        }
+        executor.execute(() -> publishSnapshot(handler, root));
+    }
+
+    /**
+     * Builds a tree from every pak loaded so far and publishes it, waiting until the FX thread has shown it so that
+     * the next snapshot doesn't start before this one is on screen. Runs on the snapshot thread.
+     */
+    private void publishSnapshot(PakHandler handler, PakTreeItem root) {
+        List<PakTable> tables;
+        synchronized (loadedTables) {
+            tables = new ArrayList<>(loadedTables);
+            snapshotPending = false;
+        }
+        //  The tree is unloaded once the load is cancelled
+        if (isCancelled()) {
+            return;
+        }
+        try {
+            long start = System.nanoTime();
+            PakTree snapshot = PakTree.build(tables);
+            LOGGER.debug("Built tree of {} pak(s) in {} ms", tables.size(), (System.nanoTime() - start) / 1000000L);
+            publishAndWait(handler, root, snapshot);
+            published = snapshot;
+            publishedPaks = tables.size();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | RuntimeException e) {
+            LOGGER.warn("Unable to publish the paks loaded so far", e);
+        }
+    }
+
+    /**
+     * Hands a newer tree to the handler and moves the displayed TreeItems over to it on the FX thread, and waits
+     * until that is done
+     */
+    private void publishAndWait(PakHandler handler, PakTreeItem root, PakTree tree)
+            throws InterruptedException, ExecutionException {
+        FutureTask<Void> publish = new FutureTask<>(() -> {
+            if (!isCancelled()) {
+                long start = System.nanoTime();
+                handler.publish(tree);
+                root.rebind(tree);
+                LOGGER.debug("Published tree of {} entries in {} ms", tree.size(),
+                        (System.nanoTime() - start) / 1000000L);
+            }
+        }, null);
+        Platform.runLater(publish);
+        publish.get();
+    }
+
+    @Override
+    protected void succeeded() {
+        Tuple tuple = getValue();
+        onDone.accept(tuple.handler, tuple.root);
+    }
+
+    class Tuple {
+        PakHandler handler;
+        TreeItem<PakTreeEntry> root;
+    }
+
+}
+
@@ -0,0 +1,179 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package co.phoenixlab.dn.dnptui;
+
+import javafx.collections.ObservableList;
+import javafx.scene.control.TreeItem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * A TreeItem backed by a PakTree node that only creates its children's TreeItems the first time they are asked for,
+ * which is usually when the directory is expanded in the navigation pane. Like all TreeItems, it must only be used
+ * from the FX thread once it is attached to a TreeView.
+ */
+public class PakTreeItem extends TreeItem<PakTreeEntry> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PakTreeItem.class);
+
+    /**
+     * The tree this item's node belongs to, replaced by {@link #rebind(PakTree)} while paks are loading
+     */
+    private PakTree tree;
+    private boolean childrenLoaded;
+
+    public PakTreeItem(PakTree tree, PakTreeEntry entry) {
+        super(entry);
+        this.tree = tree;
+    }
+
+    /**
+     * @return The id of this item's node in the PakTree
+     */
+    public int getNode() {
+        return getValue().node;
+    }
+
+    @Override
+    public boolean isLeaf() {
+        int node = getNode();
+        return !tree.isDirectory(node) || tree.getChildCount(node) == 0;
+    }
+
+    /**
+     * Moves this item and every item created below it over to a tree built from more paks while they are still
+     * loading, inserting items for the new children of directories whose children have already been created. Every
+     * node of the current tree must also be in the new tree, in the same order relative to its siblings, which
+     * {@link PakTree#build(List, int)} guarantees as long as the new tree was built from the same paks plus some more.
+     * Must be called on the root item, on the FX thread.
+     *
+     * @param newTree The tree built from the paks loaded so far
+     */
+    public void rebind(PakTree newTree) {
+        rebind(newTree, PakTree.ROOT);
+    }
+
+    private void rebind(PakTree newTree, int newNode) {
+        tree = newTree;
+        setValue(newTree.getEntry(newNode));
+        if (!childrenLoaded) {
+            return;
+        }
+        ObservableList<TreeItem<PakTreeEntry>> items = super.getChildren();
+        int childCount = newTree.getChildCount(newNode);
+        int index = 0;
+        int i = 0;
+        //  Existing items are in the same relative order as the node's children, so this is a single merge pass
+        while (i < childCount) {
+            PakTreeItem next = index < items.size() ? (PakTreeItem) items.get(index) : null;
+            int child = newTree.getChild(newNode, i);
+            if (next != null && next.isSameEntry(newTree, child)) {
+                next.rebind(newTree, child);
+                ++index;
+                ++i;
+                continue;
+            }
+            //  Insert each run of new children in one change
+            List<TreeItem<PakTreeEntry>> run = new ArrayList<>();
+            while (i < childCount && (next == null || !next.isSameEntry(newTree, newTree.getChild(newNode, i)))) {
+                run.add(new PakTreeItem(newTree, newTree.getEntry(newTree.getChild(newNode, i))));
+                ++i;
+            }
+            items.addAll(index, run);
+            index += run.size();
+        }
+        if (index < items.size()) {
+            //  Only happens if the new tree wasn't built from the same paks
+            LOGGER.warn("{} items under {} are not in the new tree", items.size() - index, getValue().getPathString());
+            items.remove(index, items.size());
+        }
+    }
+
+    /**
+     * @return Whether a node of another tree has the same name and type as this item's node
+     */
+    private boolean isSameEntry(PakTree other, int otherNode) {
+        PakTreeEntry entry = getValue();
+        return entry.isDirectory() == other.isDirectory(otherNode) && entry.name.equals(other.getName(otherNode));
+    }
+
+    /**
+     * Finds the TreeItem found at path, or null if the path does not exist, creating it and its parents' TreeItems
+     * if they haven't been yet. Must be called on the root item, on the FX thread.
+     *
+     * @param path The path of the TreeItem to find
+     * @return The TreeItem at path, or null if no such element exists
+     */
+    public TreeItem<PakTreeEntry> find(Path path) {
+        int node = tree.find(path);
+        if (node < 0) {
+            return null;
+        }
+        Deque<Integer> ancestors = new ArrayDeque<>();
+        for (int n = node; n != PakTree.ROOT; n = tree.getParent(n)) {
+            ancestors.push(n);
+        }
+        TreeItem<PakTreeEntry> item = this;
+        while (!ancestors.isEmpty()) {
+            int next = ancestors.pop();
+            TreeItem<PakTreeEntry> found = null;
+            for (TreeItem<PakTreeEntry> child : item.getChildren()) {
+                if (child.getValue().node == next) {
+                    found = child;
+                    break;
+                }
+            }
+            if (found == null) {
+                return null;
+            }
+            item = found;
+        }
+        return item;
+    }
+
+    @Override
+    public ObservableList<TreeItem<PakTreeEntry>> getChildren() {
+        if (!childrenLoaded) {
+            childrenLoaded = true;
+            PakTreeEntry entry = getValue();
+            int node = entry.node;
+            if (tree.isDirectory(node)) {
+                int childCount = tree.getChildCount(node);
+                List<TreeItem<PakTreeEntry>> items = new ArrayList<>(childCount);
+                for (int i = 0; i < childCount; i++) {
+                    items.add(new PakTreeItem(tree, tree.getEntry(tree.getChild(node, i))));
+                }
+                super.getChildren().setAll(items);
+            }
+        }
+        return super.getChildren();
+    }
+}
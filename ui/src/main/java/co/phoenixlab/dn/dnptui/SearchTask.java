@@ -0,0 +1,117 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package co.phoenixlab.dn.dnptui;
+
+import javafx.application.Platform;
+import javafx.concurrent.Task;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Runs a query against a SearchIndex off the FX thread, handing matches to the FX thread in batches as they are
+ * found rather than all at once at the end.
+ */
+public class SearchTask extends Task<Integer> {
+
+    /**
+     * Maximum number of results to report for a single query. Can be overridden with the
+     * co.phoenixlab.dn.dnptui.search.max system property
+     */
+    public static final int MAX_RESULTS = Integer.getInteger("co.phoenixlab.dn.dnptui.search.max", 10000);
+
+    /**
+     * Minimum time between batches
+     */
+    private static final long FLUSH_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private final SearchIndex index;
+    private final String query;
+    private final SearchIndex.Mode mode;
+    private final Consumer<List<String>> onResults;
+
+    private List<String> batch;
+    private long lastFlush;
+    private int reported;
+
+    /**
+     * @param index     The index to search
+     * @param query     The query
+     * @param mode      How the query is matched
+     * @param onResults Receives each batch of matching paths, on the FX thread
+     */
+    public SearchTask(SearchIndex index, String query, SearchIndex.Mode mode, Consumer<List<String>> onResults) {
+        this.index = index;
+        this.query = query;
+        this.mode = mode;
+        this.onResults = onResults;
+    }
+
+    @Override
+    protected Integer call() throws Exception {
+        long start = System.nanoTime();
+        batch = new ArrayList<>();
+        lastFlush = start;
+        reported = 0;
+        int matches = index.search(query, mode, doc -> {
+            if (reported < MAX_RESULTS) {
+                ++reported;
+                batch.add(index.getPath(doc));
+                long now = System.nanoTime();
+                if (now - lastFlush >= FLUSH_INTERVAL_NANOS) {
+                    flush();
+                    lastFlush = now;
+                }
+            }
+        }, this::isCancelled);
+        flush();
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        if (matches > reported) {
+            updateMessage(String.format("%,d matches in %,d ms (showing first %,d)", matches, elapsedMs, reported));
+        } else {
+            updateMessage(String.format("%,d matches in %,d ms", matches, elapsedMs));
+        }
+        return matches;
+    }
+
+    /**
+     * Hands the pending batch to the FX thread, unless this task has been cancelled
+     */
+    private void flush() {
+        if (batch.isEmpty() || isCancelled()) {
+            return;
+        }
+        List<String> results = batch;
+        batch = new ArrayList<>();
+        Platform.runLater(() -> {
+            //  A newer query may have replaced this one since the batch was queued
+            if (!isCancelled()) {
+                onResults.accept(results);
+            }
+        });
+    }
+}
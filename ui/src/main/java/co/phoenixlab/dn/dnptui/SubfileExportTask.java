@@ -49,7 +49,7 @@ public class SubfileExportTask extends Task<Void> {
         updateMessage("Exporting...");
         long startTime = System.currentTimeMillis();
         if (exportAsFolder) {
-            handler.exportDirectory(treeItem, exportPath, this::updateProgress);
+            handler.exportDirectory(treeItem.getValue(), exportPath, this::updateProgress);
         } else {
             handler.exportFile(treeItem.getValue(), exportPath);
         }
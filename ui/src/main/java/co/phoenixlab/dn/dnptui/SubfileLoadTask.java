@@ -24,31 +24,24 @@
 
 package co.phoenixlab.dn.dnptui;
 
-import co.phoenixlab.dn.pak.FileInfo;
 import javafx.concurrent.Task;
 
-import java.io.ByteArrayOutputStream;
-import java.io.OutputStream;
 import java.nio.ByteBuffer;
-import java.nio.channels.Channels;
 import java.nio.channels.ClosedByInterruptException;
-import java.nio.channels.ClosedChannelException;
-import java.nio.channels.WritableByteChannel;
 import java.nio.file.Path;
 import java.util.function.Consumer;
-import java.util.zip.InflaterOutputStream;
 
 public class SubfileLoadTask extends Task<Void> {
 
     private final PakTreeEntry entry;
+    private final PakHandler handler;
     private final Consumer<ByteBuffer> consumer;
-    private final Object loadLock;
     private final Path tempDir;
 
-    public SubfileLoadTask(PakTreeEntry entry, Consumer<ByteBuffer> consumer, Object loadLock, Path tempDir) {
+    public SubfileLoadTask(PakTreeEntry entry, PakHandler handler, Consumer<ByteBuffer> consumer, Path tempDir) {
         this.entry = entry;
+        this.handler = handler;
         this.consumer = consumer;
-        this.loadLock = loadLock;
         this.tempDir = tempDir;
     }
 
@@ -61,43 +54,16 @@ public class SubfileLoadTask extends Task<Void> {
             if (entry.isDirectory()) {
                 return null;
             }
-            FileInfo fileInfo = entry.entry.getFileInfo();
-            if (isCancelled()) {
-                return null;
-            }
             updateMessage("Extracting subfile");
-            ByteArrayOutputStream bao = new ByteArrayOutputStream((int) Math.max(
-                    fileInfo.getDecompressedSize(),
-                    fileInfo.getCompressedSize()));
-            OutputStream out = new InflaterOutputStream(bao);
-            WritableByteChannel writableByteChannel = Channels.newChannel(out);
-            do {
+            ByteBuffer buffer;
+            try {
+                buffer = handler.extract(entry);
+            } catch (ClosedByInterruptException cbie) {
                 if (isCancelled()) {
                     return null;
                 }
-                synchronized (loadLock) {
-                    try {
-                        entry.parent.openIfNotOpen();
-                        entry.parent.transferTo(entry.entry.getFileInfo(), writableByteChannel);
-                        break;
-                    } catch (ClosedByInterruptException cbie) {
-                        if (isCancelled()) {
-                            return null;
-                        }
-                    } catch (ClosedChannelException ex) {
-                        entry.parent.reopen();
-                    }
-                }
-            } while (true);
-            if (isCancelled()) {
-                return null;
+                throw cbie;
             }
-            out.flush();
-            updateMessage("Processing subfile");
-            byte[] decompressedBytes = bao.toByteArray();
-            ByteBuffer buffer = ByteBuffer.allocate(decompressedBytes.length);
-            buffer.put(decompressedBytes);
-            buffer.flip();
             if (isCancelled()) {
                 return null;
             }
@@ -105,8 +71,8 @@ public class SubfileLoadTask extends Task<Void> {
             consumer.accept(buffer);
             updateMessage("Done");
         } catch (Exception e) {
-            System.err.println("exception while loading " + entry.entry.getFileInfo().getFullPath() + " in " +
-                    entry.parent.getPath().getFileName().toString());
+            System.err.println("exception while loading " + entry.getPathString() + " in " +
+                    entry.getLocation().pak.getFileName().toString());
             e.printStackTrace();
         }
         return null;
@@ -28,36 +28,52 @@ import javafx.concurrent.Task;
 import javafx.scene.control.TreeItem;
 
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 
 public class SubfileMultiExportTask extends Task<Void> {
 
     private final PakHandler handler;
     private final TreeItem<PakTreeEntry>[] treeItems;
     private final Path exportPath;
+    /**
+     * Whether exportPath is a zip or tar archive to export into, rather than a directory
+     */
+    private final boolean archive;
 
 
     public SubfileMultiExportTask(PakHandler handler, TreeItem<PakTreeEntry>[] treeItems, Path exportPath) {
+        this(handler, treeItems, exportPath, false);
+    }
+
+    public SubfileMultiExportTask(PakHandler handler, TreeItem<PakTreeEntry>[] treeItems, Path exportPath,
+                                  boolean archive) {
         this.treeItems = treeItems;
         this.exportPath = exportPath;
         this.handler = handler;
+        this.archive = archive;
     }
 
     @Override
     protected Void call() throws Exception {
         updateMessage("Exporting...");
         long startTime = System.currentTimeMillis();
-        int i = 0;
+        List<PakTreeEntry> entries = new ArrayList<>(treeItems.length);
         for (TreeItem<PakTreeEntry> treeItem : treeItems) {
-            PakTreeEntry value = treeItem.getValue();
-            if (value.isDirectory()) {
-                updateMessage(String.format("Exporting folder %s (%d/%d)",
-                    value.name, i, treeItems.length));
-                handler.exportDirectory(treeItem, exportPath.resolve(value.path), this::updateProgress);
-            } else {
-                updateMessage(String.format("Exporting file %s (%d/%d)",
-                    value.name, i, treeItems.length));
-                handler.exportFile(value, exportPath.resolve(value.path));
-            }
+            entries.add(treeItem.getValue());
+        }
+        if (archive) {
+            updateMessage("Exporting to archive");
+            handler.exportArchive(entries, exportPath, this::updateProgress);
+        } else {
+            //  Gather everything first so the whole selection can be exported in pak order
+            List<ExportJob> jobs = new ArrayList<>();
+            Set<Path> dirs = new LinkedHashSet<>();
+            handler.collectExportJobs(entries, exportPath, jobs, dirs);
+            updateMessage(String.format("Exporting %,d files", jobs.size()));
+            handler.exportIncremental(jobs, dirs, exportPath, this::updateProgress);
         }
         //  Add a sleep if we took less than 1s because people dont notice it completed
         long delta = System.currentTimeMillis() - startTime;
@@ -0,0 +1,252 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Vincent Zhang/PhoenixLAB
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package co.phoenixlab.dn.dnptui;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the UI's tasks in separate lanes, so that a long export can't hold up a preview. Each lane has its own
+ * threads and its own bounded queue:
+ * <ul>
+ * <li>{@link Lane#INTERACTIVE} for work the user is waiting on, such as subfile previews and searches. Its threads
+ * run at a higher priority than every other thread the UI starts.</li>
+ * <li>{@link Lane#BULK} for pak loading and exports, one thread per core at a lower priority. Threads started by a
+ * bulk task, such as an export's pipeline, inherit its priority.</li>
+ * <li>{@link Lane#BACKGROUND} for work nobody is waiting on, such as the update check, on a single thread at the
+ * lowest priority.</li>
+ * </ul>
+ * Each lane's thread count can be set with the co.phoenixlab.dn.dnptui.lane.&lt;lane&gt;.threads system property,
+ * e.g. co.phoenixlab.dn.dnptui.lane.bulk.threads. A task submitted to a lane whose queue is full is cancelled, if it
+ * is a Future, and logged instead of queued.
+ */
+public class TaskScheduler {
+
+    /**
+     * Logger
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(TaskScheduler.class);
+
+    /**
+     * How long idle lane threads are kept around
+     */
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    public enum Lane {
+        INTERACTIVE(2, Thread.NORM_PRIORITY + 2, 64),
+        BULK(Runtime.getRuntime().availableProcessors(), Thread.NORM_PRIORITY - 1, 256),
+        BACKGROUND(1, Thread.MIN_PRIORITY, 256);
+
+        final int threads;
+        final int priority;
+        final int queueCapacity;
+
+        Lane(int defaultThreads, int priority, int queueCapacity) {
+            this.threads = Math.max(1, Integer.getInteger("co.phoenixlab.dn.dnptui.lane." +
+                    name().toLowerCase(Locale.ROOT) + ".threads", defaultThreads));
+            this.priority = priority;
+            this.queueCapacity = queueCapacity;
+        }
+    }
+
+    private final Map<Lane, LaneExecutor> lanes;
+    /**
+     * Only hands delayed tasks over to their lane when they are due, so it never runs a task itself
+     */
+    private final ScheduledExecutorService timer;
+
+    public TaskScheduler() {
+        lanes = new EnumMap<>(Lane.class);
+        for (Lane lane : Lane.values()) {
+            lanes.put(lane, new LaneExecutor(lane));
+        }
+        timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "Lane-Timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Queues a task to run on a lane. JavaFX Tasks should be passed as they are rather than wrapped, so that they
+     * can be cancelled if the lane is full.
+     *
+     * @param lane The lane to run the task on
+     * @param task The task
+     */
+    public void execute(Lane lane, Runnable task) {
+        LaneExecutor executor = lanes.get(lane);
+        executor.execute(task);
+        executor.recordQueueDepth();
+    }
+
+    /**
+     * Queues a task to run on a lane after a delay
+     *
+     * @param lane  The lane to run the task on
+     * @param task  The task
+     * @param delay How long to wait before queueing the task
+     * @param unit  The unit of delay
+     * @return A future that can be used to cancel the task before it is queued
+     */
+    public ScheduledFuture<?> schedule(Lane lane, Runnable task, long delay, TimeUnit unit) {
+        return timer.schedule(() -> execute(lane, task), delay, unit);
+    }
+
+    /**
+     * @return The number of tasks waiting in a lane's queue
+     */
+    public int getQueueDepth(Lane lane) {
+        return lanes.get(lane).getQueue().size();
+    }
+
+    /**
+     * @return The most tasks that have been waiting in a lane's queue at once
+     */
+    public int getMaxQueueDepth(Lane lane) {
+        return lanes.get(lane).maxQueueDepth.get();
+    }
+
+    /**
+     * @return The number of tasks a lane is running
+     */
+    public int getActiveCount(Lane lane) {
+        return lanes.get(lane).getActiveCount();
+    }
+
+    /**
+     * @return The number of tasks a lane has finished running
+     */
+    public long getCompletedCount(Lane lane) {
+        return lanes.get(lane).getCompletedTaskCount();
+    }
+
+    /**
+     * @return The number of tasks a lane turned away because its queue was full
+     */
+    public long getRejectedCount(Lane lane) {
+        return lanes.get(lane).rejected.get();
+    }
+
+    /**
+     * Stops accepting tasks. Tasks already queued still run.
+     */
+    public void shutdown() {
+        timer.shutdown();
+        for (LaneExecutor executor : lanes.values()) {
+            executor.shutdown();
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (Lane lane : Lane.values()) {
+            if (builder.length() > 0) {
+                builder.append(", ");
+            }
+            builder.append(String.format("%s: %d queued (max %d), %d running, %d completed, %d rejected",
+                    lane.name().toLowerCase(Locale.ROOT), getQueueDepth(lane), getMaxQueueDepth(lane), getActiveCount(lane),
+                    getCompletedCount(lane), getRejectedCount(lane)));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * A lane's thread pool
+     */
+    private static class LaneExecutor extends ThreadPoolExecutor {
+
+        final AtomicInteger maxQueueDepth = new AtomicInteger();
+        final AtomicLong rejected = new AtomicLong();
+
+        LaneExecutor(Lane lane) {
+            super(lane.threads, lane.threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(lane.queueCapacity));
+            AtomicInteger threadCounter = new AtomicInteger();
+            String prefix = lane.name().charAt(0) + lane.name().substring(1).toLowerCase() + "-";
+            setThreadFactory(r -> {
+                Thread thread = new Thread(r, prefix + threadCounter.incrementAndGet());
+                thread.setDaemon(true);
+                thread.setPriority(lane.priority);
+                return thread;
+            });
+            setRejectedExecutionHandler(new Rejecter(lane));
+            //  Idle lanes don't need to keep their threads
+            allowCoreThreadTimeOut(true);
+        }
+
+        void recordQueueDepth() {
+            maxQueueDepth.accumulateAndGet(getQueue().size(), Math::max);
+        }
+
+        @Override
+        protected void afterExecute(Runnable r, Throwable t) {
+            super.afterExecute(r, t);
+            //  Futures, including JavaFX Tasks, keep their own exceptions; anything else would otherwise go unseen
+            if (t != null) {
+                LOGGER.warn("Uncaught exception in " + Thread.currentThread().getName(), t);
+            }
+        }
+    }
+
+    /**
+     * Cancels tasks that don't fit in a lane's queue, so that whoever is waiting on them finds out
+     */
+    private static class Rejecter implements RejectedExecutionHandler {
+
+        private final Lane lane;
+
+        Rejecter(Lane lane) {
+            this.lane = lane;
+        }
+
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            ((LaneExecutor) executor).rejected.incrementAndGet();
+            if (executor.isShutdown()) {
+                LOGGER.debug("Dropped task submitted to the {} lane after shutdown", lane);
+            } else {
+                LOGGER.warn("The {} lane's queue is full ({} tasks), dropping task", lane, lane.queueCapacity);
+            }
+            if (r instanceof Future) {
+                ((Future<?>) r).cancel(false);
+            }
+        }
+    }
+}
@@ -24,11 +24,16 @@
 
 package co.phoenixlab.dn.dnptui.viewers;
 
+import co.phoenixlab.dn.dnptui.DirectoryStats;
 import co.phoenixlab.dn.dnptui.PakTreeEntry;
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
 import javafx.scene.Group;
 import javafx.scene.Node;
 import javafx.scene.control.Label;
 import javafx.scene.control.TreeItem;
+import javafx.scene.layout.GridPane;
+import javafx.scene.layout.VBox;
 
 import java.nio.ByteBuffer;
 
@@ -36,15 +41,17 @@ public class DefaultViewer implements Viewer {
 
     private boolean isDirectory;
     private boolean isBlank;
-    private int children;
+    private DirectoryStats stats;
 
     private final Group EMPTY_GROUP;
     private final Label NO_ITEM_SELECTED;
     private final Label CANT_DECODE;
+    private final Label COUNTING;
 
     public DefaultViewer() {
         EMPTY_GROUP = new Group();
         NO_ITEM_SELECTED = new Label("No file selected");
+        COUNTING = new Label("Counting\u2026");
         CANT_DECODE = new Label("No decoder registered for file. Export this file to view in another editor.");
     }
 
@@ -54,8 +61,7 @@ public class DefaultViewer implements Viewer {
             return NO_ITEM_SELECTED;
         } else {
             if (isDirectory) {
-                //  TODO
-                return new Label(String.format("%,d children", children));
+                return stats == null ? COUNTING : createStatsDisplay();
             } else {
                 //  TODO
                 return CANT_DECODE;
@@ -63,13 +69,37 @@ public class DefaultViewer implements Viewer {
         }
     }
 
-    private int countChildren(TreeItem<PakTreeEntry> entry) {
-        int counter = 0;
-        for (TreeItem<PakTreeEntry> child : entry.getChildren()) {
-            ++counter;
-            counter += countChildren(child);
+    private Node createStatsDisplay() {
+        Label summary = new Label(String.format("%,d files in %,d directories%n%s compressed, %s decompressed",
+                stats.fileCount, stats.directoryCount, formatSize(stats.compressedSize),
+                formatSize(stats.decompressedSize)));
+        GridPane breakdown = new GridPane();
+        breakdown.setHgap(16);
+        breakdown.setVgap(2);
+        breakdown.addRow(0, new Label("Extension"), new Label("Files"), new Label("Decompressed"));
+        int row = 1;
+        for (DirectoryStats.Extension extension : stats.extensions) {
+            breakdown.addRow(row++, new Label(extension.name.isEmpty() ? "(none)" : extension.name),
+                    new Label(String.format("%,d", extension.fileCount)),
+                    new Label(formatSize(extension.decompressedSize)));
+        }
+        VBox vBox = new VBox(10, summary, breakdown);
+        vBox.setAlignment(Pos.TOP_LEFT);
+        vBox.setPadding(new Insets(10));
+        return vBox;
+    }
+
+    private static String formatSize(long bytes) {
+        if (bytes < 1024) {
+            return String.format("%,d B", bytes);
+        }
+        if (bytes < 1024 * 1024) {
+            return String.format("%.1f KB", bytes / 1024D);
+        }
+        if (bytes < 1024 * 1024 * 1024) {
+            return String.format("%.1f MB", bytes / (1024D * 1024D));
         }
-        return counter;
+        return String.format("%.2f GB", bytes / (1024D * 1024D * 1024D));
     }
 
     @Override
@@ -81,7 +111,9 @@ public class DefaultViewer implements Viewer {
     public void onLoadStart(TreeItem<PakTreeEntry> pakTreeEntry) {
         isBlank = pakTreeEntry == null || pakTreeEntry.getValue() == null;
         isDirectory = !isBlank && pakTreeEntry.getValue().isDirectory();
-        children = countChildren(pakTreeEntry);
+        //  Looked up from the totals computed when the tree was built, rather than by walking the directory. Never
+        //  computed here, so that selecting a directory can't walk the whole tree on the FX thread
+        stats = isDirectory ? pakTreeEntry.getValue().tree.peekStats(pakTreeEntry.getValue().node) : null;
     }
 
     @Override
@@ -27,6 +27,7 @@ package co.phoenixlab.dn.dnptui.viewers;
 import co.phoenixlab.dn.dnptui.DNPTApplication;
 import co.phoenixlab.dn.dnptui.DNPTUIController;
 import co.phoenixlab.dn.dnptui.PakTreeEntry;
+import co.phoenixlab.dn.dnptui.TaskScheduler;
 import javafx.application.Platform;
 import javafx.beans.binding.Bindings;
 import javafx.beans.property.DoubleProperty;
@@ -139,7 +140,7 @@ public class ImageViewer implements Viewer {
                 }
             };
             mainUiController.showLoadingPopup(task);
-            DNPTApplication.EXECUTOR_SERVICE.submit(task);
+            DNPTApplication.SCHEDULER.execute(TaskScheduler.Lane.BULK, task);
         }
     }
 
@@ -154,13 +154,12 @@ public class Viewers {
             return DEFAULT_VIEWER;
         }
         PakTreeEntry pakTreeEntry = pakTreeItem.getValue();
-        String path = pakTreeEntry.path.toString();
         Optional<Viewer> viewer = matcherViewers.stream().
                 filter(p -> p.t.test(pakTreeItem)).
                 map(Pair::u).
                 findFirst();
 
-        return viewer.orElse(getViewerByFileExtension(pakTreeEntry.path.getFileName().toString()));
+        return viewer.orElse(getViewerByFileExtension(pakTreeEntry.name));
     }
 
     private static Viewer getViewerByFileExtension(String fileName) {
@@ -28,10 +28,11 @@ import co.phoenixlab.dds.Dds;
 import co.phoenixlab.dds.DdsImageDecoder;
 import co.phoenixlab.dn.dnptui.DNPTApplication;
 import co.phoenixlab.dn.dnptui.DNPTUIController;
+import co.phoenixlab.dn.dnptui.PakHandler;
 import co.phoenixlab.dn.dnptui.PakTreeEntry;
+import co.phoenixlab.dn.dnptui.TaskScheduler;
 import co.phoenixlab.dn.dnptui.viewers.Viewer;
 import co.phoenixlab.dn.dnptui.viewers.stageini.struct.GridInfo;
-import co.phoenixlab.dn.pak.FileInfo;
 import co.phoenixlab.dn.subfile.stage.eventarea.EventArea;
 import co.phoenixlab.dn.subfile.stage.eventarea.EventAreaGroup;
 import co.phoenixlab.dn.subfile.stage.eventarea.StageEventAreas;
@@ -40,7 +41,6 @@ import javafx.application.Platform;
 import javafx.beans.property.SimpleBooleanProperty;
 import javafx.beans.value.ObservableValue;
 import javafx.collections.FXCollections;
-import javafx.collections.ObservableList;
 import javafx.fxml.FXML;
 import javafx.geometry.Pos;
 import javafx.scene.Node;
@@ -54,12 +54,9 @@ import javafx.scene.shape.Rectangle;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
-import java.io.OutputStream;
 import java.io.PrintStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.nio.channels.Channels;
-import java.nio.channels.WritableByteChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.NoSuchFileException;
@@ -69,7 +66,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
-import java.util.zip.InflaterOutputStream;
 
 public class StageIniEventAreaInfoViewer implements Viewer {
 
@@ -112,6 +108,7 @@ public class StageIniEventAreaInfoViewer implements Viewer {
     private GridInfo gridInfo;
     private PakTreeEntry mapEntry;
     private Image mapImage;
+    private DNPTUIController mainUiController;
 
     public StageIniEventAreaInfoViewer() {
         this(StandardCharsets.UTF_8);
@@ -130,6 +127,11 @@ public class StageIniEventAreaInfoViewer implements Viewer {
         tabPane.getSelectionModel().selectedItemProperty().addListener(this::tabChanged);
     }
 
+    @Override
+    public void setMainUiController(DNPTUIController uiController) {
+        mainUiController = uiController;
+    }
+
     @Override
     public Node getDisplayNode() {
         return displayNode;
@@ -138,33 +140,17 @@ public class StageIniEventAreaInfoViewer implements Viewer {
     @Override
     public void onLoadStart(TreeItem<PakTreeEntry> treeItem) {
         //  Dispatch a load for gridinfo.ini
-        ObservableList<TreeItem<PakTreeEntry>> children = treeItem.getParent().getParent().getChildren();
-        for (TreeItem<PakTreeEntry> child : children) {
-            PakTreeEntry value = child.getValue();
-            if (value.name.equals("gridinfo.ini")) {
-                gridInfoEntry = value;
-            } else if (value.name.equals(treeItem.getParent().getParent().getValue().name + ".dds")) {
-                mapEntry = value;
-            }
-        }
+        PakTreeEntry stageDir = treeItem.getParent().getParent().getValue();
+        PakHandler handler = mainUiController.getPakHandler();
+        gridInfoEntry = handler.find(stageDir, "gridinfo.ini");
+        mapEntry = handler.find(stageDir, stageDir.name + ".dds");
     }
 
     private GridInfo loadGridInfo() throws Exception {
         if (gridInfoEntry == null) {
             throw new NoSuchFileException("Can't load gridinfo.ini");
         }
-        FileInfo fileInfo = gridInfoEntry.entry.getFileInfo();
-        ByteArrayOutputStream bao = new ByteArrayOutputStream((int) Math.max(
-            fileInfo.getDecompressedSize(),
-            fileInfo.getCompressedSize()));
-        OutputStream out = new InflaterOutputStream(bao);
-        WritableByteChannel writableByteChannel = Channels.newChannel(out);
-        gridInfoEntry.parent.openIfNotOpen();
-        gridInfoEntry.parent.transferTo(fileInfo, writableByteChannel);
-
-        out.flush();
-        byte[] decompressedBytes = bao.toByteArray();
-        ByteBuffer buffer = ByteBuffer.wrap(decompressedBytes);
+        ByteBuffer buffer = mainUiController.getPakHandler().extract(gridInfoEntry);
         GridInfo gridInfo = new GridInfo();
         gridInfo.read(buffer);
         return gridInfo;
@@ -174,19 +160,7 @@ public class StageIniEventAreaInfoViewer implements Viewer {
         if (mapEntry == null) {
             throw new NoSuchFileException("Can't load map");
         }
-        FileInfo fileInfo = mapEntry.entry.getFileInfo();
-        System.out.println(fileInfo.getFullPath());
-        ByteArrayOutputStream bao = new ByteArrayOutputStream((int) Math.max(
-            fileInfo.getDecompressedSize(),
-            fileInfo.getCompressedSize()));
-        OutputStream out = new InflaterOutputStream(bao);
-        WritableByteChannel writableByteChannel = Channels.newChannel(out);
-        mapEntry.parent.openIfNotOpen();
-        mapEntry.parent.transferTo(fileInfo, writableByteChannel);
-
-        out.flush();
-        byte[] decompressedBytes = bao.toByteArray();
-        ByteBuffer buffer = ByteBuffer.wrap(decompressedBytes);
+        ByteBuffer buffer = mainUiController.getPakHandler().extract(mapEntry);
         buffer.order(ByteOrder.LITTLE_ENDIAN);
         Dds dds = new Dds();
         dds.read(buffer);
@@ -298,7 +272,7 @@ public class StageIniEventAreaInfoViewer implements Viewer {
             listVbox.getChildren().clear();
             listVbox.getChildren().addAll(nodes);
 
-            DNPTApplication.EXECUTOR_SERVICE.schedule(() -> {
+            DNPTApplication.SCHEDULER.schedule(TaskScheduler.Lane.INTERACTIVE, () -> {
                 Platform.runLater(this::redrawCanvas);
             }, 1, TimeUnit.SECONDS);
         });
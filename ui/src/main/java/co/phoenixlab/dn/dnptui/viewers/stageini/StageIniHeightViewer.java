@@ -27,9 +27,7 @@ package co.phoenixlab.dn.dnptui.viewers.stageini;
 import co.phoenixlab.dn.dnptui.PakTreeEntry;
 import co.phoenixlab.dn.dnptui.viewers.ImageViewer;
 import co.phoenixlab.dn.dnptui.viewers.stageini.struct.GridInfo;
-import co.phoenixlab.dn.pak.FileInfo;
 import javafx.application.Platform;
-import javafx.collections.ObservableList;
 import javafx.scene.control.Label;
 import javafx.scene.control.TreeItem;
 import javafx.stage.FileChooser;
@@ -37,12 +35,8 @@ import javafx.stage.FileChooser;
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayOutputStream;
-import java.io.OutputStream;
 import java.nio.ByteBuffer;
-import java.nio.channels.Channels;
-import java.nio.channels.WritableByteChannel;
 import java.nio.file.NoSuchFileException;
-import java.util.zip.InflaterOutputStream;
 
 public class StageIniHeightViewer extends ImageViewer {
 
@@ -64,14 +58,8 @@ public class StageIniHeightViewer extends ImageViewer {
         super.onLoadStart(pakTreeEntry);
 
         //  Dispatch a load for gridinfo.ini
-        ObservableList<TreeItem<PakTreeEntry>> children = pakTreeEntry.getParent().getParent().getChildren();
-        for (TreeItem<PakTreeEntry> child : children) {
-            PakTreeEntry value = child.getValue();
-            if (value.name.equals("gridinfo.ini")) {
-                gridInfoEntry = value;
-                break;
-            }
-        }
+        PakTreeEntry stageDir = pakTreeEntry.getParent().getParent().getValue();
+        gridInfoEntry = mainUiController.getPakHandler().find(stageDir, "gridinfo.ini");
     }
 
     @Override
@@ -134,18 +122,7 @@ public class StageIniHeightViewer extends ImageViewer {
         if (gridInfoEntry == null) {
             throw new NoSuchFileException("Can't load gridinfo.ini");
         }
-        FileInfo fileInfo = gridInfoEntry.entry.getFileInfo();
-        ByteArrayOutputStream bao = new ByteArrayOutputStream((int) Math.max(
-                fileInfo.getDecompressedSize(),
-                fileInfo.getCompressedSize()));
-        OutputStream out = new InflaterOutputStream(bao);
-        WritableByteChannel writableByteChannel = Channels.newChannel(out);
-        gridInfoEntry.parent.openIfNotOpen();
-        gridInfoEntry.parent.transferTo(fileInfo, writableByteChannel);
-
-        out.flush();
-        byte[] decompressedBytes = bao.toByteArray();
-        ByteBuffer buffer = ByteBuffer.wrap(decompressedBytes);
+        ByteBuffer buffer = mainUiController.getPakHandler().extract(gridInfoEntry);
         GridInfo gridInfo = new GridInfo();
         gridInfo.read(buffer);
         return gridInfo;